@@ -1,13 +1,55 @@
 package rp;
+import java.util.Arrays;
 import java.util.concurrent.locks.*;
 import java.util.concurrent.locks.ReentrantLock;
 public class AVL_Tree extends ReentrantLock {
 
+    // Taller than any AVL tree that fits in memory (2^44 nodes)
+    static final int MAX_HEIGHT = 64;
+
     Node root;
+
+    // Ancestors of the node being inserted or deleted, root first.  Shared
+    // by every update, so updates must not run concurrently.
+    private final Node[] path = new Node[MAX_HEIGHT];
+
+    // Whether the last insert or deleteNode changed the tree, so that callers
+    // need not search for the key first.  Shared like path.
+    boolean changed;
     AVL_Tree(){
        // root=null;
     }
 
+    /**
+     * Builds a perfectly balanced tree holding keys in linear time after
+     * sorting.  Duplicates are dropped.
+     */
+    static AVL_Tree bulkLoad(int[] keys) {
+        int[] sorted = keys.clone();
+        Arrays.parallelSort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (unique == 0 || sorted[unique - 1] != sorted[i])
+                sorted[unique++] = sorted[i];
+        }
+        AVL_Tree tree = new AVL_Tree();
+        tree.root = tree.buildBalanced(sorted, 0, unique);
+        return tree;
+    }
+
+    // Makes the middle key of [lo, hi) the root of that range
+    Node buildBalanced(int[] keys, int lo, int hi) {
+        if (lo >= hi)
+            return null;
+        int mid = (lo + hi) >>> 1;
+        Node node = new Node(keys[mid]);
+        node.left = buildBalanced(keys, lo, mid);
+        node.right = buildBalanced(keys, mid + 1, hi);
+        node.height = max(height(node.left), height(node.right)) + 1;
+        node.size = size(node.left) + size(node.right) + 1;
+        return node;
+    }
+
 
     int height(Node N) {
         if (N == null)
@@ -16,6 +58,13 @@ public class AVL_Tree extends ReentrantLock {
         return N.height;
     }
 
+    int size(Node N) {
+        if (N == null)
+            return 0;
+
+        return N.size;
+    }
+
     int max(int n1, int n2){
         if(n1>n2)
             return n1;
@@ -32,9 +81,11 @@ public class AVL_Tree extends ReentrantLock {
         x.right = y;
         y.left = T2;
 
-        // Update heights
+        // Update heights and sizes
         y.height = max(height(y.left), height(y.right)) + 1;
         x.height = max(height(x.left), height(x.right)) + 1;
+        y.size = size(y.left) + size(y.right) + 1;
+        x.size = size(x.left) + size(x.right) + 1;
 
         // Return new root
         return x;
@@ -49,9 +100,11 @@ public class AVL_Tree extends ReentrantLock {
         y.left = x;
         x.right = T2;
 
-        //  Update heights
+        //  Update heights and sizes
         x.height = max(height(x.left), height(x.right)) + 1;
         y.height = max(height(y.left), height(y.right)) + 1;
+        x.size = size(x.left) + size(x.right) + 1;
+        y.size = size(y.left) + size(y.right) + 1;
 
         // Return new root
         return y;
@@ -64,46 +117,96 @@ public class AVL_Tree extends ReentrantLock {
         return height(N.left) - height(N.right);
     }
 
-    Node insert(Node node, int key) {
-        if (node == null)
-            return (new Node(key));
-
-        if (key < node.key)
-            node.left = insert(node.left, key);
-        else if (key > node.key)
-            node.right = insert(node.right, key);
-        else // Duplicate keys not allowed
-            return node;
-
-        node.height = 1 + max(height(node.left),
-                height(node.right));
-
-
+    /**
+     * Updates node's height and size and restores its balance with one or two
+     * rotations if needed.
+     *
+     * @return The root of the subtree that node was the root of
+     */
+    Node rebalance(Node node) {
+        node.height = max(height(node.left), height(node.right)) + 1;
+        node.size = size(node.left) + size(node.right) + 1;
         int balance = getBalance(node);
 
-
-        // Left Left Case
-        if (balance > 1 && key < node.left.key)
-            return rightRotate(node);
-
-        // Right Right Case
-        if (balance < -1 && key > node.right.key)
-            return leftRotate(node);
-
-        // Left Right Case
-        if (balance > 1 && key > node.left.key) {
-            node.left = leftRotate(node.left);
+        // Left Left and Left Right Cases
+        if (balance > 1) {
+            if (getBalance(node.left) < 0)
+                node.left = leftRotate(node.left);
             return rightRotate(node);
         }
 
-        // Right Left Case
-        if (balance < -1 && key < node.right.key) {
-            node.right = rightRotate(node.right);
+        // Right Right and Right Left Cases
+        if (balance < -1) {
+            if (getBalance(node.right) > 0)
+                node.right = rightRotate(node.right);
             return leftRotate(node);
         }
         return node;
     }
 
+    /**
+     * Rebalances the first depth nodes of path from the bottom up after the
+     * subtree below path[depth - 1] changed.  Above the first subtree whose
+     * height is unchanged no balance can have changed either, so from there
+     * up only the sizes are updated.
+     *
+     * @return The root of the whole tree, which was root before the update
+     */
+    private Node retrace(Node root, int depth) {
+        boolean heightChanged = true;
+        while (depth > 0) {
+            Node node = path[--depth];
+            path[depth] = null;
+            if (!heightChanged) {
+                node.size = size(node.left) + size(node.right) + 1;
+                continue;
+            }
+
+            int oldHeight = node.height;
+            Node subRoot = rebalance(node);
+            if (depth == 0)
+                return subRoot;
+
+            Node parent = path[depth - 1];
+            if (parent.left == node)
+                parent.left = subRoot;
+            else if (parent.right == node)
+                parent.right = subRoot;
+            heightChanged = subRoot.height != oldHeight;
+        }
+        return root;
+    }
+
+    /**
+     * Inserts key into the subtree rooted at node without recursing, and sets
+     * changed if key was not already there.
+     *
+     * @return The new root of the subtree
+     */
+    Node insert(Node node, int key) {
+        int depth = 0;
+        Node current = node;
+        while (current != null) {
+            if (key == current.key) { // Duplicate keys not allowed
+                Arrays.fill(path, 0, depth, null);
+                changed = false;
+                return node;
+            }
+            path[depth++] = current;
+            current = key < current.key ? current.left : current.right;
+        }
+
+        Node leaf = new Node(key);
+        changed = true;
+        if (depth == 0)
+            return leaf;
+        Node parent = path[depth - 1];
+        if (key < parent.key)
+            parent.left = leaf;
+        else
+            parent.right = leaf;
+        return retrace(node, depth);
+    }
 
     void preOrder(Node node) {
         if (node != null) {
@@ -124,6 +227,44 @@ public class AVL_Tree extends ReentrantLock {
     }
 
 
+    /**
+     * Counts the keys in the subtree rooted at node that are smaller than
+     * key.  Like select, this gives up after MAX_HEIGHT steps, which no
+     * consistent tree needs, so it can run without a lock and be validated
+     * afterwards.
+     */
+    int rank(Node node, int key) {
+        int rank = 0;
+        for (int steps = 0; node != null && steps < MAX_HEIGHT; steps++) {
+            if (key <= node.key) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the node holding the k'th smallest key in the subtree rooted at
+     * node, counting from 0, or null if the subtree has k nodes or fewer.
+     */
+    Node select(Node node, int k) {
+        for (int steps = 0; node != null && steps < MAX_HEIGHT; steps++) {
+            int left = size(node.left);
+            if (k < left) {
+                node = node.left;
+            } else if (k == left) {
+                return node;
+            } else {
+                k -= left + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
     Node searchNode(Node root, int key){
 
         if(root==null || key==root.key){
@@ -141,78 +282,49 @@ public class AVL_Tree extends ReentrantLock {
         else return root;
     }
 
+    /**
+     * Removes key from the subtree rooted at root without recursing.  A node
+     * with two children takes its successor's key and the successor is
+     * removed instead.  Sets changed if key was there.
+     *
+     * @return The new root of the subtree
+     */
     Node deleteNode(Node root, int key)
     {
-        if (root == null)
-            return root;
-
-        if (key < root.key)
-            root.left = deleteNode(root.left, key);
-
-        else if (key > root.key)
-            root.right = deleteNode(root.right, key);
-
-        else
-        {
-
-            // node with only one child or no child
-            if ((root.left == null) || (root.right == null))
-            {
-                Node temp = null;
-                if (temp == root.left)
-                    temp = root.right;
-                else
-                    temp = root.left;
-
-                // No child case
-                if (temp == null)
-                {
-                    temp = root;
-                    root = null;
-                }
-                else // One child case
-                    root = temp;
-            }
-            else
-            {
-
-                Node temp = minValueNode(root.right);
-                root.key = temp.key;
-                root.right = deleteNode(root.right, temp.key);
-            }
+        int depth = 0;
+        Node current = root;
+        while (current != null && key != current.key) {
+            path[depth++] = current;
+            current = key < current.key ? current.left : current.right;
         }
-
-        if (root == null)
+        if (current == null) {
+            Arrays.fill(path, 0, depth, null);
+            changed = false;
             return root;
-
-        root.height = max(height(root.left), height(root.right)) + 1;
-
-        int balance = getBalance(root);
-
-        // Left Left Case
-        if (balance > 1 && getBalance(root.left) >= 0)
-            return rightRotate(root);
-
-        // Left Right Case
-        if (balance > 1 && getBalance(root.left) < 0)
-        {
-            root.left = leftRotate(root.left);
-            return rightRotate(root);
         }
-
-        // Right Right Case
-        if (balance < -1 && getBalance(root.right) <= 0)
-            return leftRotate(root);
-
-        // Right Left Case
-        if (balance < -1 && getBalance(root.right) > 0)
-        {
-            root.right = rightRotate(root.right);
-            return leftRotate(root);
+        changed = true;
+
+        if (current.left != null && current.right != null) {
+            path[depth++] = current;
+            Node successor = current.right;
+            while (successor.left != null) {
+                path[depth++] = successor;
+                successor = successor.left;
+            }
+            current.key = successor.key;
+            current = successor;
         }
 
-        return root;
+        // current has at most one child, which takes its place
+        Node child = current.left != null ? current.left : current.right;
+        if (depth == 0)
+            return child;
+        Node parent = path[depth - 1];
+        if (parent.left == current)
+            parent.left = child;
+        else
+            parent.right = child;
+        return retrace(root, depth);
     }
 
 }
-
@@ -0,0 +1,215 @@
+package rp;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Flat-combining front end for the sequential AVL_Tree.
+ *
+ * Instead of every thread acquiring the tree's lock for its own operation,
+ * each thread publishes its request in its own slot of a publication array
+ * and then either becomes the combiner (by acquiring the tree's lock) or
+ * spins on its slot.  The combiner scans the publication array and applies
+ * every pending insert, deleteNode and searchNode to the sequential tree in
+ * one pass, so the tree lock changes hands once per batch instead of once
+ * per operation and the tree stays hot in the combiner's cache.
+ *
+ * A slot belongs to its thread only as long as the thread lives: slots hold
+ * their owner through a weak reference, and once the publication array is
+ * full a new thread takes over the slot of one that has died.
+ */
+public class FlatCombiningAVLTree {
+
+    static final int NONE = 0;
+    static final int INSERT = 1;
+    static final int DELETE = 2;
+    static final int SEARCH = 3;
+
+    // Number of scans of the publication array per combining session
+    private static final int COMBINING_PASSES = 3;
+
+    // Spins on a pending request between calls to Thread.yield
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    // Requests a thread without a slot makes between looks for a free one
+    private static final int REGISTER_RETRY = 1024;
+
+    /**
+     * A thread's publication slot.  op is written last by the owner and
+     * cleared last by the combiner, so it also publishes key and result.
+     */
+    static class Request {
+        int key;
+        boolean result;
+        volatile int op = NONE;
+        final boolean published;
+        // Requests made since the owner last looked for a slot, if it has none
+        int unpublishedOps;
+        private final WeakReference<Thread> owner;
+
+        Request(Thread owner) {
+            this.owner = owner == null ? null : new WeakReference<Thread>(owner);
+            this.published = owner != null;
+        }
+
+        boolean ownerDead() {
+            Thread t = owner == null ? null : owner.get();
+            return t == null || !t.isAlive();
+        }
+    }
+
+    private final AVL_Tree tree;
+    private final AtomicReferenceArray<Request> publication;
+    private final AtomicInteger registered = new AtomicInteger();
+    private final ThreadLocal<Request> myRequest =
+            ThreadLocal.withInitial(this::register);
+
+    /**
+     * Creates an empty tree whose publication array has room for maxThreads
+     * live threads.  Any threads beyond that combine their own requests under
+     * the tree lock until a slot's owner dies.
+     */
+    public FlatCombiningAVLTree(int maxThreads) {
+        this(maxThreads, new AVL_Tree());
+    }
+
+    private FlatCombiningAVLTree(int maxThreads, AVL_Tree tree) {
+        this.tree = tree;
+        publication = new AtomicReferenceArray<Request>(maxThreads);
+    }
+
+    /**
+     * Creates a tree preloaded with keys, built balanced in one pass rather
+     * than by one insert per key.
+     */
+    public static FlatCombiningAVLTree bulkLoad(int maxThreads, int[] keys) {
+        return new FlatCombiningAVLTree(maxThreads, AVL_Tree.bulkLoad(keys));
+    }
+
+    /**
+     * Gives the calling thread a slot that has never been used, or else the
+     * slot of a thread that has died.
+     *
+     * @return The thread's request, not published if every slot is taken
+     */
+    private Request register() {
+        Request r = new Request(Thread.currentThread());
+        if (registered.get() < publication.length()) {
+            int slot = registered.getAndIncrement();
+            if (slot < publication.length()) {
+                publication.set(slot, r);
+                return r;
+            }
+        }
+        // No one waits on a dead thread's request, so its slot is free
+        for (int i = 0; i < publication.length(); i++) {
+            Request old = publication.get(i);
+            if (old != null && old.ownerDead()
+                    && publication.compareAndSet(i, old, r))
+                return r;
+        }
+        return new Request(null);
+    }
+
+    /**
+     * Inserts key into the tree.
+     *
+     * @return True if key was not already in the tree
+     */
+    public boolean insert(int key) {
+        return execute(INSERT, key);
+    }
+
+    /**
+     * Removes key from the tree.
+     *
+     * @return True if key was in the tree
+     */
+    public boolean deleteNode(int key) {
+        return execute(DELETE, key);
+    }
+
+    /**
+     * Searches the tree for key.
+     *
+     * @return True if key is in the tree
+     */
+    public boolean searchNode(int key) {
+        return execute(SEARCH, key);
+    }
+
+    private boolean execute(int op, int key) {
+        Request req = myRequest.get();
+        if (!req.published && ++req.unpublishedOps == REGISTER_RETRY) {
+            req = register();
+            myRequest.set(req);
+        }
+        req.key = key;
+        req.op = op;
+
+        while (true) {
+            if (tree.tryLock()) {
+                try {
+                    if (req.op != NONE)
+                        apply(req);
+                    combine();
+                } finally {
+                    tree.unlock();
+                }
+                return req.result;
+            }
+
+            // Someone else is combining, wait for them to serve us or leave.
+            // Yield once in a while so an oversubscribed combiner can run.
+            int spins = 0;
+            while (req.published && req.op != NONE && tree.isLocked()) {
+                if (++spins % SPINS_BEFORE_YIELD == 0)
+                    Thread.yield();
+                else
+                    Thread.onSpinWait();
+            }
+            if (req.op == NONE)
+                return req.result;
+            if (!req.published)
+                Thread.yield();
+        }
+    }
+
+    /**
+     * Applies every pending request in the publication array.  Must be called
+     * with the tree lock held.
+     */
+    private void combine() {
+        int slots = Math.min(registered.get(), publication.length());
+        for (int pass = 0; pass < COMBINING_PASSES; pass++) {
+            boolean applied = false;
+            for (int i = 0; i < slots; i++) {
+                Request r = publication.get(i);
+                if (r != null && r.op != NONE) {
+                    apply(r);
+                    applied = true;
+                }
+            }
+            if (!applied)
+                break;
+        }
+    }
+
+    private void apply(Request r) {
+        switch (r.op) {
+            case INSERT:
+                tree.root = tree.insert(tree.root, r.key);
+                r.result = tree.changed;
+                break;
+            case DELETE:
+                tree.root = tree.deleteNode(tree.root, r.key);
+                r.result = tree.changed;
+                break;
+            default:
+                r.result = tree.searchNode(tree.root, r.key) != null;
+                break;
+        }
+        r.op = NONE;
+    }
+}
@@ -7,6 +7,7 @@ public class Node {
 
     int key;
     int height;
+    int size;     // Number of nodes in the subtree rooted here
     Node left;
     Node right;
 
@@ -14,7 +15,8 @@ public class Node {
    int Throughput=0;
     Node(int key){
         this.key = key;
-        this.height=height;
+        this.height=1;
+        this.size=1;
 
     }
     public void getLock() throws InterruptedException {
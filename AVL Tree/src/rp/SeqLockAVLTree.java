@@ -0,0 +1,176 @@
+package rp;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Thread-safe front end for the sequential AVL_Tree that lets searches run
+ * in parallel.
+ *
+ * insert and deleteNode take the write lock of a StampedLock, which works
+ * like the sequence number of a seqlock: every write makes the stamps handed
+ * out before it invalid.  searchNode walks the tree without any lock under an
+ * optimistic stamp and keeps its answer if the stamp is still valid at the
+ * end, so readers never write to shared memory.  Only a search that overlaps
+ * a write is repeated, this time under the read lock.
+ *
+ * A search that overlaps a write can see the tree in the middle of a
+ * rotation, where a child link may briefly point back up the tree.  The
+ * optimistic walk therefore gives up after AVL_Tree.MAX_HEIGHT steps; it
+ * would have failed validation anyway.
+ *
+ * size, rank, select and countRange use the subtree sizes AVL_Tree keeps in
+ * every node, so they take O(log n) steps (size takes one) and read the tree
+ * optimistically in the same way.
+ */
+public class SeqLockAVLTree {
+
+    private final AVL_Tree tree;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Creates an empty tree.
+     */
+    public SeqLockAVLTree() {
+        this(new AVL_Tree());
+    }
+
+    private SeqLockAVLTree(AVL_Tree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Creates a tree preloaded with keys, built balanced in one pass rather
+     * than by one insert per key.
+     */
+    public static SeqLockAVLTree bulkLoad(int[] keys) {
+        return new SeqLockAVLTree(AVL_Tree.bulkLoad(keys));
+    }
+
+    /**
+     * Inserts key into the tree.
+     *
+     * @return True if key was not already in the tree
+     */
+    public boolean insert(int key) {
+        long stamp = lock.writeLock();
+        try {
+            tree.root = tree.insert(tree.root, key);
+            return tree.changed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes key from the tree.
+     *
+     * @return True if key was in the tree
+     */
+    public boolean deleteNode(int key) {
+        long stamp = lock.writeLock();
+        try {
+            tree.root = tree.deleteNode(tree.root, key);
+            return tree.changed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Searches the tree for key, optimistically first and under the read
+     * lock if a write got in the way.
+     *
+     * @return True if key is in the tree
+     */
+    public boolean searchNode(int key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean found = optimisticSearch(key);
+            if (lock.validate(stamp))
+                return found;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return tree.searchNode(tree.root, key) != null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of keys in the tree.
+     */
+    public int size() {
+        return read(() -> tree.size(tree.root));
+    }
+
+    /**
+     * Returns the number of keys in the tree smaller than key.
+     */
+    public int rank(int key) {
+        return read(() -> tree.rank(tree.root, key));
+    }
+
+    /**
+     * Returns the k'th smallest key in the tree, counting from 0.
+     *
+     * @throws NoSuchElementException If the tree has k keys or fewer
+     */
+    public int select(int k) {
+        Node[] found = new Node[1];
+        int key = read(() -> {
+            found[0] = tree.select(tree.root, k);
+            return found[0] == null ? 0 : found[0].key;
+        });
+        if (found[0] == null)
+            throw new NoSuchElementException("No key at index " + k);
+        return key;
+    }
+
+    /**
+     * Returns the number of keys in [lo, hi).  Both ends are ranked against
+     * the same version of the tree.
+     */
+    public int countRange(int lo, int hi) {
+        if (lo >= hi)
+            return 0;
+        return read(() -> tree.rank(tree.root, hi) - tree.rank(tree.root, lo));
+    }
+
+    /**
+     * Runs reader without a lock and returns its result if no write
+     * overlapped it, or runs it again under the read lock if one did.
+     * reader must not loop on an inconsistent tree.
+     */
+    private int read(IntSupplier reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int result = reader.getAsInt();
+            if (lock.validate(stamp))
+                return result;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return reader.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Only the final validate makes the result trustworthy
+    private boolean optimisticSearch(int key) {
+        Node node = tree.root;
+        for (int steps = 0; node != null && steps < AVL_Tree.MAX_HEIGHT;
+                steps++) {
+            int nodeKey = node.key;
+            if (key == nodeKey)
+                return true;
+            node = key < nodeKey ? node.left : node.right;
+        }
+        return false;
+    }
+}
@@ -9,10 +9,13 @@ public class Test_AVL{
 
     private static int THREADS=16;
     static AVL_Tree tree = new AVL_Tree();
+    static FlatCombiningAVLTree fcTree = new FlatCombiningAVLTree(THREADS);
     public static int n=1000;
     static float percPut = 50;      //Percentage of Add/Remove Operations
     static float percRemove = 50;// Percentage of Contains operations
     private static final int PER_THREAD = 10000;
+    static final int PERC_READ = 95;
+    private static final int MIXED_OPS = 200000;
     static int NoofPutthreads = (int) ((percPut / 100) * THREADS);
     static int NoofRemoveThreads = (int) ((percRemove / 100) * THREADS);
     static int NoofSearchThreads=THREADS-(NoofPutthreads+NoofRemoveThreads);
@@ -36,6 +39,7 @@ public class Test_AVL{
         }
 
 
+        long before = System.nanoTime();
         for (int i = 0; i < THREADS; i++) {
             threads[i].start();
 
@@ -52,9 +56,72 @@ public class Test_AVL{
                 e.printStackTrace();
             }
         }
+        long after = System.nanoTime();
         System.out.println();
         System.out.println("Throughput: "+tree.root.Throughput);
+        System.out.println("Monitor-based tree: " + (after - before) + " ns");
 
+        // Same operation mix, but through the flat-combining front end
+        for (int i=0;i<NoofPutthreads;i++){
+            threads[i] = new combining(FlatCombiningAVLTree.INSERT, insertion.PER_THREAD);
+        }
+        for (int i=NoofPutthreads;i<NoofRemoveThreads+NoofPutthreads;i++){
+            threads[i] = new combining(FlatCombiningAVLTree.DELETE, remove.PER_THREAD);
+        }
+        for (int i=THREADS-NoofSearchThreads;i<THREADS;i++){
+            threads[i] = new combining(FlatCombiningAVLTree.SEARCH, PER_THREAD);
+        }
+
+        before = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        after = System.nanoTime();
+        System.out.println("Flat-combining tree: " + (after - before) + " ns");
+
+        // Read scaling at 95% searches.  The monitor lets one searcher in at
+        // a time, the seqlock front end lets them all search at once.
+        int[] preload = new int[n / 2];
+        for (int i = 0; i < preload.length; i++)
+            preload[i] = ThreadLocalRandom.current().nextInt(1, n);
+        System.out.println("Read scaling, " + PERC_READ + "% searches:");
+        for (int t = 1; t <= THREADS; t *= 2) {
+            AVL_Tree monitorTree = AVL_Tree.bulkLoad(preload);
+            for (int i = 0; i < t; i++)
+                threads[i] = new mixed(monitorTree);
+            long monitorOps = runThreads(threads, t);
+
+            SeqLockAVLTree seqTree = SeqLockAVLTree.bulkLoad(preload);
+            for (int i = 0; i < t; i++)
+                threads[i] = new mixed(seqTree);
+            long seqLockOps = runThreads(threads, t);
+
+            System.out.println(t + " threads: monitor " + monitorOps
+                    + " ops/ms, seqlock " + seqLockOps + " ops/ms");
+        }
+    }
+
+    // Runs the first count threads and returns their combined ops/ms
+    static long runThreads(Thread[] threads, int count) {
+        long before = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            threads[i].start();
+        for (int i = 0; i < count; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - before;
+        return (long) count * MIXED_OPS * 1000000L / elapsed;
     }
 
 
@@ -112,6 +179,70 @@ static class remove extends Thread{
 
     }
 
+    static class combining extends Thread {
+        private final int op;
+        private final int ops;
+
+        combining(int op, int ops) {
+            this.op = op;
+            this.ops = ops;
+        }
+
+        public void run() {
+            for (int i = 0; i < ops; i++) {
+                int RandInt = ThreadLocalRandom.current().nextInt(1, n);
+                if (op == FlatCombiningAVLTree.INSERT)
+                    fcTree.insert(RandInt);
+                else if (op == FlatCombiningAVLTree.DELETE)
+                    fcTree.deleteNode(RandInt);
+                else
+                    fcTree.searchNode(RandInt);
+            }
+        }
+    }
+
+    // PERC_READ% searches, the rest split between inserts and deletes,
+    // against either a monitor-protected tree or a SeqLockAVLTree
+    static class mixed extends Thread {
+        private final AVL_Tree monitorTree;
+        private final SeqLockAVLTree seqTree;
+
+        mixed(AVL_Tree monitorTree) {
+            this.monitorTree = monitorTree;
+            this.seqTree = null;
+        }
+
+        mixed(SeqLockAVLTree seqTree) {
+            this.monitorTree = null;
+            this.seqTree = seqTree;
+        }
+
+        public void run() {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            for (int i = 0; i < MIXED_OPS; i++) {
+                int RandInt = rand.nextInt(1, n);
+                int op = rand.nextInt(100);
+                if (seqTree != null) {
+                    if (op < PERC_READ)
+                        seqTree.searchNode(RandInt);
+                    else if (op % 2 == 0)
+                        seqTree.insert(RandInt);
+                    else
+                        seqTree.deleteNode(RandInt);
+                    continue;
+                }
+                synchronized (monitorTree) {
+                    if (op < PERC_READ)
+                        monitorTree.searchNode(monitorTree.root, RandInt);
+                    else if (op % 2 == 0)
+                        monitorTree.root = monitorTree.insert(monitorTree.root, RandInt);
+                    else
+                        monitorTree.root = monitorTree.deleteNode(monitorTree.root, RandInt);
+                }
+            }
+        }
+    }
+
     static class search extends Thread {
 
         public void run() throws NullPointerException {
@@ -0,0 +1,92 @@
+package concurrent_tree;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Async Binary Tree
+ *
+ * Asynchronous front end for any ConcurrentBinaryTree.  Every operation is
+ * handed to an executor and returns a CompletableFuture that completes with
+ * the tree's answer, or exceptionally if the tree threw.  The operations
+ * themselves are the tree's own, so concurrent operations are exactly as
+ * atomic and ordered as they are on the tree; two futures submitted one
+ * after the other may complete in either order.
+ *
+ * The executor decides how the tree sees its callers.  The default runs
+ * each operation on its own virtual thread where the JVM has them (see
+ * VirtualThreads), so a lock the tree blocks on parks a virtual thread
+ * instead of holding a pool thread.  Passing a small fixed pool instead
+ * bounds how many operations run in the tree at once.
+ *
+ * @param <T> Generic data type that the tree stores.
+ */
+public class AsyncBinaryTree<T extends Comparable<? super T>> {
+
+	private final ConcurrentBinaryTree<T> tree;
+	private final Executor executor;
+
+	/**
+	 * Runs operations on tree with VirtualThreads.threadPerTaskExecutor.
+	 */
+	public AsyncBinaryTree(ConcurrentBinaryTree<T> tree) {
+		this(tree, VirtualThreads.threadPerTaskExecutor());
+	}
+
+	/**
+	 * @param tree The tree to run operations on
+	 * @param executor Where to run them
+	 */
+	public AsyncBinaryTree(ConcurrentBinaryTree<T> tree, Executor executor) {
+		this.tree = tree;
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the tree operations are run on, for synchronous access.
+	 */
+	public ConcurrentBinaryTree<T> tree() {
+		return tree;
+	}
+
+	/**
+	 * Inserts data, see ConcurrentBinaryTree.insert.
+	 */
+	public CompletableFuture<Boolean> insert(T data) {
+		return CompletableFuture.supplyAsync(() -> tree.insert(data), executor);
+	}
+
+	/**
+	 * Removes data, see ConcurrentBinaryTree.remove.
+	 */
+	public CompletableFuture<T> remove(T data) {
+		return CompletableFuture.supplyAsync(() -> tree.remove(data), executor);
+	}
+
+	/**
+	 * Searches for data, see ConcurrentBinaryTree.contains.
+	 */
+	public CompletableFuture<Boolean> contains(T data) {
+		return CompletableFuture.supplyAsync(() -> tree.contains(data),
+				executor);
+	}
+
+	/**
+	 * Inserts the batch as one task, see ConcurrentBinaryTree.insertAll.
+	 */
+	public CompletableFuture<Integer> insertAll(
+			Collection<? extends T> batch) {
+		return CompletableFuture.supplyAsync(() -> tree.insertAll(batch),
+				executor);
+	}
+
+	/**
+	 * Removes the batch as one task, see ConcurrentBinaryTree.removeAll.
+	 */
+	public CompletableFuture<Integer> removeAll(
+			Collection<? extends T> batch) {
+		return CompletableFuture.supplyAsync(() -> tree.removeAll(batch),
+				executor);
+	}
+}
@@ -0,0 +1,62 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Backoff Lock Class
+ *
+ * Test-and-test-and-set lock with randomized exponential backoff.  Waiting
+ * threads spin reading the lock until it looks free and only then try to
+ * take it, and after losing that race wait a random number of spins before
+ * trying again, doubling the bound each time up to MAX_DELAY.  This keeps the
+ * cache line quiet while the lock is held, at the cost of sometimes leaving
+ * it free for a moment.
+ *
+ */
+class BackoffLock extends SpinLock {
+
+	static final int MIN_DELAY = 16;
+	static final int MAX_DELAY = 1 << 12;
+
+	private static final VarHandle LOCKED;
+
+	static {
+		try {
+			LOCKED = MethodHandles.lookup().findVarHandle(BackoffLock.class,
+					"locked", boolean.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private volatile boolean locked;
+
+	@Override
+	public void lock() {
+		int limit = MIN_DELAY;
+		int spins = 0;
+		while(true) {
+			while(locked)
+				pause(spins++);
+			if(LOCKED.compareAndSet(this, false, true))
+				return;
+
+			int delay = ThreadLocalRandom.current().nextInt(limit);
+			for(int i = 0; i < delay; i++)
+				pause(spins++);
+			limit = Math.min(MAX_DELAY, limit * 2);
+		}
+	}
+
+	@Override
+	public boolean tryLock() {
+		return !locked && LOCKED.compareAndSet(this, false, true);
+	}
+
+	@Override
+	public void unlock() {
+		locked = false;
+	}
+}
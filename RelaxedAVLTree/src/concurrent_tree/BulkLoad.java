@@ -0,0 +1,154 @@
+package concurrent_tree;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BulkLoad Class
+ *
+ * Shared helpers for the trees' bulkLoad factories.  A bulk load sorts its
+ * input (with Arrays.parallelSort, which splits the work across the common
+ * fork-join pool) unless a linear scan shows it is already sorted, drops
+ * duplicates, and then builds a perfectly height-balanced tree by making the
+ * middle key of every range the root of that range.  Building is linear in
+ * the number of keys, and large ranges are built in parallel as fork-join
+ * tasks.
+ *
+ */
+public final class BulkLoad {
+
+	/**
+	 * Ranges smaller than this are built by the calling thread.
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 14;
+
+	/**
+	 * Creates one node of a balanced tree.  Called with the already built
+	 * subtrees of the node (null where a subtree is empty), and possibly from
+	 * several threads at once for disjoint ranges.
+	 *
+	 * @param <N> Node type of the tree being built
+	 */
+	interface NodeBuilder<N> {
+		N node(int index, N left, N right);
+	}
+
+	private BulkLoad() {
+	}
+
+	/**
+	 * Returns the data as a sorted array without duplicates.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends Comparable<? super T>> T[] sortedUnique(
+			Collection<? extends T> data) {
+		T keys[] = (T[]) data.toArray(new Comparable<?>[data.size()]);
+		if(!isSorted(keys))
+			Arrays.parallelSort(keys);
+		int unique = 0;
+		for(int i = 0; i < keys.length; i++) {
+			if(unique == 0 || keys[unique - 1].compareTo(keys[i]) != 0)
+				keys[unique++] = keys[i];
+		}
+		return unique == keys.length ? keys : Arrays.copyOf(keys, unique);
+	}
+
+	/**
+	 * Returns a sorted copy of keys without duplicates.
+	 */
+	static int[] sortedUnique(int keys[]) {
+		int sorted[] = keys.clone();
+		boolean inOrder = true;
+		for(int i = 1; i < sorted.length && inOrder; i++)
+			inOrder = sorted[i - 1] <= sorted[i];
+		if(!inOrder)
+			Arrays.parallelSort(sorted);
+		int unique = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			if(unique == 0 || sorted[unique - 1] != sorted[i])
+				sorted[unique++] = sorted[i];
+		}
+		return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+	}
+
+	/**
+	 * Returns a sorted copy of keys without duplicates.
+	 */
+	static long[] sortedUnique(long keys[]) {
+		long sorted[] = keys.clone();
+		boolean inOrder = true;
+		for(int i = 1; i < sorted.length && inOrder; i++)
+			inOrder = sorted[i - 1] <= sorted[i];
+		if(!inOrder)
+			Arrays.parallelSort(sorted);
+		int unique = 0;
+		for(int i = 0; i < sorted.length; i++) {
+			if(unique == 0 || sorted[unique - 1] != sorted[i])
+				sorted[unique++] = sorted[i];
+		}
+		return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+	}
+
+	private static <T extends Comparable<? super T>> boolean isSorted(
+			T keys[]) {
+		for(int i = 1; i < keys.length; i++) {
+			if(keys[i - 1].compareTo(keys[i]) > 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a balanced tree over the indexes [lo, hi).
+	 *
+	 * @return The root of the tree, or null if the range is empty
+	 */
+	static <N> N build(int lo, int hi, NodeBuilder<N> builder) {
+		if(hi - lo < PARALLEL_THRESHOLD)
+			return buildRange(lo, hi, builder);
+		return ForkJoinPool.commonPool().invoke(
+				new BuildTask<N>(lo, hi, builder));
+	}
+
+	private static <N> N buildRange(int lo, int hi, NodeBuilder<N> builder) {
+		if(lo >= hi)
+			return null;
+		int mid = (lo + hi) >>> 1;
+		N left = buildRange(lo, mid, builder);
+		N right = buildRange(mid + 1, hi, builder);
+		return builder.node(mid, left, right);
+	}
+
+	/**
+	 * Height of a perfectly balanced tree over count nodes.
+	 */
+	static int height(int count) {
+		return 32 - Integer.numberOfLeadingZeros(count);
+	}
+
+	@SuppressWarnings("serial")
+	private static final class BuildTask<N> extends RecursiveTask<N> {
+		final int lo;
+		final int hi;
+		final NodeBuilder<N> builder;
+
+		BuildTask(int lo, int hi, NodeBuilder<N> builder) {
+			this.lo = lo;
+			this.hi = hi;
+			this.builder = builder;
+		}
+
+		@Override
+		protected N compute() {
+			if(hi - lo < PARALLEL_THRESHOLD)
+				return buildRange(lo, hi, builder);
+			int mid = (lo + hi) >>> 1;
+			BuildTask<N> left = new BuildTask<N>(lo, mid, builder);
+			left.fork();
+			N right = new BuildTask<N>(mid + 1, hi, builder).compute();
+			return builder.node(mid, left.join(), right);
+		}
+	}
+}
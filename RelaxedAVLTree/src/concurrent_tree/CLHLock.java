@@ -0,0 +1,67 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * CLH Lock Class
+ *
+ * Queue lock of Craig, Landin and Hagersten.  Each waiting thread spins on
+ * the queue node of the thread ahead of it, which that thread clears when it
+ * releases the lock.  Unlike MCS, a release never waits for the next thread
+ * to link in, but every lock needs a dummy node to start the queue with.  A
+ * thread that gets the lock takes over its predecessor's node for reuse.
+ *
+ */
+class CLHLock extends SpinLock {
+
+	private static final VarHandle TAIL;
+
+	static {
+		try {
+			TAIL = MethodHandles.lookup().findVarHandle(CLHLock.class, "tail",
+					QNode.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private volatile QNode tail = new QNode();
+
+	@Override
+	public void lock() {
+		QNode node = take();
+		node.locked = true;
+		QNode pred = (QNode) TAIL.getAndSet(this, node);
+		int spins = 0;
+		while(pred.locked)
+			pause(spins++);
+		node.pred = pred;
+		hold(node);
+	}
+
+	@Override
+	public boolean tryLock() {
+		QNode pred = tail;
+		if(pred.locked)
+			return false;
+		QNode node = take();
+		node.locked = true;
+		if(!TAIL.compareAndSet(this, pred, node)) {
+			recycle(node);
+			return false;
+		}
+		node.pred = pred;
+		hold(node);
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		QNode node = release();
+		QNode pred = node.pred;
+		node.pred = null;
+		node.locked = false;
+		recycle(pred);
+	}
+}
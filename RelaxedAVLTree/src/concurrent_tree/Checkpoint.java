@@ -0,0 +1,171 @@
+package concurrent_tree;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checkpoint Class
+ *
+ * Writes the keys of an int-keyed tree to a memory-mapped file in ascending
+ * order, and maps such a file back so that a tree's load factory can bulk
+ * build from it.  Checkpoints are written from a weakly consistent iteration
+ * of the tree, so the tree keeps serving inserts and removes while it is
+ * being checkpointed; every key that is in the tree for the whole checkpoint
+ * is in the file.
+ *
+ * The file is a 16 byte header (magic, format version and the number of
+ * keys as a long) followed by the keys as little-endian ints.  The file is
+ * grown a segment at a time while writing and trimmed afterwards where the
+ * platform allows it, so readers go by the count in the header.  The header
+ * is written and forced last, so a checkpoint that was cut short by a crash
+ * has no magic number and is rejected by read.  A checkpoint is written to a
+ * temporary file next to the real one and then renamed over it, so a crash
+ * while writing leaves the previous checkpoint in place.
+ *
+ */
+public final class Checkpoint {
+
+	static final int MAGIC = 0x54434B50;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int KEY_BYTES = Integer.BYTES;
+
+	/**
+	 * Bytes mapped at a time while writing.
+	 */
+	static final int SEGMENT_BYTES = 1 << 22;
+
+	private Checkpoint() {
+	}
+
+	/**
+	 * Writes the keys to file, replacing anything already there.
+	 *
+	 * @param keys The keys to write, in strictly ascending order, such as a
+	 * tree being iterated
+	 * @param file The checkpoint file
+	 * @return The number of keys written
+	 * @throws IllegalArgumentException If the keys are not strictly ascending
+	 */
+	public static long write(Iterable<Integer> keys, Path file)
+			throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory,
+				file.getFileName().toString(), ".tmp");
+		boolean moved = false;
+		try {
+			long count = writeKeys(keys, temporary);
+			Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+			return count;
+		} finally {
+			if(!moved) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch(IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the keys and then the header to file, which must exist.
+	 */
+	private static long writeKeys(Iterable<Integer> keys, Path file)
+			throws IOException {
+		try(FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long count = 0;
+			long segmentStart = HEADER_BYTES;
+			MappedByteBuffer segment = map(channel, segmentStart);
+			boolean first = true;
+			int previous = 0;
+
+			for(Integer key : keys) {
+				int k = key.intValue();
+				if(!first && k <= previous)
+					throw new IllegalArgumentException("Keys out of order: "
+							+ k + " after " + previous);
+				if(!segment.hasRemaining()) {
+					segment.force();
+					segmentStart += SEGMENT_BYTES;
+					segment = map(channel, segmentStart);
+				}
+				segment.putInt(k);
+				first = false;
+				previous = k;
+				count++;
+			}
+			segment.force();
+
+			//Publish the keys only once they are on disk
+			MappedByteBuffer header = channel.map(
+					FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(4, VERSION);
+			header.putLong(8, count);
+			header.putInt(0, MAGIC);
+			header.force();
+
+			//Drop the unused end of the last segment.  Windows refuses to
+			//shrink a file while it is mapped, which only costs disk space.
+			try {
+				channel.truncate(HEADER_BYTES + count * KEY_BYTES);
+			} catch(IOException e) {
+			}
+			return count;
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position)
+			throws IOException {
+		MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+				position, SEGMENT_BYTES);
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		return segment;
+	}
+
+	/**
+	 * Maps a checkpoint written by write.  Nothing is copied: the returned
+	 * buffer reads the keys straight out of the page cache, and stays valid
+	 * after the file is closed.
+	 *
+	 * @param file The checkpoint file
+	 * @return A read-only buffer holding the keys in ascending order, from
+	 * index 0 to its limit
+	 * @throws IOException If the file is not a complete checkpoint
+	 */
+	public static IntBuffer read(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size < HEADER_BYTES)
+				throw new IOException(file + " is not a checkpoint");
+			MappedByteBuffer header = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt(0) != MAGIC)
+				throw new IOException(file + " is not a complete checkpoint");
+			if(header.getInt(4) != VERSION)
+				throw new IOException(file + " has unknown version "
+						+ header.getInt(4));
+			long count = header.getLong(8);
+			if(count < 0 || count > Integer.MAX_VALUE / KEY_BYTES
+					|| HEADER_BYTES + count * KEY_BYTES > size)
+				throw new IOException(file + " is truncated");
+
+			MappedByteBuffer keys = channel.map(
+					FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+					count * KEY_BYTES);
+			return keys.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+	}
+}
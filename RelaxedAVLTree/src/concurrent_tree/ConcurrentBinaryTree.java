@@ -1,5 +1,12 @@
 package concurrent_tree;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
 /**
  * Concurrent Binary Tree Interface
  * 
@@ -10,10 +17,26 @@ package concurrent_tree;
  * remove and contains.  The function declarations (and descriptions) are
  * listed below.
  * 
+ * All trees also implement first, ceiling and higher for ordered traversal;
+ * the default range scans and iteration are built on top of them.  Each step
+ * of such a traversal is a separate search for the next larger object, so no
+ * lock is held from one step to the next and updates run concurrently with
+ * the scan.  Trees that can walk a range in order more cheaply override
+ * forEachInRange and iterator.  Traversals are weakly consistent: objects are
+ * returned in ascending order without duplicates, every object that is in
+ * the tree for the whole traversal is returned, and objects inserted or
+ * removed during it may or may not be.
+ * 
+ * size, rank, select and countRange answer order-statistic questions.  Trees
+ * that keep a count of their objects return size in constant time; the rest,
+ * and the default rank, select and countRange, count the objects one at a
+ * time with a traversal and are only as consistent as the traversal.
+ * 
  * @author Rob Lyerly <rlyerly@vt.edu>
  *
  */
-public interface ConcurrentBinaryTree<T extends Comparable<? super T>> {
+public interface ConcurrentBinaryTree<T extends Comparable<? super T>>
+		extends Iterable<T> {
 
 	/**
 	 * Inserts the passed object into the tree.
@@ -41,4 +64,187 @@ public interface ConcurrentBinaryTree<T extends Comparable<? super T>> {
 	 * otherwise
 	 */
 	boolean contains(T data);
+
+	/**
+	 * Inserts every object in the batch.  Trees may override this to share
+	 * work between the objects; the default simply calls insert for each.
+	 * 
+	 * @param batch The data objects to insert into the tree
+	 * @return The number of objects that were not already in the tree
+	 */
+	default int insertAll(Collection<? extends T> batch) {
+		int inserted = 0;
+		for(T data : batch) {
+			if(insert(data))
+				inserted++;
+		}
+		return inserted;
+	}
+	
+	/**
+	 * Removes every object in the batch.
+	 * 
+	 * @param batch The data objects to remove from the tree
+	 * @return The number of objects that were found and removed
+	 */
+	default int removeAll(Collection<? extends T> batch) {
+		int removed = 0;
+		for(T data : batch) {
+			if(remove(data) != null)
+				removed++;
+		}
+		return removed;
+	}
+	
+	/**
+	 * Checks whether every object in the batch is in the tree.
+	 * 
+	 * @param batch The data objects to find in the tree
+	 * @return True if the tree contains all of them, false otherwise
+	 */
+	default boolean containsAll(Collection<? extends T> batch) {
+		for(T data : batch) {
+			if(!contains(data))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the smallest object in the tree.
+	 * 
+	 * @return The smallest object, or null if the tree is empty
+	 */
+	T first();
+	
+	/**
+	 * Returns the smallest object in the tree that is greater than or equal
+	 * to the passed object.
+	 * 
+	 * @param data The lower bound
+	 * @return The smallest object >= data, or null if there is none
+	 */
+	T ceiling(T data);
+	
+	/**
+	 * Returns the smallest object in the tree that is strictly greater than
+	 * the passed object.
+	 * 
+	 * @param data The exclusive lower bound
+	 * @return The smallest object > data, or null if there is none
+	 */
+	T higher(T data);
+	
+	/**
+	 * Passes every object in [lo, hi) to action, in ascending order.
+	 * 
+	 * @param lo The inclusive lower bound
+	 * @param hi The exclusive upper bound
+	 * @param action Called once for each object in the range
+	 */
+	default void forEachInRange(T lo, T hi, Consumer<? super T> action) {
+		T next = ceiling(lo);
+		while(next != null && next.compareTo(hi) < 0) {
+			action.accept(next);
+			next = higher(next);
+		}
+	}
+	
+	/**
+	 * Returns the objects in [lo, hi) in ascending order.
+	 * 
+	 * @param lo The inclusive lower bound
+	 * @param hi The exclusive upper bound
+	 * @return A new list holding the objects found
+	 */
+	default List<T> range(T lo, T hi) {
+		List<T> result = new ArrayList<T>();
+		forEachInRange(lo, hi, result::add);
+		return result;
+	}
+	
+	/**
+	 * Returns the number of objects in the tree.  The default counts them
+	 * with a traversal.
+	 * 
+	 * @return The number of objects in the tree
+	 */
+	default long size() {
+		long size = 0;
+		for(Iterator<T> it = iterator(); it.hasNext(); it.next())
+			size++;
+		return size;
+	}
+	
+	/**
+	 * Returns the number of objects in the tree that are smaller than the
+	 * passed object, which is where it is or would be in ascending order.
+	 * 
+	 * @param data The exclusive upper bound
+	 * @return The number of objects < data
+	 */
+	default long rank(T data) {
+		long rank = 0;
+		for(T next = first(); next != null && next.compareTo(data) < 0;
+				next = higher(next))
+			rank++;
+		return rank;
+	}
+	
+	/**
+	 * Returns the k'th smallest object in the tree, counting from 0, so that
+	 * select(rank(data)) is data for any data in the tree.
+	 * 
+	 * @param k The number of smaller objects
+	 * @return The k'th smallest object, or null if the tree holds k objects
+	 * or fewer
+	 */
+	default T select(long k) {
+		if(k < 0)
+			return null;
+		T next = first();
+		for(long i = 0; i < k && next != null; i++)
+			next = higher(next);
+		return next;
+	}
+	
+	/**
+	 * Returns the number of objects in [lo, hi).
+	 * 
+	 * @param lo The inclusive lower bound
+	 * @param hi The exclusive upper bound
+	 * @return The number of objects in the range
+	 */
+	default long countRange(T lo, T hi) {
+		long count = 0;
+		for(T next = ceiling(lo); next != null && next.compareTo(hi) < 0;
+				next = higher(next))
+			count++;
+		return count;
+	}
+	
+	/**
+	 * Returns a weakly consistent iterator over the tree in ascending order.
+	 * The iterator does not support remove.
+	 */
+	@Override
+	default Iterator<T> iterator() {
+		return new Iterator<T>() {
+			T next = first();
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public T next() {
+				if(next == null)
+					throw new NoSuchElementException();
+				T result = next;
+				next = higher(result);
+				return result;
+			}
+		};
+	}
 }
@@ -0,0 +1,37 @@
+package concurrent_tree;
+
+/**
+ * Concurrent Int Binary Tree Interface
+ *
+ * Primitive counterpart of ConcurrentBinaryTree for trees that store int keys
+ * directly.  Implementations must not box the key on any of these paths.
+ *
+ */
+public interface ConcurrentIntBinaryTree {
+
+	/**
+	 * Inserts the passed key into the tree.
+	 *
+	 * @param key The key to insert into the tree
+	 * @return True if the key was successfully inserted into the tree, false
+	 * if it was already present
+	 */
+	boolean insert(int key);
+
+	/**
+	 * Removes the passed key from the tree.
+	 *
+	 * @param key The key to remove from the tree
+	 * @return True if the key was found in the tree and removed, false
+	 * otherwise
+	 */
+	boolean remove(int key);
+
+	/**
+	 * Check to see if the binary tree contains the passed key.
+	 *
+	 * @param key The key to find in the tree
+	 * @return True if the binary tree contains the key, false otherwise
+	 */
+	boolean contains(int key);
+}
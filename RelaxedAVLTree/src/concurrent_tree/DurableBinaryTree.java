@@ -0,0 +1,208 @@
+package concurrent_tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Durable Binary Tree
+ *
+ * Makes any Integer tree durable by logging every successful insert and
+ * remove to a WriteAheadLog.  An update returns only once its record is on
+ * disk, and concurrent updates share fsyncs through the log's group commit.
+ * Opening a durable tree on an existing log replays it into the (normally
+ * empty) tree first, so the tree comes back as it was when the last update
+ * returned.
+ *
+ * The tree operation and its log append happen under one of STRIPES locks
+ * chosen by key, so updates to the same key reach the log in the order they
+ * took effect in the tree and replay can never reorder them.  Updates to
+ * different keys don't contend, and nobody holds a stripe while waiting for
+ * the disk.  An update is visible to other threads a little before it is
+ * durable, as with most write-ahead logs.  Reads go straight to the tree.
+ *
+ */
+public class DurableBinaryTree
+		implements ConcurrentBinaryTree<Integer>, Closeable {
+
+	static final int STRIPES = 256;
+
+	private final ConcurrentBinaryTree<Integer> tree;
+	private final WriteAheadLog log;
+	private final ReentrantLock stripes[] = new ReentrantLock[STRIPES];
+
+	/**
+	 * Opens the log at file, replaying it into tree, and logs every update
+	 * made through this object from then on.
+	 *
+	 * @param tree The tree to make durable
+	 * @param file The log file, created if it doesn't exist
+	 */
+	public DurableBinaryTree(ConcurrentBinaryTree<Integer> tree, Path file)
+			throws IOException {
+		this.tree = tree;
+		log = new WriteAheadLog(file, (insert, key) -> {
+			if(insert)
+				tree.insert(key);
+			else
+				tree.remove(key);
+		});
+		for(int i = 0; i < STRIPES; i++)
+			stripes[i] = new ReentrantLock();
+	}
+
+	private ReentrantLock stripe(int key) {
+		int h = key * 0x9E3779B9;
+		return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Inserts data and waits for the insert to be durable.
+	 *
+	 * @throws UncheckedIOException If the log could not be written
+	 */
+	@Override
+	public boolean insert(Integer data) {
+		long sequence = update(data, true);
+		if(sequence == 0)
+			return false;
+		sync(sequence);
+		return true;
+	}
+
+	/**
+	 * Removes data and waits for the remove to be durable.
+	 *
+	 * @throws UncheckedIOException If the log could not be written
+	 */
+	@Override
+	public Integer remove(Integer data) {
+		long sequence = update(data, false);
+		if(sequence == 0)
+			return null;
+		sync(sequence);
+		return data;
+	}
+
+	@Override
+	public boolean contains(Integer data) {
+		return tree.contains(data);
+	}
+
+	/**
+	 * Inserts the whole batch and then waits once for all of it to be
+	 * durable.
+	 */
+	@Override
+	public int insertAll(Collection<? extends Integer> batch) {
+		int inserted = 0;
+		long last = 0;
+		for(Integer data : batch) {
+			long sequence = update(data, true);
+			if(sequence != 0) {
+				inserted++;
+				last = sequence;
+			}
+		}
+		sync(last);
+		return inserted;
+	}
+
+	/**
+	 * Removes the whole batch and then waits once for all of it to be
+	 * durable.
+	 */
+	@Override
+	public int removeAll(Collection<? extends Integer> batch) {
+		int removed = 0;
+		long last = 0;
+		for(Integer data : batch) {
+			long sequence = update(data, false);
+			if(sequence != 0) {
+				removed++;
+				last = sequence;
+			}
+		}
+		sync(last);
+		return removed;
+	}
+
+	/**
+	 * Applies the update to the tree and, if it changed anything, logs it
+	 * under the same stripe lock.
+	 *
+	 * @return The log sequence number, or 0 if the tree didn't change
+	 */
+	private long update(Integer data, boolean insert) {
+		ReentrantLock stripe = stripe(data);
+		stripe.lock();
+		try {
+			boolean changed = insert ? tree.insert(data)
+					: tree.remove(data) != null;
+			return changed ? log.append(insert, data) : 0;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	private void sync(long sequence) {
+		try {
+			log.sync(sequence);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public Integer first() {
+		return tree.first();
+	}
+
+	@Override
+	public Integer ceiling(Integer data) {
+		return tree.ceiling(data);
+	}
+
+	@Override
+	public Integer higher(Integer data) {
+		return tree.higher(data);
+	}
+
+	@Override
+	public long size() {
+		return tree.size();
+	}
+
+	@Override
+	public long rank(Integer data) {
+		return tree.rank(data);
+	}
+
+	@Override
+	public Integer select(long k) {
+		return tree.select(k);
+	}
+
+	@Override
+	public long countRange(Integer lo, Integer hi) {
+		return tree.countRange(lo, hi);
+	}
+
+	/**
+	 * Returns the number of fsyncs the log has done so far.
+	 */
+	public long syncs() {
+		return log.batches();
+	}
+
+	/**
+	 * Closes the log.  The tree itself is left as it is.
+	 */
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+}
@@ -0,0 +1,242 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Elimination Binary Tree
+ *
+ * Puts an elimination array in front of any tree, so that an insert and a
+ * remove of the same key that arrive at the same time cancel each other out
+ * without touching the tree.  Both of them succeed and the tree is left as
+ * it was: if the key was absent they take effect as the insert followed by
+ * the remove, and if it was present as the remove followed by the insert.
+ * That holds at any moment while both are waiting, so a pair is linearizable
+ * whenever it meets.  On a small set of hot keys, where every insert and
+ * remove fights over the same few nodes, pairs that meet take that traffic
+ * off the tree.
+ *
+ * Each key hashes to one slot of the array.  An update that finds a waiting
+ * offer of the opposite kind for its key in that slot takes it with a CAS
+ * and both are done.  One that finds the slot empty leaves its own offer and
+ * waits a while for a partner, then takes the offer back and goes to the
+ * tree.  Updates that find anything else in the slot go straight to the
+ * tree, as do contains, traversals and the batch operations.
+ *
+ * How long to wait is learned per slot: it halves every time an offer times
+ * out and doubles every time one is taken, between MIN_SPINS (or spins, if
+ * that is less) and spins.  Waiting is only worth it when a partner is
+ * likely to be running on another CPU, and this way a slot whose offers keep
+ * timing out costs little more than two CASes and a short wait per update.
+ * The wait never drops to nothing, so a slot that went quiet, say during an
+ * insert-only phase, still learns to wait longer once partners come back.
+ *
+ * @param <T> Generic data type that the tree stores.
+ */
+public class EliminationBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	static final int DEFAULT_SLOTS = 64;
+	static final int DEFAULT_SPINS = 256;
+
+	/**
+	 * The shortest a slot's patience gets, however many of its offers time
+	 * out.
+	 */
+	static final int MIN_SPINS = 8;
+
+	/**
+	 * Slots are this many references apart, so that two of them never share
+	 * a cache line.
+	 */
+	static final int STRIDE = 16;
+
+	private static final VarHandle SLOTS =
+			MethodHandles.arrayElementVarHandle(Offer[].class);
+
+	/**
+	 * An insert or remove waiting in a slot for a partner.
+	 */
+	static final class Offer<T> {
+		final T data;
+		final boolean insert;
+
+		Offer(T data, boolean insert) {
+			this.data = data;
+			this.insert = insert;
+		}
+	}
+
+	private final ConcurrentBinaryTree<T> tree;
+	private final Offer<?> slots[];
+	private final int patience[];
+	private final int mask;
+	private final int spins;
+	private final int minSpins;
+	private final LongAdder eliminated = new LongAdder();
+
+	/**
+	 * Puts DEFAULT_SLOTS slots in front of tree, waiting up to DEFAULT_SPINS
+	 * spins for a partner.
+	 */
+	public EliminationBinaryTree(ConcurrentBinaryTree<T> tree) {
+		this(tree, DEFAULT_SLOTS, DEFAULT_SPINS);
+	}
+
+	/**
+	 * @param tree The tree updates fall back to
+	 * @param slots Number of slots, rounded up to a power of two
+	 * @param spins The longest an update waits in a slot for a partner, 0
+	 * to only take offers that are already waiting
+	 */
+	public EliminationBinaryTree(ConcurrentBinaryTree<T> tree, int slots,
+			int spins) {
+		if(slots < 1 || spins < 0)
+			throw new IllegalArgumentException("slots must be positive and"
+					+ " spins non-negative");
+		int count = Math.max(1, Integer.highestOneBit(slots - 1) << 1);
+		this.tree = tree;
+		this.slots = new Offer<?>[count * STRIDE];
+		this.patience = new int[count * STRIDE];
+		Arrays.fill(patience, spins);
+		this.mask = count - 1;
+		this.spins = spins;
+		this.minSpins = Math.min(spins, MIN_SPINS);
+	}
+
+	private int slot(T data) {
+		int h = data.hashCode() * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & mask) * STRIDE;
+	}
+
+	/**
+	 * Tries to pair an update of data with one of the other kind.
+	 *
+	 * @return True if the two cancelled out
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean eliminate(T data, boolean insert) {
+		int slot = slot(data);
+		Offer<T> waiting = (Offer<T>) SLOTS.getVolatile(slots, slot);
+		if(waiting != null) {
+			if(waiting.insert != insert && waiting.data.compareTo(data) == 0
+					&& SLOTS.compareAndSet(slots, slot, waiting, null)) {
+				eliminated.increment();
+				return true;
+			}
+			return false;
+		}
+		if(spins == 0)
+			return false;
+
+		Offer<T> offer = new Offer<T>(data, insert);
+		if(!SLOTS.compareAndSet(slots, slot, null, offer))
+			return false;
+		//Racy reads and writes of patience only make it less accurate
+		int wait = patience[slot];
+		for(int i = 0; i < wait; i++) {
+			if(SLOTS.getVolatile(slots, slot) != offer) {
+				matched(slot, wait);
+				return true;
+			}
+			SpinLock.pause(i);
+		}
+		//Fails only if a partner took the offer at the last moment, in which
+		//case it has already counted the pair
+		if(SLOTS.compareAndSet(slots, slot, offer, null)) {
+			patience[slot] = Math.max(minSpins, wait / 2);
+			return false;
+		}
+		matched(slot, wait);
+		return true;
+	}
+
+	/**
+	 * Doubles the patience of slot after an offer that waited wait spins was
+	 * taken.
+	 */
+	private void matched(int slot, int wait) {
+		if(wait < spins)
+			patience[slot] = Math.min(spins, wait * 2 + 1);
+	}
+
+	@Override
+	public boolean insert(T data) {
+		return eliminate(data, true) || tree.insert(data);
+	}
+
+	@Override
+	public T remove(T data) {
+		if(eliminate(data, false))
+			return data;
+		return tree.remove(data);
+	}
+
+	@Override
+	public boolean contains(T data) {
+		return tree.contains(data);
+	}
+
+	@Override
+	public int insertAll(Collection<? extends T> batch) {
+		return tree.insertAll(batch);
+	}
+
+	@Override
+	public int removeAll(Collection<? extends T> batch) {
+		return tree.removeAll(batch);
+	}
+
+	@Override
+	public T first() {
+		return tree.first();
+	}
+
+	@Override
+	public T ceiling(T data) {
+		return tree.ceiling(data);
+	}
+
+	@Override
+	public T higher(T data) {
+		return tree.higher(data);
+	}
+
+	@Override
+	public long size() {
+		return tree.size();
+	}
+
+	@Override
+	public long rank(T data) {
+		return tree.rank(data);
+	}
+
+	@Override
+	public T select(long k) {
+		return tree.select(k);
+	}
+
+	@Override
+	public long countRange(T lo, T hi) {
+		return tree.countRange(lo, hi);
+	}
+
+	/**
+	 * Returns the tree updates fall back to.
+	 */
+	public ConcurrentBinaryTree<T> tree() {
+		return tree;
+	}
+
+	/**
+	 * Returns the number of insert and remove pairs that cancelled out so
+	 * far.
+	 */
+	public long eliminated() {
+		return eliminated.sum();
+	}
+}
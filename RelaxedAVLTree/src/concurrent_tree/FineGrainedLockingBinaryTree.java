@@ -1,8 +1,19 @@
 package concurrent_tree;
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 
  //* Fine-Grained Relaxed AVL Locking Binary Tree
@@ -12,66 +23,128 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 
 
 	LockableNode<T> root;
-	ReentrantLock headLock;
+	NodeLock headLock;
+	private final LockStrategy lockStrategy;
+	private final TreeMetrics metrics;
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * The most objects a scan collects per descent, and the most nodes it
+	 * keeps locked.
+	 */
+	static final int SCAN_BATCH = 64;
 
 	public FineGrainedLockingBinaryTree() {
-		root = null;
-		headLock = new ReentrantLock();
+		this(LockStrategy.INLINE);
 	}
 
-	int height(LockableNode N) {
-		if (N == null)
-			return 0;
-
-		return N.height;
+	/**
+	 * Instantiates an empty tree whose nodes and root slot are guarded by
+	 * locks of the given kind.
+	 */
+	public FineGrainedLockingBinaryTree(LockStrategy lockStrategy) {
+		this(lockStrategy, null);
 	}
 
-	int max(int n1, int n2) {
-		if (n1 > n2)
-			return n1;
-		else
-			return n2;
+	/**
+	 * Instantiates an empty tree that counts its operations and lock
+	 * contention in metrics, or counts nothing if metrics is null.
+	 */
+	public FineGrainedLockingBinaryTree(LockStrategy lockStrategy,
+			TreeMetrics metrics) {
+		root = null;
+		this.lockStrategy = lockStrategy;
+		this.metrics = metrics;
+		headLock = lockStrategy.newLock();
 	}
 
-	LockableNode rightRotate(LockableNode y) {
-		LockableNode x = y.left;
-		LockableNode T2 = x.right;
-
-		// Perform rotation
-		x.right = y;
-		y.left = T2;
-
-		// Update heights
-		y.height = max(height(y.left), height(y.right)) + 1;
-		x.height = max(height(x.left), height(x.right)) + 1;
+	/**
+	 * Builds a balanced tree holding data, with every node's height already
+	 * set.  Duplicates are dropped.
+	 *
+	 * @param data The data objects to load, in any order
+	 * @return A new tree holding the data
+	 */
+	public static <T extends Comparable<? super T>>
+			FineGrainedLockingBinaryTree<T> bulkLoad(
+					Collection<? extends T> data) {
+		T keys[] = BulkLoad.sortedUnique(data);
+		return buildSorted(keys.length, i -> keys[i]);
+	}
 
+	/**
+	 * Reloads a tree from a checkpoint written by Checkpoint.write, building
+	 * it straight from the mapped file.
+	 *
+	 * @param file The checkpoint file
+	 * @return A new tree holding the checkpointed keys
+	 */
+	public static FineGrainedLockingBinaryTree<Integer> load(Path file)
+			throws IOException {
+		IntBuffer keys = Checkpoint.read(file);
+		return buildSorted(keys.limit(), keys::get);
+	}
 
-		return x;
+	/**
+	 * Builds a balanced tree over count keys that are already sorted and
+	 * unique, where key(i) returns the i'th.
+	 */
+	private static <T extends Comparable<? super T>>
+			FineGrainedLockingBinaryTree<T> buildSorted(
+					int count, IntFunction<? extends T> key) {
+		FineGrainedLockingBinaryTree<T> tree =
+				new FineGrainedLockingBinaryTree<T>();
+		tree.root = BulkLoad.build(0, count,
+				(BulkLoad.NodeBuilder<LockableNode<T>>) (i, left, right) -> {
+			LockableNode<T> node = tree.newNode(key.apply(i));
+			node.left = left;
+			node.right = right;
+			node.height = 1 + Math.max(tree.height(left), tree.height(right));
+			return node;
+		});
+		tree.size.add(count);
+		return tree;
 	}
 
-	LockableNode leftRotate(LockableNode x) {
-		LockableNode y = x.right;
-		LockableNode T2 = y.left;
+	LockableNode<T> newNode(T data) {
+		return new LockableNode<T>(data, lockStrategy.newNodeLock());
+	}
 
-		// Perform rotation
-		y.left = x;
-		x.right = T2;
+	/**
+	 * Locks the root slot, which is depth 0 as far as metrics go.
+	 */
+	private void lockHead() {
+		if(metrics == null)
+			headLock.lock();
+		else
+			metrics.lock(headLock, 0);
+	}
 
-		//  Update heights
-		x.height = max(height(x.left), height(x.right)) + 1;
-		y.height = max(height(y.left), height(y.right)) + 1;
+	private void lock(LockableNode<T> node, int depth) {
+		if(metrics == null)
+			node.lock();
+		else
+			metrics.lock(node, depth);
+	}
 
-		// Return new root
-		return y;
+	private void count(TreeMetrics.Operation kind, int count) {
+		if(metrics != null)
+			metrics.operation(kind, count);
 	}
 
-	int getBalance(LockableNode N) {
+	int height(LockableNode N) {
 		if (N == null)
 			return 0;
 
-		return height(N.left) - height(N.right);
+		return N.height;
 	}
 
+	int max(int n1, int n2) {
+		if (n1 > n2)
+			return n1;
+		else
+			return n2;
+	}
 
 	 //For inserting the new data into the tree, we will traverse the tree
 	 //using hand-over-hand locking approach to make sure the insertion does not
@@ -80,12 +153,14 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	@Override
 	public boolean insert(T data) {
 
-		LockableNode<T> newNode = new LockableNode<T>(data);
+		LockableNode<T> newNode = newNode(data);
 		LockableNode<T> curNode = null;
 		LockableNode<T> parentNode = null;
 		int compare = 0;
+		int depth = 1;
 
-		headLock.lock();
+		count(TreeMetrics.Operation.INSERT, 1);
+		lockHead();
 		if (root == null) {
 
 			root = newNode;
@@ -93,7 +168,7 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 		} else {
 
 			curNode = root;
-			curNode.lock();
+			lock(curNode, depth);
 			headLock.unlock();
 			while (true) {
 				parentNode = curNode;
@@ -113,7 +188,7 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 				if (curNode == null) {
 					break;
 				} else {
-					curNode.lock();
+					lock(curNode, ++depth);
 					parentNode.unlock();
 				}
 			}
@@ -125,64 +200,15 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 				parentNode.right = newNode;
 			parentNode.unlock();
 		}
-		newNode.height = 1 + max(height(newNode.left),
-				height(newNode.right));
-
-
-		int balance = getBalance(newNode);
-		balanceTreeInsert(balance, newNode);
-		System.out.println("Tree after insertion and balancing:");
-		printTree();
+		//No rebalancing here: newNode is already unlocked, and rotating it
+		//without its parent's lock detaches whatever it rotates up.  See
+		//RelaxedAVLTree for the balanced version of this tree.
+		newNode.height = 1;
+		size.increment();
 		return true;
 	}
 
 
-	public LockableNode balanceTreeInsert(int bal, LockableNode n) {
-		if (bal > 1 && (Integer) n.data < (Integer) n.left.data)
-			return rightRotate(n);
-
-		// Right Right Case
-		if (bal < -1 && (Integer) n.data > (Integer) n.right.data)
-			return leftRotate(n);
-
-		// Left Right Case
-		if (bal > 1 && (Integer) n.data > (Integer) n.left.data) {
-			n.left = leftRotate(n.left);
-			return rightRotate(n);
-		}
-
-		// Right Left Case
-		if (bal < -1 && (Integer) n.data < (Integer) n.left.data) {
-			n.right = rightRotate(n.right);
-			return leftRotate(n);
-		}
-		return n;
-	}
-	public LockableNode balanceTreeDelete(int bal, LockableNode n){
-		if (bal > 1 && getBalance(n.left) >= 0)
-			return rightRotate(n);
-
-		// Left Right Case
-		if (bal > 1 && getBalance(n.left) < 0)
-		{
-			n.left = leftRotate(n.left);
-			return rightRotate(n);
-		}
-
-		// Right Right Case
-		if (bal < -1 && getBalance(n.right) <= 0)
-			return leftRotate(n);
-
-		// Right Left Case
-		if (bal < -1 && getBalance(n.right) > 0)
-		{
-			n.right = rightRotate(n.right);
-			return leftRotate(n);
-		}
-		return  n;
-	}
-
-
 	@Override
 	public T remove(T data) {
 
@@ -190,14 +216,16 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 		LockableNode<T> parentNode = null;
 		int compare = 0;
 		int oldCompare = 0;
+		int depth = 1;
 
-		headLock.lock();
+		count(TreeMetrics.Operation.REMOVE, 1);
+		lockHead();
 		if (root != null) {
 			//Tree is not empty, search for the passed data.  Start by checking
 			//the root separately.
 			curNode = root;
 			parentNode = curNode;
-			curNode.lock();
+			lock(curNode, depth);
 			compare = curNode.data.compareTo(data);
 			if (compare > 0) {
 				//root is "bigger" than passed data, search the left subtree
@@ -209,7 +237,7 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 				oldCompare = compare;
 			} else {
 				//Found the specified data, remove it from the tree
-				LockableNode<T> replacement = findReplacement(curNode);
+				LockableNode<T> replacement = findReplacement(curNode, depth);
 
 				root = replacement;
 
@@ -217,22 +245,18 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 					replacement.left = curNode.left;
 					replacement.right = curNode.right;
 				}
-
-
-
-				curNode.height = 1 + max(height(curNode.left),
-						height(curNode.right));
-
-
-				int balance = getBalance(curNode);
-				balanceTreeDelete(balance, curNode);
-                System.out.println("Tree after deletion of "+curNode.data+" and balancing:");
-               printTree();
 				curNode.unlock();
 				headLock.unlock();
+				size.decrement();
 				return curNode.data;
 			}
-			curNode.lock();
+			if (curNode == null) {
+				//The root has no child on that side, the data isn't here
+				parentNode.unlock();
+				headLock.unlock();
+				return null;
+			}
+			lock(curNode, ++depth);
 			headLock.unlock();
 
 			while (true) {
@@ -252,7 +276,7 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 						oldCompare = compare;
 					}
 				} else {
-					LockableNode<T> replacement = findReplacement(curNode);
+					LockableNode<T> replacement = findReplacement(curNode, depth);
 
 					//Set the parent pointer to the new child
 					if (oldCompare > 0)
@@ -265,22 +289,16 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 						replacement.left = curNode.left;
 						replacement.right = curNode.right;
 					}
-					curNode.height = 1 + max(height(curNode.left),
-							height(curNode.right));
-
-					int balance = getBalance(curNode);
-					balanceTreeDelete(balance, curNode);
-                    System.out.println("Tree after deletion of "+curNode.data+ "and balancing:");
-                    printTree();
 					curNode.unlock();
 					parentNode.unlock();
+					size.decrement();
 					return curNode.data;
 				}
 
 				if (curNode == null) {
 					break;
 				} else {
-					curNode.lock();
+					lock(curNode, ++depth);
 				}
 			}
 		} else {
@@ -298,6 +316,238 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 
 
 
+	/**
+	 * Inserts a batch of data with one shared traversal.  The batch is sorted
+	 * and split at every node on the way down, so a path prefix shared by
+	 * several keys is locked and searched once rather than once per key.  A
+	 * node is kept locked only while the part of the batch that belongs in its
+	 * left subtree is processed; keys that fall off the bottom of the tree
+	 * together are attached as one balanced subtree.
+	 *
+	 * @param batch The data to be inserted into the tree
+	 * @return The number of objects that were not already in the tree
+	 */
+	@Override
+	public int insertAll(Collection<? extends T> batch) {
+		T keys[] = BulkLoad.sortedUnique(batch);
+		if(keys.length == 0)
+			return 0;
+		count(TreeMetrics.Operation.INSERT, keys.length);
+		lockHead();
+		int inserted = insertBatch(null, false, keys, 0, keys.length, true, 1);
+		size.add(inserted);
+		return inserted;
+	}
+
+	/**
+	 * Removes a batch of data with one shared traversal.
+	 *
+	 * @param batch The data to remove from the tree
+	 * @return The number of objects that were found and removed
+	 */
+	@Override
+	public int removeAll(Collection<? extends T> batch) {
+		T keys[] = BulkLoad.sortedUnique(batch);
+		if(keys.length == 0)
+			return 0;
+		count(TreeMetrics.Operation.REMOVE, keys.length);
+		lockHead();
+		int removed = removeBatch(null, false, keys, 0, keys.length, true, 1);
+		size.add(-removed);
+		return removed;
+	}
+
+	/**
+	 * Checks a batch of data with one shared traversal.
+	 *
+	 * @param batch The data objects to find in the tree
+	 * @return True if every object in the batch is in the tree
+	 */
+	@Override
+	public boolean containsAll(Collection<? extends T> batch) {
+		T keys[] = BulkLoad.sortedUnique(batch);
+		if(keys.length == 0)
+			return true;
+		count(TreeMetrics.Operation.CONTAINS, keys.length);
+		lockHead();
+		return containsBatch(null, false, keys, 0, keys.length, true, 1)
+				== keys.length;
+	}
+
+	/*
+	 * The batch helpers work on the child slot of a locked parent, where a
+	 * null parent stands for the root slot and headLock.  keys[lo, hi) are the
+	 * part of the batch that belongs under that slot.  If release is set the
+	 * helper unlocks the parent as soon as it holds the child, otherwise the
+	 * parent stays locked for the caller.  depth is the depth of the child.
+	 */
+
+	private LockableNode<T> getChild(LockableNode<T> parent, boolean left) {
+		if(parent == null)
+			return root;
+		return left ? parent.left : parent.right;
+	}
+
+	private void setChild(LockableNode<T> parent, boolean left,
+			LockableNode<T> child) {
+		if(parent == null)
+			root = child;
+		else if(left)
+			parent.left = child;
+		else
+			parent.right = child;
+	}
+
+	private void unlockParent(LockableNode<T> parent) {
+		if(parent == null)
+			headLock.unlock();
+		else
+			parent.unlock();
+	}
+
+	/**
+	 * Returns the index of the first key in keys[lo, hi) that is >= data.
+	 */
+	private int lowerBound(T keys[], int lo, int hi, T data) {
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(keys[mid].compareTo(data) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Builds a balanced subtree out of sorted keys.  The nodes aren't visible
+	 * to other threads until the caller links the subtree in.
+	 */
+	private LockableNode<T> buildSubtree(T keys[], int lo, int hi) {
+		if(lo >= hi)
+			return null;
+		int mid = (lo + hi) >>> 1;
+		LockableNode<T> node = newNode(keys[mid]);
+		node.left = buildSubtree(keys, lo, mid);
+		node.right = buildSubtree(keys, mid + 1, hi);
+		node.height = 1 + max(height(node.left), height(node.right));
+		return node;
+	}
+
+	private int insertBatch(LockableNode<T> parent, boolean left,
+			T keys[], int lo, int hi, boolean release, int depth) {
+		LockableNode<T> curNode = getChild(parent, left);
+		if(curNode == null) {
+			//Everything left in the batch hangs off this slot
+			setChild(parent, left, buildSubtree(keys, lo, hi));
+			if(release)
+				unlockParent(parent);
+			return hi - lo;
+		}
+
+		lock(curNode, depth);
+		if(release)
+			unlockParent(parent);
+
+		int split = lowerBound(keys, lo, hi, curNode.data);
+		int rightStart = split;
+		if(split < hi && keys[split].compareTo(curNode.data) == 0)
+			rightStart++;
+		boolean needLeft = lo < split;
+		boolean needRight = rightStart < hi;
+
+		int inserted = 0;
+		if(needLeft)
+			inserted += insertBatch(curNode, true, keys, lo, split, !needRight,
+					depth + 1);
+		if(needRight)
+			inserted += insertBatch(curNode, false, keys, rightStart, hi, true,
+					depth + 1);
+		if(!needLeft && !needRight)
+			curNode.unlock();
+		return inserted;
+	}
+
+	private int removeBatch(LockableNode<T> parent, boolean left,
+			T keys[], int lo, int hi, boolean release, int depth) {
+		int removed = 0;
+		while(lo < hi) {
+			LockableNode<T> curNode = getChild(parent, left);
+			if(curNode == null)
+				break;
+
+			lock(curNode, depth);
+			int split = lowerBound(keys, lo, hi, curNode.data);
+			if(split < hi && keys[split].compareTo(curNode.data) == 0) {
+				//Remove curNode; its replacement takes over the same slot, so
+				//the rest of the batch still belongs under it
+				LockableNode<T> replacement = findReplacement(curNode, depth);
+				setChild(parent, left, replacement);
+				if(replacement != null) {
+					replacement.left = curNode.left;
+					replacement.right = curNode.right;
+				}
+				curNode.unlock();
+				removed++;
+
+				removed += removeBatch(parent, left, keys, split + 1, hi,
+						false, depth);
+				hi = split;
+				continue;
+			}
+
+			if(release)
+				unlockParent(parent);
+			boolean needLeft = lo < split;
+			boolean needRight = split < hi;
+			if(needLeft)
+				removed += removeBatch(curNode, true, keys, lo, split,
+						!needRight, depth + 1);
+			if(needRight)
+				removed += removeBatch(curNode, false, keys, split, hi, true,
+						depth + 1);
+			return removed;
+		}
+
+		if(release)
+			unlockParent(parent);
+		return removed;
+	}
+
+	private int containsBatch(LockableNode<T> parent, boolean left,
+			T keys[], int lo, int hi, boolean release, int depth) {
+		LockableNode<T> curNode = getChild(parent, left);
+		if(curNode == null) {
+			if(release)
+				unlockParent(parent);
+			return 0;
+		}
+
+		lock(curNode, depth);
+		if(release)
+			unlockParent(parent);
+
+		int split = lowerBound(keys, lo, hi, curNode.data);
+		int rightStart = split;
+		int found = 0;
+		if(split < hi && keys[split].compareTo(curNode.data) == 0) {
+			rightStart++;
+			found++;
+		}
+		boolean needLeft = lo < split;
+		boolean needRight = rightStart < hi;
+
+		if(needLeft)
+			found += containsBatch(curNode, true, keys, lo, split, !needRight,
+					depth + 1);
+		if(needRight)
+			found += containsBatch(curNode, false, keys, rightStart, hi, true,
+					depth + 1);
+		if(!needLeft && !needRight)
+			curNode.unlock();
+		return found;
+	}
+
 	LockableNode minValueNode(LockableNode node)
 	{
 		LockableNode current = node;
@@ -310,7 +560,8 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	}
 
 
-	private LockableNode<T> findReplacement(LockableNode<T> subRoot) {
+	private LockableNode<T> findReplacement(LockableNode<T> subRoot,
+			int depth) {
 		
 		LockableNode<T> curNode = null;
 		LockableNode<T> parentNode = null;
@@ -319,16 +570,16 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 			//Find the "biggest" node in the left subtree as the replacement
 			parentNode = subRoot;
 			curNode = subRoot.left;
-			curNode.lock();
+			lock(curNode, ++depth);
 			while(curNode.right != null) {
 				if(parentNode != subRoot)
 					parentNode.unlock();
 				parentNode = curNode;
 				curNode = curNode.right;
-				curNode.lock();
+				lock(curNode, ++depth);
 			}
 			if(curNode.left != null)
-				curNode.left.lock();
+				lock(curNode.left, depth + 1);
 			if(parentNode == subRoot)
 				parentNode.left = curNode.left;
 			else {
@@ -342,16 +593,16 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 			//Find the "smallest" node in the right subtree as the replacement
 			parentNode = subRoot;
 			curNode = subRoot.right;
-			curNode.lock();
+			lock(curNode, ++depth);
 			while(curNode.left != null) {
 				if(parentNode != subRoot)
 					parentNode.unlock();
 				parentNode = curNode;
 				curNode = curNode.left;
-				curNode.lock();
+				lock(curNode, ++depth);
 			}
 			if(curNode.right != null)
-				curNode.right.lock();
+				lock(curNode.right, depth + 1);
 			if(parentNode == subRoot)
 				parentNode.right = curNode.right;
 			else {
@@ -375,12 +626,14 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 		LockableNode<T> curNode = null;
 		LockableNode<T> parentNode = null;
 		int compare = 0;
+		int depth = 1;
 		
-		headLock.lock();
+		count(TreeMetrics.Operation.CONTAINS, 1);
+		lockHead();
 		if(root != null) {
 			//The tree is not empty, search the tree for the passed data
 			curNode = root;
-			curNode.lock();
+			lock(curNode, depth);
 			headLock.unlock();
 			while(curNode != null) {
 				compare = curNode.data.compareTo(data);
@@ -402,7 +655,7 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 				if(curNode == null) {
 					break;
 				} else {
-					curNode.lock();
+					lock(curNode, ++depth);
 					parentNode.unlock();
 				}
 			}
@@ -418,6 +671,255 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 	}
 	
 
+	/**
+	 * Returns the smallest object in the tree.
+	 */
+	@Override
+	public T first() {
+		return successor(null, false);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is >= data.
+	 */
+	@Override
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is > data.
+	 */
+	@Override
+	public T higher(T data) {
+		return successor(data, false);
+	}
+
+	/**
+	 * Returns the number of objects in the tree without traversing it.  The
+	 * count is a LongAdder bumped after each successful update, so it may
+	 * briefly lag updates that are still returning.
+	 */
+	@Override
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * Searches hand-over-hand for data, remembering the last node where the
+	 * search turned left.  That node holds the smallest object bigger than
+	 * data, unless data itself is found and inclusive is set.  At most two
+	 * nodes are locked at any time.  A null data finds the smallest object.
+	 */
+	private T successor(T data, boolean inclusive) {
+
+		LockableNode<T> curNode = null;
+		LockableNode<T> parentNode = null;
+		T candidate = null;
+		int compare = 0;
+		int depth = 1;
+
+		count(TreeMetrics.Operation.SCAN, 1);
+		lockHead();
+		curNode = root;
+		if(curNode == null) {
+			//The tree is empty
+			headLock.unlock();
+			return null;
+		}
+		lock(curNode, depth);
+		headLock.unlock();
+
+		while(true) {
+			compare = data == null ? 1 : curNode.data.compareTo(data);
+			if(compare == 0 && inclusive) {
+				T found = curNode.data;
+				curNode.unlock();
+				return found;
+			}
+			parentNode = curNode;
+			if(compare > 0) {
+				//curNode is bigger than data, look for a smaller candidate in
+				//the left subtree
+				candidate = curNode.data;
+				curNode = curNode.left;
+			} else {
+				curNode = curNode.right;
+			}
+
+			if(curNode == null)
+				break;
+			lock(curNode, ++depth);
+			parentNode.unlock();
+		}
+
+		parentNode.unlock();
+		return candidate;
+	}
+
+	/**
+	 * Passes every object in [lo, hi) to action, in ascending order.  Rather
+	 * than searching for each object separately, walks the tree in order and
+	 * collects up to SCAN_BATCH objects per descent, calling action once the
+	 * descent has let go of its locks.
+	 */
+	@Override
+	public void forEachInRange(T lo, T hi, Consumer<? super T> action) {
+		List<T> batch = new ArrayList<T>(SCAN_BATCH);
+		boolean more = collect(lo, true, hi, batch);
+		while(true) {
+			for(T data : batch)
+				action.accept(data);
+			if(!more)
+				return;
+			T last = batch.get(batch.size() - 1);
+			batch.clear();
+			more = collect(last, false, hi, batch);
+		}
+	}
+
+	/**
+	 * Returns a weakly consistent iterator over the tree in ascending order,
+	 * which fetches SCAN_BATCH objects per descent like forEachInRange.  The
+	 * iterator does not support remove.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+			final List<T> batch = new ArrayList<T>(SCAN_BATCH);
+			boolean more = collect(null, false, null, batch);
+			int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				if(next == batch.size() && more) {
+					T last = batch.get(batch.size() - 1);
+					batch.clear();
+					next = 0;
+					more = collect(last, false, null, batch);
+				}
+				return next < batch.size();
+			}
+
+			@Override
+			public T next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+				return batch.get(next++);
+			}
+		};
+	}
+
+	/**
+	 * Walks the tree in order from the smallest object after from (or equal
+	 * to it, if inclusive is set) and adds the objects below hi to batch,
+	 * until it holds SCAN_BATCH of them.  A null from starts at the smallest
+	 * object and a null hi doesn't stop before the largest.
+	 *
+	 * The walk keeps the nodes it has still to come back to locked, which are
+	 * the ones where it went left, so that nothing can move them before they
+	 * are visited; every other node is locked hand-over-hand.  If more than
+	 * SCAN_BATCH nodes are kept, the one kept first, which holds the biggest
+	 * object, is let go and the walk stops short of it.
+	 *
+	 * @return True if there may be more objects after the last one in batch
+	 */
+	private boolean collect(T from, boolean inclusive, T hi, List<T> batch) {
+
+		ArrayDeque<LockableNode<T>> kept = new ArrayDeque<LockableNode<T>>();
+		ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+		LockableNode<T> curNode = null;
+		LockableNode<T> nextNode = null;
+		boolean more = false;
+		int compare = 0;
+		int depth = 1;
+
+		count(TreeMetrics.Operation.SCAN, 1);
+		lockHead();
+		curNode = root;
+		if(curNode == null) {
+			//The tree is empty
+			headLock.unlock();
+			return false;
+		}
+		lock(curNode, depth);
+		headLock.unlock();
+
+		//Search for from, keeping the nodes where the search goes left unless
+		//they are past hi
+		while(curNode != null) {
+			compare = from == null ? 1 : curNode.data.compareTo(from);
+			if(compare == 0 && inclusive)
+				nextNode = null;
+			else if(compare > 0)
+				nextNode = curNode.left;
+			else
+				nextNode = curNode.right;
+			if(nextNode != null)
+				lock(nextNode, depth + 1);
+
+			if((compare > 0 || (compare == 0 && inclusive))
+					&& (hi == null || curNode.data.compareTo(hi) < 0))
+				more |= keep(kept, depths, curNode, depth);
+			else
+				curNode.unlock();
+			curNode = nextNode;
+			depth++;
+		}
+
+		//Visit the kept nodes, smallest first, keeping the left spine of each
+		//one's right subtree in turn
+		while(!kept.isEmpty()) {
+			curNode = kept.pop();
+			depth = depths.pop();
+			if(hi != null && curNode.data.compareTo(hi) >= 0) {
+				curNode.unlock();
+				more = false;
+				break;
+			}
+			if(batch.size() == SCAN_BATCH) {
+				curNode.unlock();
+				more = true;
+				break;
+			}
+			batch.add(curNode.data);
+
+			nextNode = curNode.right;
+			if(nextNode != null)
+				lock(nextNode, depth + 1);
+			curNode.unlock();
+			while(nextNode != null) {
+				curNode = nextNode;
+				depth++;
+				nextNode = curNode.left;
+				if(nextNode != null)
+					lock(nextNode, depth + 1);
+				more |= keep(kept, depths, curNode, depth);
+			}
+		}
+
+		while(!kept.isEmpty())
+			kept.pop().unlock();
+		return more;
+	}
+
+	/**
+	 * Pushes a locked node on the walk's stack, letting go of the one at the
+	 * bottom if that leaves more than SCAN_BATCH of them.
+	 *
+	 * @return True if a node was let go
+	 */
+	private static <T> boolean keep(ArrayDeque<LockableNode<T>> kept,
+			ArrayDeque<Integer> depths, LockableNode<T> node, int depth) {
+		kept.push(node);
+		depths.push(depth);
+		if(kept.size() <= SCAN_BATCH)
+			return false;
+		kept.removeLast().unlock();
+		depths.removeLast();
+		return true;
+	}
+
 	public void printTree() {
 		printTree(root);
 	}
@@ -441,10 +943,12 @@ public class FineGrainedLockingBinaryTree<T extends Comparable<? super T>>
 		printTree(curNode.right);
 	}
 
-	//Returns Throughput
-	public long printThroughput(){
-	    return root.Throughput;
-    }
+	/**
+	 * Returns the metrics this tree counts into, or null if it has none.
+	 */
+	public TreeMetrics metrics() {
+		return metrics;
+	}
 
 
 }
\ No newline at end of file
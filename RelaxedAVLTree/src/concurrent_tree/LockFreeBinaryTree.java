@@ -0,0 +1,544 @@
+package concurrent_tree;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Lock-Free Binary Tree
+ *
+ * This class implements a non-blocking, leaf-oriented binary search tree based
+ * on Ellen et al., "Non-blocking Binary Search Trees".  All of the data lives
+ * in the leaves; internal nodes only route searches.  Because a removal only
+ * ever splices out a leaf and its parent, no replacement node has to be moved
+ * and a concurrent search can never miss data that is in the tree.
+ *
+ * Updates coordinate through info records.  Before changing a child pointer,
+ * an insert flags the parent and a remove flags the grandparent and marks the
+ * parent, each with a single CAS on the node's update field.  Any thread that
+ * runs into a flagged or marked node helps the pending operation finish
+ * before retrying its own, so a stalled thread never blocks the rest of the
+ * tree.  Searches perform no writes at all.
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class LockFreeBinaryTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * States an internal node can be in.
+	 */
+	static final int CLEAN = 0;
+	static final int IFLAG = 1;
+	static final int DFLAG = 2;
+	static final int MARK = 3;
+
+	/**
+	 * Shared initial update value for new internal nodes.  Nodes never return
+	 * to this object once they have been flagged, so sharing it is safe.
+	 */
+	static final Update CLEAN_UPDATE = new Update(CLEAN, null);
+
+	/**
+	 * Base class for the two node types.  inf is 0 for nodes holding real
+	 * data, and 1 or 2 for the two sentinel keys that are larger than any
+	 * real data (with inf 1 < inf 2).
+	 */
+	static class Node<T> {
+		final T key;
+		final int inf;
+
+		Node(T key, int inf) {
+			this.key = key;
+			this.inf = inf;
+		}
+	}
+
+	static final class Leaf<T> extends Node<T> {
+		Leaf(T key, int inf) {
+			super(key, inf);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	static final class Internal<T> extends Node<T> {
+		static final AtomicReferenceFieldUpdater<Internal, Node> LEFT =
+				AtomicReferenceFieldUpdater.newUpdater(Internal.class,
+						Node.class, "left");
+		static final AtomicReferenceFieldUpdater<Internal, Node> RIGHT =
+				AtomicReferenceFieldUpdater.newUpdater(Internal.class,
+						Node.class, "right");
+		static final AtomicReferenceFieldUpdater<Internal, Update> UPDATE =
+				AtomicReferenceFieldUpdater.newUpdater(Internal.class,
+						Update.class, "update");
+
+		volatile Node<T> left;
+		volatile Node<T> right;
+		volatile Update update;
+
+		Internal(T key, int inf, Node<T> left, Node<T> right) {
+			super(key, inf);
+			this.left = left;
+			this.right = right;
+			this.update = CLEAN_UPDATE;
+		}
+
+		boolean casUpdate(Update expect, Update update) {
+			return UPDATE.compareAndSet(this, expect, update);
+		}
+	}
+
+	/**
+	 * Immutable (state, info) pair stored in an internal node's update field.
+	 */
+	static final class Update {
+		final int state;
+		final Info info;
+
+		Update(int state, Info info) {
+			this.state = state;
+			this.info = info;
+		}
+	}
+
+	static abstract class Info {
+	}
+
+	/**
+	 * Describes an insert: replace leaf l under p with newInternal.
+	 */
+	static final class IInfo<T> extends Info {
+		final Internal<T> p;
+		final Leaf<T> l;
+		final Internal<T> newInternal;
+		final Update flag;
+
+		IInfo(Internal<T> p, Leaf<T> l, Internal<T> newInternal) {
+			this.p = p;
+			this.l = l;
+			this.newInternal = newInternal;
+			this.flag = new Update(IFLAG, this);
+		}
+	}
+
+	/**
+	 * Describes a remove: splice out leaf l and its parent p from under gp.
+	 * pupdate is the update value of p seen by the search.
+	 */
+	static final class DInfo<T> extends Info {
+		final Internal<T> gp;
+		final Internal<T> p;
+		final Leaf<T> l;
+		final Update pupdate;
+		final Update flag;
+		final Update mark;
+
+		DInfo(Internal<T> gp, Internal<T> p, Leaf<T> l, Update pupdate) {
+			this.gp = gp;
+			this.p = p;
+			this.l = l;
+			this.pupdate = pupdate;
+			this.flag = new Update(DFLAG, this);
+			this.mark = new Update(MARK, this);
+		}
+	}
+
+	/**
+	 * Result of a search: the leaf reached, its parent and grandparent, and
+	 * the update values read from them on the way down.
+	 */
+	static final class SearchResult<T> {
+		Internal<T> gp;
+		Internal<T> p;
+		Leaf<T> l;
+		Update pupdate;
+		Update gpupdate;
+	}
+
+	/**
+	 * Local variables and definitions.  The root is never removed; it always
+	 * routes real data into its left subtree, which starts as the inf 1 leaf.
+	 */
+	final Internal<T> root;
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * Instantiates an empty lock-free binary tree for use.
+	 */
+	public LockFreeBinaryTree() {
+		root = new Internal<T>(null, 2, new Leaf<T>(null, 1),
+				new Leaf<T>(null, 2));
+	}
+
+	/**
+	 * Builds a leaf-oriented tree holding data whose internal nodes form a
+	 * balanced routing tree.  Duplicates are dropped.
+	 *
+	 * @param data The data objects to load, in any order
+	 * @return A new tree holding the data
+	 */
+	public static <T extends Comparable<? super T>> LockFreeBinaryTree<T>
+			bulkLoad(Collection<? extends T> data) {
+		T keys[] = BulkLoad.sortedUnique(data);
+		return buildSorted(keys.length, i -> keys[i]);
+	}
+
+	/**
+	 * Reloads a tree from a checkpoint written by Checkpoint.write, building
+	 * it straight from the mapped file.
+	 *
+	 * @param file The checkpoint file
+	 * @return A new tree holding the checkpointed keys
+	 */
+	public static LockFreeBinaryTree<Integer> load(Path file)
+			throws IOException {
+		IntBuffer keys = Checkpoint.read(file);
+		return buildSorted(keys.limit(), keys::get);
+	}
+
+	/**
+	 * Builds a balanced tree over count keys that are already sorted and
+	 * unique, where key(i) returns the i'th.
+	 */
+	private static <T extends Comparable<? super T>> LockFreeBinaryTree<T>
+			buildSorted(int count, IntFunction<? extends T> key) {
+		LockFreeBinaryTree<T> tree = new LockFreeBinaryTree<T>();
+		if(count == 0)
+			return tree;
+
+		//Build a balanced tree over the gaps between keys: internal node i
+		//routes key i and up to the right, and the leaves hold the keys
+		Node<T> leaves = BulkLoad.build(1, count,
+				(BulkLoad.NodeBuilder<Node<T>>) (i, left, right) -> {
+			if(left == null)
+				left = new Leaf<T>(key.apply(i - 1), 0);
+			if(right == null)
+				right = new Leaf<T>(key.apply(i), 0);
+			return new Internal<T>(key.apply(i), 0, left, right);
+		});
+		if(leaves == null)
+			leaves = new Leaf<T>(key.apply(0), 0);
+
+		//Real data stays to the left of the inf 1 sentinel
+		tree.root.left = new Internal<T>(null, 1, leaves,
+				new Leaf<T>(null, 1));
+		tree.size.add(count);
+		return tree;
+	}
+
+	/**
+	 * Compares data against a node's key, treating the sentinel keys as
+	 * larger than any real data.
+	 */
+	private int compare(T data, Node<T> node) {
+		if(node.inf != 0)
+			return -1;
+		return data.compareTo(node.key);
+	}
+
+	/**
+	 * Compares the keys of two nodes, including sentinel keys.
+	 */
+	private int compare(Node<T> a, Node<T> b) {
+		if(a.inf != 0 || b.inf != 0)
+			return Integer.compare(a.inf, b.inf);
+		return a.key.compareTo(b.key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private SearchResult<T> search(T data) {
+		SearchResult<T> result = new SearchResult<T>();
+		Node<T> l = root;
+
+		while(l instanceof Internal) {
+			result.gp = result.p;
+			result.p = (Internal<T>) l;
+			result.gpupdate = result.pupdate;
+			result.pupdate = result.p.update;
+			if(compare(data, l) < 0)
+				l = result.p.left;
+			else
+				l = result.p.right;
+		}
+		result.l = (Leaf<T>) l;
+		return result;
+	}
+
+	/**
+	 * Searches the tree for the specified data.  Never writes to shared
+	 * memory and never waits on another thread.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+		Leaf<T> l = search(data).l;
+		return l.inf == 0 && data.compareTo(l.key) == 0;
+	}
+
+	/**
+	 * Inserts new data into the tree by replacing the leaf where the search
+	 * ends with a new internal node holding the old leaf and the new one.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		Leaf<T> newLeaf = new Leaf<T>(data, 0);
+
+		while(true) {
+			SearchResult<T> s = search(data);
+			Leaf<T> l = s.l;
+			if(l.inf == 0 && data.compareTo(l.key) == 0)
+				return false;
+
+			if(s.pupdate.state != CLEAN) {
+				help(s.pupdate);
+				continue;
+			}
+
+			//Copy l rather than reusing it, so that the child CAS below can't
+			//be fooled by l reappearing somewhere else in the tree
+			Leaf<T> newSibling = new Leaf<T>(l.key, l.inf);
+			Internal<T> newInternal;
+			if(compare(newLeaf, newSibling) < 0)
+				newInternal = new Internal<T>(l.key, l.inf, newLeaf,
+						newSibling);
+			else
+				newInternal = new Internal<T>(data, 0, newSibling, newLeaf);
+
+			IInfo<T> op = new IInfo<T>(s.p, l, newInternal);
+			if(s.p.casUpdate(s.pupdate, op.flag)) {
+				helpInsert(op);
+				size.increment();
+				return true;
+			}
+			help(s.p.update);
+		}
+	}
+
+	/**
+	 * Removes the specified data from the tree by splicing out its leaf and
+	 * the leaf's parent.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	public T remove(T data) {
+		while(true) {
+			SearchResult<T> s = search(data);
+			Leaf<T> l = s.l;
+			if(l.inf != 0 || data.compareTo(l.key) != 0)
+				return null;
+
+			if(s.gpupdate.state != CLEAN) {
+				help(s.gpupdate);
+			} else if(s.pupdate.state != CLEAN) {
+				help(s.pupdate);
+			} else {
+				DInfo<T> op = new DInfo<T>(s.gp, s.p, l, s.pupdate);
+				if(s.gp.casUpdate(s.gpupdate, op.flag)) {
+					if(helpDelete(op)) {
+						size.decrement();
+						return l.key;
+					}
+				} else {
+					help(s.gp.update);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the smallest object in the tree.
+	 */
+	@Override
+	public T first() {
+		return successor(null, false);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is >= data.
+	 */
+	@Override
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is > data.
+	 */
+	@Override
+	public T higher(T data) {
+		return successor(data, false);
+	}
+
+	/**
+	 * Returns the number of objects in the tree.  Only the thread whose flag
+	 * CAS succeeded counts an update, never the threads that helped it, so
+	 * the count is a LongAdder rather than anything in the tree.
+	 */
+	@Override
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * Searches for the leaf where data belongs, remembering the last internal
+	 * node where the search turned left.  If that leaf is too small, every
+	 * key bigger than data is at or above the remembered node's key, so the
+	 * search is repeated for it.  Like contains, this never writes to shared
+	 * memory.  A null data finds the smallest object.
+	 */
+	private T successor(T data, boolean inclusive) {
+		while(true) {
+			Node<T> l = root;
+			Node<T> candidate = null;
+			while(l instanceof Internal) {
+				Internal<T> p = (Internal<T>) l;
+				if(data == null || compare(data, p) < 0) {
+					candidate = p;
+					l = p.left;
+				} else {
+					l = p.right;
+				}
+			}
+
+			if(l.inf == 0) {
+				int compare = data == null ? 1 : l.key.compareTo(data);
+				if(compare > 0 || (compare == 0 && inclusive))
+					return l.key;
+			}
+			if(candidate == null || candidate.inf != 0)
+				return null;
+			data = candidate.key;
+			inclusive = true;
+		}
+	}
+
+	/**
+	 * Completes whatever operation the passed update value belongs to.
+	 */
+	@SuppressWarnings("unchecked")
+	private void help(Update u) {
+		switch(u.state) {
+		case IFLAG:
+			helpInsert((IInfo<T>) u.info);
+			break;
+		case MARK:
+			helpMarked((DInfo<T>) u.info);
+			break;
+		case DFLAG:
+			helpDelete((DInfo<T>) u.info);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void helpInsert(IInfo<T> op) {
+		casChild(op.p, op.l, op.newInternal);
+		op.p.casUpdate(op.flag, new Update(CLEAN, op));
+	}
+
+	/**
+	 * Tries to mark the parent of the leaf being removed.  If the parent was
+	 * changed by another operation first, the remove is backed out by
+	 * unflagging the grandparent.
+	 *
+	 * @return True if the remove will complete, false if it must be retried
+	 */
+	private boolean helpDelete(DInfo<T> op) {
+		if(op.p.casUpdate(op.pupdate, op.mark) || op.p.update == op.mark) {
+			helpMarked(op);
+			return true;
+		}
+		help(op.p.update);
+		op.gp.casUpdate(op.flag, new Update(CLEAN, op));
+		return false;
+	}
+
+	private void helpMarked(DInfo<T> op) {
+		Node<T> other;
+		if(op.p.right == op.l)
+			other = op.p.left;
+		else
+			other = op.p.right;
+		casChild(op.gp, op.p, other);
+		op.gp.casUpdate(op.flag, new Update(CLEAN, op));
+	}
+
+	/**
+	 * Swings the child pointer of parent that should hold newNode from old to
+	 * newNode.
+	 */
+	private void casChild(Internal<T> parent, Node<T> old, Node<T> newNode) {
+		if(compare(newNode, parent) < 0)
+			Internal.LEFT.compareAndSet(parent, old, newNode);
+		else
+			Internal.RIGHT.compareAndSet(parent, old, newNode);
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out the data of each
+	 * leaf.
+	 */
+	public void printTree() {
+		printTree(root);
+	}
+
+	private void printTree(Node<T> curNode) {
+
+		//Check to make sure curNode isn't null
+		if(curNode == null)
+			return;
+
+		if(curNode instanceof Internal) {
+			Internal<T> internal = (Internal<T>) curNode;
+			printTree(internal.left);
+			printTree(internal.right);
+		} else if(curNode.inf == 0) {
+			System.out.println(curNode.key.toString());
+		}
+	}
+
+	/**
+	 * Driver program to test the lock-free tree.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		//Test the tree
+		LockFreeBinaryTree<Integer> tree = new LockFreeBinaryTree<Integer>();
+		LinkedList<Integer> randomNums = new LinkedList<Integer>();
+		Random rand = new Random();
+		int random = 0;
+		int i = 0;
+
+		for(i = 0; i < 10; i++) {
+			random = rand.nextInt(500);
+			randomNums.addLast(random);
+			tree.insert(random);
+			System.out.println("Number: " + random);
+		}
+
+		System.out.println("----------\nTree contains:");
+		tree.printTree();
+		System.out.println("----------");
+
+		for(i = 0; i < 10; i++) {
+			random = randomNums.removeFirst();
+			System.out.println("Number [" + i + "]: " + random +
+					" -> removed? " + tree.remove(random));
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package concurrent_tree;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Lock Strategy
+ *
+ * The kinds of lock the hand-over-hand trees (FineGrainedLockingBinaryTree
+ * and RelaxedAVLTree) can use for their nodes and root slot, chosen when the
+ * tree is created.  INLINE, the default, uses the lock word built into every
+ * LockableNode and costs no extra allocation; the others give each node a
+ * separate lock object.
+ *
+ */
+public enum LockStrategy {
+
+	/**
+	 * LockableNode's own CAS lock word, spinning and then parking.
+	 */
+	INLINE,
+
+	/**
+	 * A java.util.concurrent ReentrantLock.
+	 */
+	REENTRANT,
+
+	/**
+	 * Test-and-test-and-set spin lock with exponential backoff.
+	 */
+	BACKOFF,
+
+	/**
+	 * MCS queue lock.
+	 */
+	MCS,
+
+	/**
+	 * CLH queue lock.
+	 */
+	CLH,
+
+	/**
+	 * The write lock of a StampedLock.
+	 */
+	STAMPED;
+
+	/**
+	 * Creates a lock of this kind.  INLINE has no separate lock object, so it
+	 * gets a ReentrantLock, which is what guards the root slot.
+	 */
+	NodeLock newLock() {
+		switch(this) {
+		case BACKOFF:
+			return new BackoffLock();
+		case MCS:
+			return new MCSLock();
+		case CLH:
+			return new CLHLock();
+		case STAMPED:
+			return new StampedWriteLock();
+		default:
+			return new ReentrantNodeLock();
+		}
+	}
+
+	/**
+	 * Creates the lock for a new node.
+	 *
+	 * @return The lock, or null if the node should lock its own lock word
+	 */
+	NodeLock newNodeLock() {
+		return this == INLINE ? null : newLock();
+	}
+
+	//ReentrantLock already has NodeLock's methods
+	@SuppressWarnings("serial")
+	private static final class ReentrantNodeLock extends ReentrantLock
+			implements NodeLock {
+	}
+
+	@SuppressWarnings("serial")
+	private static final class StampedWriteLock extends StampedLock
+			implements NodeLock {
+
+		@Override
+		public void lock() {
+			writeLock();
+		}
+
+		@Override
+		public boolean tryLock() {
+			return tryWriteLock() != 0;
+		}
+
+		@Override
+		public void unlock() {
+			if(!tryUnlockWrite())
+				throw new IllegalMonitorStateException();
+		}
+	}
+}
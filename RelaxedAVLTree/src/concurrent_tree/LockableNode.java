@@ -1,31 +1,80 @@
 package concurrent_tree;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /**
  * LockableNode Class
  * 
  * Extends the basic Node class used for fine-grained locking.
  *
+ * The lock is an int in the node itself rather than a ReentrantLock, which
+ * with its AQS sync object more than doubled the size of every node.  An
+ * uncontended lock is a single CAS on the node, a contended one spins for a
+ * while and then waits on one of PARKING_LOTS shared monitors, picked by the
+ * node's identity hash.  Unlike ReentrantLock the lock is not reentrant.
+ * A node created with a lock of its own (see LockStrategy) uses that instead
+ * of the lock word.
+ *
  */
 public class LockableNode<T> {
 	
+	static final int UNLOCKED = 0;
+	static final int LOCKED = 1;
+	static final int PARKED = 2;
+
+	/**
+	 * Failed CASes before a waiting thread parks.
+	 */
+	static final int SPINS = 64;
+
+	static final int PARKING_LOTS = 64;
+	private static final Object parkingLots[] = new Object[PARKING_LOTS];
+	private static final VarHandle STATE;
+
+	static {
+		for(int i = 0; i < PARKING_LOTS; i++)
+			parkingLots[i] = new Object();
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(LockableNode.class,
+					"state", int.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	public T data;
-	public ReentrantLock lock;
 	public LockableNode<T> left;
 	public LockableNode<T> right;
 	public int height;
-	public long Throughput;
+	//Number of nodes in the subtree, kept by RelaxedAVLTree
+	public int size;
+	//Failed updates still taking back their counts down to this node, kept
+	//by RelaxedAVLTree, which doesn't move a pinned node
+	public int pins;
+	public boolean dirty;
+
+	//UNLOCKED, or LOCKED plus PARKED if a thread may be waiting
+	private volatile int state;
+	private final NodeLock lock;
 	
 	/**
 	 * Instantiates a LockableNode object.
 	 */
 
 	public LockableNode(T data) {
+		this(data, null);
+	}
+
+	/**
+	 * Instantiates a LockableNode object guarded by lock, or by its own lock
+	 * word if lock is null.
+	 */
+	LockableNode(T data, NodeLock lock) {
 		this.data = data;
+		this.lock = lock;
 		left = null;
 		right = null;
-		lock = new ReentrantLock();
         this.height=height;
 	}
 	
@@ -33,14 +82,77 @@ public class LockableNode<T> {
 	 * Locking the LockableNode's lock.
 	 */
 	public void lock() {
-		lock.lock();
-		Throughput=Throughput+1;
+		if(lock != null)
+			lock.lock();
+		else if(!STATE.compareAndSet(this, UNLOCKED, LOCKED))
+			lockContended();
+	}
+
+	private void lockContended() {
+		for(int i = 0; i < SPINS; i++) {
+			Thread.onSpinWait();
+			if(state == UNLOCKED && STATE.compareAndSet(this, UNLOCKED, LOCKED))
+				return;
+		}
+
+		Object lot = parkingLot();
+		boolean interrupted = false;
+		while(true) {
+			int s = state;
+			if(s == UNLOCKED) {
+				//Waiters woken by unlock all retry here and re-mark the lock
+				//if they lose, so none of them is forgotten
+				if(STATE.compareAndSet(this, UNLOCKED, LOCKED))
+					break;
+				continue;
+			}
+			if(s == LOCKED
+					&& !STATE.compareAndSet(this, LOCKED, LOCKED | PARKED))
+				continue;
+
+			//unlock clears the state before taking the monitor to notify, so
+			//checking it under the monitor can't miss the wakeup
+			synchronized(lot) {
+				while(state == (LOCKED | PARKED)) {
+					try {
+						lot.wait();
+					} catch(InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Takes the lock only if it is free.
+	 *
+	 * @return True if the lock was taken
+	 */
+	public boolean tryLock() {
+		if(lock != null)
+			return lock.tryLock();
+		return STATE.compareAndSet(this, UNLOCKED, LOCKED);
 	}
 	
 	/**
 	 * Convenience method to unlock the LockableNode's lock.
 	 */
 	public void unlock() {
-		lock.unlock();
+		if(lock != null)
+			lock.unlock();
+		else if((int) STATE.getAndSet(this, UNLOCKED) != LOCKED) {
+			Object lot = parkingLot();
+			synchronized(lot) {
+				lot.notifyAll();
+			}
+		}
+	}
+
+	private Object parkingLot() {
+		int h = System.identityHashCode(this);
+		return parkingLots[(h ^ (h >>> 16)) & (PARKING_LOTS - 1)];
 	}
 }
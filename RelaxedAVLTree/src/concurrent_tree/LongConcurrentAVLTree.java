@@ -0,0 +1,988 @@
+package concurrent_tree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-Keyed Optimistic AVL Tree
+ *
+ * A specialization of OptimisticAVLTree for primitive long keys.  The
+ * algorithm is identical (lock-free searches validated by per-node version
+ * numbers, updates that lock O(1) nodes, routing nodes for removals), but
+ * every node stores its key in a long field, so comparisons never dereference
+ * a boxed Long and insert(long), remove(long) and contains(long) allocate
+ * nothing beyond the new node itself.
+ *
+ * The tree also implements ConcurrentBinaryTree<Long> so it can be used
+ * wherever the generic trees are; those methods unbox their argument and
+ * delegate to the primitive ones.
+ *
+ */
+public class LongConcurrentAVLTree implements ConcurrentBinaryTree<Long> {
+
+	/**
+	 * Results of the attempt methods.
+	 */
+	private static final int RESULT_FALSE = 0;
+	private static final int RESULT_TRUE = 1;
+	private static final int RETRY = 2;
+
+	/**
+	 * Returned by a successor search that has to start over.
+	 */
+	private static final Node RETRY_NODE = new Node(0, 0, false, null, 0L);
+
+	/**
+	 * Conditions returned by nodeCondition.  Any non-negative value is the
+	 * corrected height of the node.
+	 */
+	private static final int UNLINK_REQUIRED = -1;
+	private static final int REBALANCE_REQUIRED = -2;
+	private static final int NOTHING_REQUIRED = -3;
+
+	/**
+	 * Node with a primitive key.  Uses the version encoding and the waiting
+	 * strategy of OptimisticNode.
+	 */
+	static final class Node {
+		final long key;
+		volatile boolean present;
+		volatile int height;
+		volatile long version;
+		volatile Node parent;
+		volatile Node left;
+		volatile Node right;
+
+		Node(long key, int height, boolean present, Node parent,
+				long version) {
+			this.key = key;
+			this.height = height;
+			this.present = present;
+			this.parent = parent;
+			this.version = version;
+		}
+
+		Node child(int dir) {
+			return dir < 0 ? left : right;
+		}
+
+		void setChild(int dir, Node node) {
+			if(dir < 0)
+				left = node;
+			else
+				right = node;
+		}
+
+		void waitUntilShrinkCompleted(long ovl) {
+			if(!OptimisticNode.isShrinking(ovl))
+				return;
+
+			for(int tries = 0; tries < OptimisticNode.SPIN_COUNT; tries++) {
+				if(version != ovl)
+					return;
+			}
+			for(int tries = 0; tries < OptimisticNode.YIELD_COUNT; tries++) {
+				Thread.yield();
+				if(version != ovl)
+					return;
+			}
+
+			//Spinning didn't help, block until the rotation releases the node
+			synchronized(this) {
+			}
+		}
+	}
+
+	/**
+	 * Local variables and definitions.  The root holder is a permanent
+	 * sentinel whose right child is the actual root of the tree.
+	 */
+	final Node rootHolder;
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * Instantiates an empty long-keyed AVL tree for use.
+	 */
+	public LongConcurrentAVLTree() {
+		rootHolder = new Node(0, 1, false, null, 0L);
+	}
+
+	/**
+	 * Builds a balanced tree holding keys, dropping duplicates.
+	 *
+	 * @param keys The keys to load, in any order
+	 * @return A new tree holding the keys
+	 */
+	public static LongConcurrentAVLTree bulkLoad(long keys[]) {
+		long sorted[] = BulkLoad.sortedUnique(keys);
+		LongConcurrentAVLTree tree = new LongConcurrentAVLTree();
+		Node subRoot = BulkLoad.build(0, sorted.length,
+				(BulkLoad.NodeBuilder<Node>) (i, left, right) -> {
+			Node node = new Node(sorted[i],
+					1 + Math.max(height(left), height(right)), true, null, 0L);
+			node.left = left;
+			node.right = right;
+			if(left != null)
+				left.parent = node;
+			if(right != null)
+				right.parent = node;
+			return node;
+		});
+		if(subRoot != null) {
+			subRoot.parent = tree.rootHolder;
+			tree.rootHolder.height = subRoot.height + 1;
+			tree.rootHolder.right = subRoot;
+		}
+		tree.size.add(sorted.length);
+		return tree;
+	}
+
+	static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	/**
+	 * Searches the tree for the specified key without acquiring any locks.
+	 *
+	 * @param key The key to search for in the tree
+	 * @return True if the key is in the tree, false otherwise
+	 */
+	public boolean contains(long key) {
+		while(true) {
+			Node right = rootHolder.right;
+			if(right == null)
+				return false;
+
+			int cmp = Long.compare(key, right.key);
+			if(cmp == 0)
+				return right.present;
+
+			long ovl = right.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(ovl)) {
+				right.waitUntilShrinkCompleted(ovl);
+			} else if(right == rootHolder.right) {
+				int result = attemptContains(key, right, cmp, ovl);
+				if(result != RETRY)
+					return result == RESULT_TRUE;
+			}
+		}
+	}
+
+	/**
+	 * Continues a search below node, which was reached with version nodeOVL.
+	 * Returns RETRY if node was rotated while we were below it.
+	 */
+	private int attemptContains(long key, Node node, int dir, long nodeOVL) {
+		while(true) {
+			Node child = node.child(dir);
+			if(child == null) {
+				//Only a valid miss if node hasn't changed since we got here
+				if(node.version != nodeOVL)
+					return RETRY;
+				return RESULT_FALSE;
+			}
+
+			int childCmp = Long.compare(key, child.key);
+			if(childCmp == 0)
+				return child.present ? RESULT_TRUE : RESULT_FALSE;
+
+			long childOVL = child.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+				if(node.version != nodeOVL)
+					return RETRY;
+			} else if(child != node.child(dir)) {
+				//child was replaced after we read its version, reread it
+				if(node.version != nodeOVL)
+					return RETRY;
+			} else {
+				//Validate the read that got us to node before descending
+				if(node.version != nodeOVL)
+					return RETRY;
+				int result = attemptContains(key, child, childCmp,
+						childOVL);
+				if(result != RETRY)
+					return result;
+			}
+		}
+	}
+
+	/**
+	 * Inserts a new key into the tree.  Only the node that the new leaf is
+	 * attached to is locked, and the leaf is the only allocation.
+	 *
+	 * @param key The key to be inserted into the tree
+	 * @return True if the key was successfully inserted, false otherwise
+	 */
+	public boolean insert(long key) {
+		boolean inserted = update(key, true) == RESULT_TRUE;
+		if(inserted)
+			size.increment();
+		return inserted;
+	}
+
+	/**
+	 * Removes the specified key from the tree.  Locks the node holding the
+	 * key, and its parent if the node can be unlinked.
+	 *
+	 * @param key The key to remove from the tree
+	 * @return True if the key was in the tree and was removed, false otherwise
+	 */
+	public boolean remove(long key) {
+		boolean removed = update(key, false) == RESULT_TRUE;
+		if(removed)
+			size.decrement();
+		return removed;
+	}
+
+	/**
+	 * Shared driver for insert and remove.  Returns RESULT_TRUE if the tree
+	 * was changed, RESULT_FALSE otherwise.
+	 */
+	private int update(long key, boolean insert) {
+		while(true) {
+			Node right = rootHolder.right;
+			if(right == null) {
+				//The tree is empty
+				if(!insert)
+					return RESULT_FALSE;
+				synchronized(rootHolder) {
+					if(rootHolder.right == null) {
+						rootHolder.right = new Node(key, 1, true,
+								rootHolder, 0L);
+						rootHolder.height = 2;
+						return RESULT_TRUE;
+					}
+				}
+			} else {
+				long ovl = right.version;
+				if(OptimisticNode.isShrinkingOrUnlinked(ovl)) {
+					right.waitUntilShrinkCompleted(ovl);
+				} else if(right == rootHolder.right) {
+					int result = attemptUpdate(key, insert, rootHolder,
+							right, ovl);
+					if(result != RETRY)
+						return result;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Continues an update below node, which was reached with version nodeOVL.
+	 * A rotation at node shrinks the key range of one of its subtrees, so
+	 * before descending we must check that node hasn't changed since we
+	 * arrived from parent.
+	 */
+	private int attemptUpdate(long key, boolean insert,
+			Node parent, Node node, long nodeOVL) {
+		int cmp = Long.compare(key, node.key);
+		if(cmp == 0)
+			return attemptNodeUpdate(insert, parent, node);
+
+		while(true) {
+			Node child = node.child(cmp);
+			if(node.version != nodeOVL)
+				return RETRY;
+
+			if(child == null) {
+				//The key is not in the tree
+				if(!insert)
+					return RESULT_FALSE;
+
+				Node damaged;
+				synchronized(node) {
+					//We hold the lock, so no future rotation can move node.
+					//Check that no past rotation did either.
+					if(node.version != nodeOVL)
+						return RETRY;
+					if(node.child(cmp) != null) {
+						//Lost a race with another insert, retry from node
+						continue;
+					}
+					node.setChild(cmp, new Node(key, 1, true, node, 0L));
+					damaged = fixHeight(node);
+				}
+				fixHeightAndRebalance(damaged);
+				return RESULT_TRUE;
+			}
+
+			long childOVL = child.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+			} else if(child != node.child(cmp)) {
+				//child was replaced after we read its version, reread it
+			} else {
+				if(node.version != nodeOVL)
+					return RETRY;
+				int result = attemptUpdate(key, insert, node, child,
+						childOVL);
+				if(result != RETRY)
+					return result;
+			}
+		}
+	}
+
+	/**
+	 * Performs the update on the node holding the key.  An insert on a
+	 * routing node simply marks it present again; a remove either unlinks the
+	 * node (if it has at most one child) or turns it into a routing node.
+	 */
+	private int attemptNodeUpdate(boolean insert, Node parent, Node node) {
+		if(!insert && !node.present)
+			return RESULT_FALSE;
+
+		if(!insert && (node.left == null || node.right == null)) {
+			//Potential unlink, lock the parent first
+			Node damaged;
+			synchronized(parent) {
+				if(OptimisticNode.isUnlinked(parent.version)
+						|| node.parent != parent)
+					return RETRY;
+				synchronized(node) {
+					if(!node.present)
+						return RESULT_FALSE;
+					if(!attemptUnlink(parent, node))
+						return RETRY;
+				}
+				damaged = fixHeight(parent);
+			}
+			fixHeightAndRebalance(damaged);
+			return RESULT_TRUE;
+		}
+
+		synchronized(node) {
+			//Rotations don't bother us, but unlinking does
+			if(OptimisticNode.isUnlinked(node.version))
+				return RETRY;
+
+			if(insert) {
+				if(node.present)
+					return RESULT_FALSE;
+				node.present = true;
+				return RESULT_TRUE;
+			}
+
+			if(!node.present)
+				return RESULT_FALSE;
+			//A child may have been unlinked since we checked, in which case
+			//the node must be unlinked rather than left as a routing node
+			if(node.left == null || node.right == null)
+				return RETRY;
+			node.present = false;
+			return RESULT_TRUE;
+		}
+	}
+
+	/**
+	 * Splices node out of the tree.  Both parent and node must be locked.
+	 *
+	 * @return False if node is no longer a child of parent or now has two
+	 * children, true otherwise
+	 */
+	private boolean attemptUnlink(Node parent, Node node) {
+		Node parentL = parent.left;
+		Node parentR = parent.right;
+		if(parentL != node && parentR != node)
+			return false;
+
+		Node left = node.left;
+		Node right = node.right;
+		if(left != null && right != null)
+			return false;
+
+		Node splice = left != null ? left : right;
+		if(parentL == node)
+			parent.left = splice;
+		else
+			parent.right = splice;
+		if(splice != null)
+			splice.parent = parent;
+
+		node.version = OptimisticNode.UNLINKED;
+		node.present = false;
+		return true;
+	}
+
+	/**
+	 * Determines what repair, if any, node needs.  The reads aren't atomic,
+	 * but any thread that changes a node promises to repair it, so either our
+	 * snapshot was consistent or someone else is responsible for the fix.
+	 *
+	 * @return UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED or the
+	 * corrected height of node
+	 */
+	private int nodeCondition(Node node) {
+		Node nL = node.left;
+		Node nR = node.right;
+
+		if((nL == null || nR == null) && !node.present)
+			return UNLINK_REQUIRED;
+
+		int hN = node.height;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+
+		if(bal < -1 || bal > 1)
+			return REBALANCE_REQUIRED;
+		return hN != hNRepl ? hNRepl : NOTHING_REQUIRED;
+	}
+
+	/**
+	 * Walks up from node repairing heights and balance until nothing more is
+	 * required.  Each step only locks the node (and its parent for rotations
+	 * and unlinks).
+	 */
+	private void fixHeightAndRebalance(Node node) {
+		while(node != null && node.parent != null) {
+			int condition = nodeCondition(node);
+			if(condition == NOTHING_REQUIRED
+					|| OptimisticNode.isUnlinked(node.version))
+				return;
+
+			if(condition != UNLINK_REQUIRED
+					&& condition != REBALANCE_REQUIRED) {
+				synchronized(node) {
+					node = fixHeight(node);
+				}
+			} else {
+				Node nParent = node.parent;
+				synchronized(nParent) {
+					if(!OptimisticNode.isUnlinked(nParent.version)
+							&& node.parent == nParent) {
+						synchronized(node) {
+							node = rebalance(nParent, node);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Attempts to fix the height of a locked node.
+	 *
+	 * @return The lowest node that still needs repair, or null if none
+	 */
+	private Node fixHeight(Node node) {
+		int c = nodeCondition(node);
+		switch(c) {
+		case REBALANCE_REQUIRED:
+		case UNLINK_REQUIRED:
+			//Can't repair with only this lock
+			return node;
+		case NOTHING_REQUIRED:
+			return null;
+		default:
+			//Height fixed, but now the parent may be damaged
+			node.height = c;
+			return node.parent;
+		}
+	}
+
+	/**
+	 * Rebalances n, unlinking it if it is a routing node with fewer than two
+	 * children.  nParent and n must be locked.
+	 *
+	 * @return A damaged node, or null if no more rebalancing is necessary
+	 */
+	private Node rebalance(Node nParent, Node n) {
+		Node nL = n.left;
+		Node nR = n.right;
+
+		if((nL == null || nR == null) && !n.present) {
+			if(attemptUnlink(nParent, n))
+				return fixHeight(nParent);
+			return n;
+		}
+
+		int hN = n.height;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+
+		if(bal > 1) {
+			return rebalanceToRight(nParent, n, nL, hR0);
+		} else if(bal < -1) {
+			return rebalanceToLeft(nParent, n, nR, hL0);
+		} else if(hNRepl != hN) {
+			n.height = hNRepl;
+			return fixHeight(nParent);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * The left subtree of n is too tall, rotate right (first rotating nL left
+	 * if its right subtree is the taller one).
+	 */
+	private Node rebalanceToRight(Node nParent, Node n, Node nL, int hR0) {
+		synchronized(nL) {
+			int hL = nL.height;
+			if(hL - hR0 <= 1)
+				return n;
+
+			Node nLR = nL.right;
+			int hLL0 = height(nL.left);
+			int hLR0 = height(nLR);
+			if(hLL0 >= hLR0)
+				return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR0);
+
+			synchronized(nLR) {
+				//Our snapshot of nLR's height may be stale
+				int hLR = nLR.height;
+				if(hLL0 >= hLR)
+					return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR);
+
+				//Only do the double rotation if it won't leave nL damaged
+				int hLRL = height(nLR.left);
+				int b = hLL0 - hLRL;
+				if(b >= -1 && b <= 1
+						&& !((hLL0 == 0 || hLRL == 0) && !nL.present))
+					return rotateRightOverLeft(nParent, n, nL, hR0, hLL0,
+							nLR, hLRL);
+			}
+
+			//Fix nL first, n will be balanced on a later pass if necessary
+			return rebalanceToLeft(n, nL, nLR, hLL0);
+		}
+	}
+
+	/**
+	 * The right subtree of n is too tall, rotate left (first rotating nR right
+	 * if its left subtree is the taller one).
+	 */
+	private Node rebalanceToLeft(Node nParent, Node n, Node nR, int hL0) {
+		synchronized(nR) {
+			int hR = nR.height;
+			if(hL0 - hR >= -1)
+				return n;
+
+			Node nRL = nR.left;
+			int hRL0 = height(nRL);
+			int hRR0 = height(nR.right);
+			if(hRR0 >= hRL0)
+				return rotateLeft(nParent, n, hL0, nR, nRL, hRL0, hRR0);
+
+			synchronized(nRL) {
+				int hRL = nRL.height;
+				if(hRR0 >= hRL)
+					return rotateLeft(nParent, n, hL0, nR, nRL, hRL, hRR0);
+
+				int hRLR = height(nRL.right);
+				int b = hRR0 - hRLR;
+				if(b >= -1 && b <= 1
+						&& !((hRR0 == 0 || hRLR == 0) && !nR.present))
+					return rotateLeftOverRight(nParent, n, hL0, nR, nRL,
+							hRR0, hRLR);
+			}
+
+			return rebalanceToRight(n, nR, nRL, hRR0);
+		}
+	}
+
+	/**
+	 * Rotates n right.  nParent, n and nL must be locked.  nLR changes parent
+	 * as part of the rotation, so it is locked as well; otherwise a thread
+	 * repairing nLR's height could read its old parent and the repair of n
+	 * would be lost.  When nLR is null the already held lock on nL is taken
+	 * again instead.
+	 */
+	private Node rotateRight(Node nParent, Node n, Node nL, int hR, int hLL,
+			Node nLR, int hLR) {
+		synchronized(nLR != null ? nLR : nL) {
+			return rotateRightLocked(nParent, n, nL, hR, hLL, nLR,
+					height(nLR));
+		}
+	}
+
+	private Node rotateRightLocked(Node nParent,
+			Node n, Node nL, int hR, int hLL,
+			Node nLR, int hLR) {
+		long nodeOVL = n.version;
+		Node nPL = nParent.left;
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+
+		// Perform rotation
+		n.left = nLR;
+		if(nLR != null)
+			nLR.parent = n;
+		nL.right = n;
+		n.parent = nL;
+		if(nPL == n)
+			nParent.left = nL;
+		else
+			nParent.right = nL;
+		nL.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hLR, hR);
+		n.height = hNRepl;
+		nL.height = 1 + Math.max(hLL, hNRepl);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+
+		//n is now the deepest damaged node, fix what we can with our locks
+		int balN = hLR - hR;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nLR == null || hR == 0) && !n.present)
+			return n;
+
+		int balL = hLL - hNRepl;
+		if(balL < -1 || balL > 1)
+			return nL;
+		if(hLL == 0 && !nL.present)
+			return nL;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Rotates n left, mirroring rotateRight.
+	 */
+	private Node rotateLeft(Node nParent, Node n, int hL, Node nR,
+			Node nRL, int hRL, int hRR) {
+		synchronized(nRL != null ? nRL : nR) {
+			return rotateLeftLocked(nParent, n, hL, nR, nRL, height(nRL),
+					hRR);
+		}
+	}
+
+	private Node rotateLeftLocked(Node nParent, Node n, int hL, Node nR,
+			Node nRL, int hRL, int hRR) {
+		long nodeOVL = n.version;
+		Node nPL = nParent.left;
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+
+		// Perform rotation
+		n.right = nRL;
+		if(nRL != null)
+			nRL.parent = n;
+		nR.left = n;
+		n.parent = nR;
+		if(nPL == n)
+			nParent.left = nR;
+		else
+			nParent.right = nR;
+		nR.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hL, hRL);
+		n.height = hNRepl;
+		nR.height = 1 + Math.max(hNRepl, hRR);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+
+		int balN = hRL - hL;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nRL == null || hL == 0) && !n.present)
+			return n;
+
+		int balR = hRR - hNRepl;
+		if(balR < -1 || balR > 1)
+			return nR;
+		if(hRR == 0 && !nR.present)
+			return nR;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Rotates nL left and then n right.  nParent, n, nL and nLR must be
+	 * locked; both children of nLR change parent, so they are locked too.
+	 */
+	private Node rotateRightOverLeft(Node nParent,
+			Node n, Node nL, int hR, int hLL,
+			Node nLR, int hLRL) {
+		Node nLRL = nLR.left;
+		Node nLRR = nLR.right;
+		synchronized(nLRL != null ? nLRL : nLR) {
+			synchronized(nLRR != null ? nLRR : nLR) {
+				return rotateRightOverLeftLocked(nParent, n, nL, hR, hLL,
+						nLR, height(nLRL));
+			}
+		}
+	}
+
+	private Node rotateRightOverLeftLocked(Node nParent,
+			Node n, Node nL, int hR, int hLL,
+			Node nLR, int hLRL) {
+		long nodeOVL = n.version;
+		long leftOVL = nL.version;
+		Node nPL = nParent.left;
+		Node nLRL = nLR.left;
+		Node nLRR = nLR.right;
+		int hLRR = height(nLRR);
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+		nL.version = OptimisticNode.beginChange(leftOVL);
+
+		// Perform rotation, the order of the link updates matters
+		n.left = nLRR;
+		if(nLRR != null)
+			nLRR.parent = n;
+		nL.right = nLRL;
+		if(nLRL != null)
+			nLRL.parent = nL;
+		nLR.left = nL;
+		nL.parent = nLR;
+		nLR.right = n;
+		n.parent = nLR;
+		if(nPL == n)
+			nParent.left = nLR;
+		else
+			nParent.right = nLR;
+		nLR.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hLRR, hR);
+		n.height = hNRepl;
+		int hLRepl = 1 + Math.max(hLL, hLRL);
+		nL.height = hLRepl;
+		nLR.height = 1 + Math.max(hLRepl, hNRepl);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+		nL.version = OptimisticNode.endChange(leftOVL);
+
+		int balN = hLRR - hR;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nLRR == null || hR == 0) && !n.present)
+			return n;
+
+		int balLR = hLRepl - hNRepl;
+		if(balLR < -1 || balLR > 1)
+			return nLR;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Rotates nR right and then n left, mirroring rotateRightOverLeft.
+	 */
+	private Node rotateLeftOverRight(Node nParent, Node n, int hL, Node nR,
+			Node nRL, int hRR, int hRLR) {
+		Node nRLL = nRL.left;
+		Node nRLR = nRL.right;
+		synchronized(nRLL != null ? nRLL : nRL) {
+			synchronized(nRLR != null ? nRLR : nRL) {
+				return rotateLeftOverRightLocked(nParent, n, hL, nR, nRL,
+						hRR, height(nRLR));
+			}
+		}
+	}
+
+	private Node rotateLeftOverRightLocked(Node nParent,
+			Node n, int hL, Node nR,
+			Node nRL, int hRR, int hRLR) {
+		long nodeOVL = n.version;
+		long rightOVL = nR.version;
+		Node nPL = nParent.left;
+		Node nRLL = nRL.left;
+		Node nRLR = nRL.right;
+		int hRLL = height(nRLL);
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+		nR.version = OptimisticNode.beginChange(rightOVL);
+
+		// Perform rotation, the order of the link updates matters
+		n.right = nRLL;
+		if(nRLL != null)
+			nRLL.parent = n;
+		nR.left = nRLR;
+		if(nRLR != null)
+			nRLR.parent = nR;
+		nRL.right = nR;
+		nR.parent = nRL;
+		nRL.left = n;
+		n.parent = nRL;
+		if(nPL == n)
+			nParent.left = nRL;
+		else
+			nParent.right = nRL;
+		nRL.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hL, hRLL);
+		n.height = hNRepl;
+		int hRRepl = 1 + Math.max(hRLR, hRR);
+		nR.height = hRRepl;
+		nRL.height = 1 + Math.max(hNRepl, hRRepl);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+		nR.version = OptimisticNode.endChange(rightOVL);
+
+		int balN = hRLL - hL;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nRLL == null || hL == 0) && !n.present)
+			return n;
+
+		int balRL = hRRepl - hNRepl;
+		if(balRL < -1 || balRL > 1)
+			return nRL;
+
+		return fixHeight(nParent);
+	}
+
+	@Override
+	public boolean insert(Long data) {
+		return insert(data.longValue());
+	}
+
+	@Override
+	public Long remove(Long data) {
+		return remove(data.longValue()) ? data : null;
+	}
+
+	@Override
+	public boolean contains(Long data) {
+		return contains(data.longValue());
+	}
+
+	@Override
+	public Long first() {
+		Node node = successor(0, false, true);
+		return node == null ? null : node.key;
+	}
+
+	@Override
+	public Long ceiling(Long data) {
+		Node node = successor(data.longValue(), true, false);
+		return node == null ? null : node.key;
+	}
+
+	@Override
+	public Long higher(Long data) {
+		Node node = successor(data.longValue(), false, false);
+		return node == null ? null : node.key;
+	}
+
+	/**
+	 * Returns the number of keys in the tree, read from a LongAdder that
+	 * insert and remove update once they have succeeded.
+	 */
+	@Override
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * Searches for key the same way contains does, remembering the last node
+	 * where the search turned left, and returns the present node holding the
+	 * smallest key above key (or equal to it, if inclusive).  If smallest is
+	 * set the search just keeps turning left.
+	 */
+	private Node successor(long key, boolean inclusive, boolean smallest) {
+		while(true) {
+			Node right = rootHolder.right;
+			if(right == null)
+				return null;
+
+			Node node;
+			int dir = direction(key, inclusive, smallest, right);
+			if(dir == 0) {
+				node = right;
+			} else {
+				long ovl = right.version;
+				if(OptimisticNode.isShrinkingOrUnlinked(ovl)) {
+					right.waitUntilShrinkCompleted(ovl);
+					continue;
+				} else if(right != rootHolder.right) {
+					continue;
+				}
+				node = attemptSuccessor(key, inclusive, smallest, right, dir,
+						ovl, dir < 0 ? right : null);
+				if(node == RETRY_NODE)
+					continue;
+			}
+
+			if(node == null || node.present)
+				return node;
+			key = node.key;
+			inclusive = false;
+			smallest = false;
+		}
+	}
+
+	/**
+	 * Continues a successor search below node, which was reached with version
+	 * nodeOVL.  Returns RETRY_NODE if node was rotated while we were below it.
+	 */
+	private Node attemptSuccessor(long key, boolean inclusive,
+			boolean smallest, Node node, int dir, long nodeOVL,
+			Node candidate) {
+		while(true) {
+			Node child = node.child(dir);
+			if(child == null) {
+				if(node.version != nodeOVL)
+					return RETRY_NODE;
+				return candidate;
+			}
+
+			int childDir = direction(key, inclusive, smallest, child);
+			if(childDir == 0)
+				return child;
+
+			long childOVL = child.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+				if(node.version != nodeOVL)
+					return RETRY_NODE;
+			} else if(child != node.child(dir)) {
+				if(node.version != nodeOVL)
+					return RETRY_NODE;
+			} else {
+				if(node.version != nodeOVL)
+					return RETRY_NODE;
+				Node result = attemptSuccessor(key, inclusive, smallest,
+						child, childDir, childOVL,
+						childDir < 0 ? child : candidate);
+				if(result != RETRY_NODE)
+					return result;
+			}
+		}
+	}
+
+	private static int direction(long key, boolean inclusive,
+			boolean smallest, Node node) {
+		if(smallest)
+			return -1;
+		int cmp = Long.compare(key, node.key);
+		if(cmp == 0)
+			return inclusive ? 0 : 1;
+		return cmp;
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out each key that
+	 * is present.  Not safe to call concurrently with updates.
+	 */
+	public void printTree() {
+		printTree(rootHolder.right);
+	}
+
+	private void printTree(Node curNode) {
+
+		//Check to make sure curNode isn't null
+		if(curNode == null)
+			return;
+
+		//Print the left subtree
+		printTree(curNode.left);
+
+		//Print the current node, skipping routing nodes
+		if(curNode.present)
+			System.out.println(curNode.key);
+
+		//Print the right subtree
+		printTree(curNode.right);
+	}
+}
@@ -0,0 +1,72 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * MCS Lock Class
+ *
+ * Queue lock of Mellor-Crummey and Scott.  Waiting threads form a linked
+ * queue, each spinning on the locked flag of its own queue node until its
+ * predecessor hands the lock over, so a release invalidates only the next
+ * waiter's cache line and the lock is granted in FIFO order.  An unlocked
+ * MCSLock is just a null tail pointer.
+ *
+ */
+class MCSLock extends SpinLock {
+
+	private static final VarHandle TAIL;
+
+	static {
+		try {
+			TAIL = MethodHandles.lookup().findVarHandle(MCSLock.class, "tail",
+					QNode.class);
+		} catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private volatile QNode tail;
+
+	@Override
+	public void lock() {
+		QNode node = take();
+		node.locked = true;
+		QNode pred = (QNode) TAIL.getAndSet(this, node);
+		if(pred != null) {
+			pred.next = node;
+			int spins = 0;
+			while(node.locked)
+				pause(spins++);
+		}
+		hold(node);
+	}
+
+	@Override
+	public boolean tryLock() {
+		QNode node = take();
+		if(!TAIL.compareAndSet(this, null, node)) {
+			recycle(node);
+			return false;
+		}
+		hold(node);
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+		QNode node = release();
+		if(node.next == null) {
+			if(TAIL.compareAndSet(this, node, null)) {
+				recycle(node);
+				return;
+			}
+			//A thread is queueing behind us but hasn't linked in yet
+			int spins = 0;
+			while(node.next == null)
+				pause(spins++);
+		}
+		node.next.locked = false;
+		recycle(node);
+	}
+}
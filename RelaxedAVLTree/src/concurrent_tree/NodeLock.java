@@ -0,0 +1,30 @@
+package concurrent_tree;
+
+/**
+ * Node Lock Interface
+ *
+ * The part of java.util.concurrent.locks.Lock that the hand-over-hand trees
+ * use to guard their nodes and root slot: lock, tryLock and unlock.  The
+ * locks LockStrategy creates implement only this, so the spin locks don't
+ * have to pretend to support interruptible or timed waits and conditions.
+ *
+ */
+interface NodeLock {
+
+	/**
+	 * Takes the lock, waiting as long as it takes.
+	 */
+	void lock();
+
+	/**
+	 * Takes the lock only if it is free.
+	 *
+	 * @return True if the lock was taken
+	 */
+	boolean tryLock();
+
+	/**
+	 * Releases the lock, which the calling thread must hold.
+	 */
+	void unlock();
+}
@@ -0,0 +1,545 @@
+package concurrent_tree;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Off-Heap Binary Tree
+ *
+ * A hand-over-hand locking binary search tree for int keys whose nodes live
+ * outside the Java heap.  A node is just an int index into an arena of direct
+ * ByteBuffers; its lock word, key and child indexes are ints stored in the
+ * arena, so a node costs 16 bytes instead of a 48 byte LockableNode and a
+ * boxed key, and the garbage collector never has to trace the tree.
+ *
+ * The arena is split into chunks of CHUNK_SIZE nodes that are allocated on
+ * demand.  Each chunk is laid out as a struct of arrays (all lock words, then
+ * all keys, then all left children, then all right children), so a search
+ * that only compares keys and follows children touches fewer cache lines.
+ * Lock words are acquired with a CAS through a byte buffer view VarHandle.
+ * Removed nodes are recycled through a free list, so the arena never grows
+ * beyond the largest number of keys the tree has held at once.
+ *
+ * Like FineGrainedLockingBinaryTree, every operation locks its way down the
+ * tree hand-over-hand, so no thread can ever be looking at a node that
+ * another thread has just unlinked and a node can be reused immediately.
+ * A node with two children is removed by moving its predecessor's key into
+ * it, which never changes the node a concurrent search is holding.  The tree
+ * is not rebalanced.
+ *
+ */
+public class OffHeapBinaryTree
+		implements ConcurrentBinaryTree<Integer>, ConcurrentIntBinaryTree {
+
+	/**
+	 * Arena geometry.  Node indexes are ints, with NIL marking a missing child.
+	 */
+	static final int CHUNK_SHIFT = 16;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	static final int MAX_CHUNKS = 1 << (31 - CHUNK_SHIFT);
+	static final int NIL = -1;
+
+	/**
+	 * Byte offsets of each field's array within a chunk.
+	 */
+	static final int LOCK = 0;
+	static final int KEY = CHUNK_SIZE * 4;
+	static final int LEFT = CHUNK_SIZE * 8;
+	static final int RIGHT = CHUNK_SIZE * 12;
+	static final int CHUNK_BYTES = CHUNK_SIZE * 16;
+	static final int BYTES_PER_NODE = CHUNK_BYTES / CHUNK_SIZE;
+
+	/**
+	 * Index of the sentinel head node.  Its lock protects the root pointer,
+	 * which is kept in its right child.
+	 */
+	static final int HEAD = 0;
+
+	static final int SPINS_BEFORE_YIELD = 64;
+
+	static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(
+			int[].class, ByteOrder.nativeOrder());
+
+	/**
+	 * Local variables and definitions.  freeList packs an ABA tag in its high
+	 * 32 bits and the index of the first free node in its low 32 bits; free
+	 * nodes are chained through their left child.
+	 */
+	final AtomicReferenceArray<ByteBuffer> chunks =
+			new AtomicReferenceArray<ByteBuffer>(MAX_CHUNKS);
+	final AtomicInteger nextNode = new AtomicInteger(HEAD + 1);
+	final AtomicLong freeList = new AtomicLong(NIL & 0xFFFFFFFFL);
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * Instantiates an empty off-heap tree for use.
+	 */
+	public OffHeapBinaryTree() {
+		chunk(HEAD);
+		setRight(HEAD, NIL);
+	}
+
+	/**
+	 * Builds a balanced tree holding keys.  Nodes are allocated as their
+	 * subtrees are built, so small subtrees sit together in one chunk.
+	 * Duplicates are dropped.
+	 *
+	 * @param keys The keys to load, in any order
+	 * @return A new tree holding the keys
+	 */
+	public static OffHeapBinaryTree bulkLoad(int keys[]) {
+		int sorted[] = BulkLoad.sortedUnique(keys);
+		return buildSorted(sorted.length, i -> sorted[i]);
+	}
+
+	/**
+	 * Reloads a tree from a checkpoint written by Checkpoint.write, building
+	 * it straight from the mapped file.
+	 *
+	 * @param file The checkpoint file
+	 * @return A new tree holding the checkpointed keys
+	 */
+	public static OffHeapBinaryTree load(Path file) throws IOException {
+		IntBuffer keys = Checkpoint.read(file);
+		return buildSorted(keys.limit(), keys::get);
+	}
+
+	/**
+	 * Builds a balanced tree over count keys that are already sorted and
+	 * unique, where key(i) returns the i'th.
+	 */
+	private static OffHeapBinaryTree buildSorted(int count,
+			IntUnaryOperator key) {
+		OffHeapBinaryTree tree = new OffHeapBinaryTree();
+		Integer subRoot = BulkLoad.build(0, count,
+				(BulkLoad.NodeBuilder<Integer>) (i, left, right) -> {
+			int node = tree.allocate(key.applyAsInt(i));
+			tree.setLeft(node, left == null ? NIL : left);
+			tree.setRight(node, right == null ? NIL : right);
+			return node;
+		});
+		tree.setRight(HEAD, subRoot == null ? NIL : subRoot);
+		tree.size.add(count);
+		return tree;
+	}
+
+	/**
+	 * Returns the chunk holding node, allocating it if this is the first node
+	 * handed out from it.
+	 */
+	private ByteBuffer chunk(int node) {
+		int c = node >>> CHUNK_SHIFT;
+		ByteBuffer chunk = chunks.get(c);
+		if(chunk == null) {
+			synchronized(chunks) {
+				chunk = chunks.get(c);
+				if(chunk == null) {
+					chunk = ByteBuffer.allocateDirect(CHUNK_BYTES)
+							.order(ByteOrder.nativeOrder());
+					chunks.set(c, chunk);
+				}
+			}
+		}
+		return chunk;
+	}
+
+	private static int offset(int field, int node) {
+		return field + ((node & CHUNK_MASK) << 2);
+	}
+
+	int key(int node) {
+		return chunk(node).getInt(offset(KEY, node));
+	}
+
+	int left(int node) {
+		return chunk(node).getInt(offset(LEFT, node));
+	}
+
+	int right(int node) {
+		return chunk(node).getInt(offset(RIGHT, node));
+	}
+
+	private void setKey(int node, int key) {
+		chunk(node).putInt(offset(KEY, node), key);
+	}
+
+	private void setLeft(int node, int child) {
+		chunk(node).putInt(offset(LEFT, node), child);
+	}
+
+	private void setRight(int node, int child) {
+		chunk(node).putInt(offset(RIGHT, node), child);
+	}
+
+	/**
+	 * Acquires node's lock word, spinning on a plain read until it looks free
+	 * and yielding now and then so an oversubscribed holder can run.
+	 */
+	private void lock(int node) {
+		ByteBuffer chunk = chunk(node);
+		int off = offset(LOCK, node);
+		int spins = 0;
+		while(true) {
+			if(chunk.getInt(off) == 0
+					&& INT_VIEW.compareAndSet(chunk, off, 0, 1))
+				return;
+			if(++spins % SPINS_BEFORE_YIELD == 0)
+				Thread.yield();
+			else
+				Thread.onSpinWait();
+		}
+	}
+
+	private void unlock(int node) {
+		INT_VIEW.setRelease(chunk(node), offset(LOCK, node), 0);
+	}
+
+	/**
+	 * Hands out a node, preferring one from the free list.
+	 */
+	private int allocate(int key) {
+		int node;
+		while(true) {
+			long head = freeList.get();
+			node = (int) head;
+			if(node == NIL) {
+				node = nextNode.getAndIncrement();
+				if(node < 0)
+					throw new IllegalStateException("Off-heap arena is full");
+				break;
+			}
+			//A stale read of left is harmless, the tag makes the CAS fail
+			long next = left(node) & 0xFFFFFFFFL;
+			if(freeList.compareAndSet(head,
+					((head >>> 32) + 1) << 32 | next))
+				break;
+		}
+		setKey(node, key);
+		setLeft(node, NIL);
+		setRight(node, NIL);
+		return node;
+	}
+
+	/**
+	 * Returns an unlinked node to the free list.  Its lock must not be held,
+	 * and no other thread can reach it, since it was unlinked under the lock
+	 * of its parent.
+	 */
+	private void free(int node) {
+		while(true) {
+			long head = freeList.get();
+			setLeft(node, (int) head);
+			if(freeList.compareAndSet(head,
+					((head >>> 32) + 1) << 32 | (node & 0xFFFFFFFFL)))
+				return;
+		}
+	}
+
+	/**
+	 * Inserts a key into the tree.  Nodes are locked hand-over-hand from the
+	 * head down to the node the new leaf is attached to.
+	 *
+	 * @param key The key to be inserted into the tree
+	 * @return True if the key was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(int key) {
+		int parent = HEAD;
+		int cur;
+		int compare = 1;
+
+		lock(parent);
+		cur = right(parent);
+		while(cur != NIL) {
+			lock(cur);
+			unlock(parent);
+			parent = cur;
+			compare = Integer.compare(key, key(cur));
+			if(compare == 0) {
+				unlock(cur);
+				return false;
+			}
+			cur = compare < 0 ? left(cur) : right(cur);
+		}
+
+		//parent is locked and has no child on our side
+		int newNode = allocate(key);
+		if(compare < 0)
+			setLeft(parent, newNode);
+		else
+			setRight(parent, newNode);
+		unlock(parent);
+		size.increment();
+		return true;
+	}
+
+	/**
+	 * Removes a key from the tree.  A node with at most one child is spliced
+	 * out; otherwise the node takes over its predecessor's key and the
+	 * predecessor is spliced out instead.
+	 *
+	 * @param key The key to remove from the tree
+	 * @return True if the key was in the tree and was removed, false otherwise
+	 */
+	@Override
+	public boolean remove(int key) {
+		int parent = HEAD;
+		int cur;
+		int compare = 1;
+
+		lock(parent);
+		cur = right(parent);
+		while(cur != NIL) {
+			lock(cur);
+			int c = Integer.compare(key, key(cur));
+			if(c == 0)
+				break;
+			unlock(parent);
+			parent = cur;
+			compare = c;
+			cur = c < 0 ? left(cur) : right(cur);
+		}
+
+		if(cur == NIL) {
+			//The key is not in the tree
+			unlock(parent);
+			return false;
+		}
+
+		//Both parent and cur are locked
+		int curL = left(cur);
+		int curR = right(cur);
+		if(curL != NIL && curR != NIL) {
+			//cur stays where it is, so parent can go
+			unlock(parent);
+			removePredecessor(cur, curL);
+			unlock(cur);
+			size.decrement();
+			return true;
+		}
+
+		int splice = curL != NIL ? curL : curR;
+		if(compare < 0)
+			setLeft(parent, splice);
+		else
+			setRight(parent, splice);
+		unlock(cur);
+		unlock(parent);
+		free(cur);
+		size.decrement();
+		return true;
+	}
+
+	/**
+	 * Moves the largest key in the locked node's left subtree into it and
+	 * splices out the node that held that key.  Locks hand-over-hand down the
+	 * subtree, keeping node locked the whole time so that no search can slip
+	 * past it while the key is in flight.
+	 */
+	private void removePredecessor(int node, int left) {
+		int parent = node;
+		int cur = left;
+
+		lock(cur);
+		int next = right(cur);
+		while(next != NIL) {
+			lock(next);
+			if(parent != node)
+				unlock(parent);
+			parent = cur;
+			cur = next;
+			next = right(cur);
+		}
+
+		setKey(node, key(cur));
+		if(parent == node)
+			setLeft(parent, left(cur));
+		else {
+			setRight(parent, left(cur));
+			unlock(parent);
+		}
+		unlock(cur);
+		free(cur);
+	}
+
+	/**
+	 * Searches the tree for a key, locking hand-over-hand.
+	 *
+	 * @param key The key to search for in the tree
+	 * @return True if the key is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(int key) {
+		int parent = HEAD;
+		int cur;
+
+		lock(parent);
+		cur = right(parent);
+		while(cur != NIL) {
+			lock(cur);
+			unlock(parent);
+			parent = cur;
+			int compare = Integer.compare(key, key(cur));
+			if(compare == 0) {
+				unlock(cur);
+				return true;
+			}
+			cur = compare < 0 ? left(cur) : right(cur);
+		}
+		unlock(parent);
+		return false;
+	}
+
+	@Override
+	public boolean insert(Integer data) {
+		return insert(data.intValue());
+	}
+
+	@Override
+	public Integer remove(Integer data) {
+		return remove(data.intValue()) ? data : null;
+	}
+
+	@Override
+	public boolean contains(Integer data) {
+		return contains(data.intValue());
+	}
+
+	@Override
+	public Integer first() {
+		return successor(0, false, true);
+	}
+
+	@Override
+	public Integer ceiling(Integer data) {
+		return successor(data.intValue(), true, false);
+	}
+
+	@Override
+	public Integer higher(Integer data) {
+		return successor(data.intValue(), false, false);
+	}
+
+	/**
+	 * Returns the number of keys in the tree, read from a LongAdder that
+	 * insert and remove update once they have succeeded.
+	 */
+	@Override
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * Searches hand-over-hand for key, remembering the key of the last node
+	 * where the search turned left, which is copied out while that node is
+	 * locked.  If smallest is set the search just keeps turning left.
+	 */
+	private Integer successor(int key, boolean inclusive, boolean smallest) {
+		int parent = HEAD;
+		int cur;
+		boolean found = false;
+		int candidate = 0;
+
+		lock(parent);
+		cur = right(parent);
+		while(cur != NIL) {
+			lock(cur);
+			unlock(parent);
+			parent = cur;
+			int curKey = key(cur);
+			int compare = smallest ? 1 : Integer.compare(curKey, key);
+			if(compare == 0 && inclusive) {
+				unlock(cur);
+				return curKey;
+			}
+			if(compare > 0) {
+				found = true;
+				candidate = curKey;
+				cur = left(cur);
+			} else {
+				cur = right(cur);
+			}
+		}
+		unlock(parent);
+		return found ? candidate : null;
+	}
+
+	/**
+	 * Returns the number of off-heap bytes reserved by the arena so far.
+	 */
+	public long offHeapBytes() {
+		long reserved = 0;
+		for(int c = 0; c < MAX_CHUNKS; c++) {
+			if(chunks.get(c) != null)
+				reserved += CHUNK_BYTES;
+		}
+		return reserved;
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out each key.  Not
+	 * safe to call concurrently with updates.
+	 */
+	public void printTree() {
+		printTree(right(HEAD));
+	}
+
+	private void printTree(int curNode) {
+
+		//Check to make sure curNode isn't null
+		if(curNode == NIL)
+			return;
+
+		//Print the left subtree
+		printTree(left(curNode));
+
+		//Print the current node
+		System.out.println(key(curNode));
+
+		//Print the right subtree
+		printTree(right(curNode));
+	}
+
+	/**
+	 * Driver program to test the off-heap tree.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		//Test the tree
+		OffHeapBinaryTree tree = new OffHeapBinaryTree();
+		LinkedList<Integer> randomNums = new LinkedList<Integer>();
+		Random rand = new Random();
+		int random = 0;
+		int i = 0;
+
+		for(i = 0; i < 10; i++) {
+			random = rand.nextInt(500);
+			randomNums.addLast(random);
+			tree.insert(random);
+			System.out.println("Number: " + random);
+		}
+
+		System.out.println("----------\nTree contains:");
+		tree.printTree();
+		System.out.println("----------");
+
+		for(i = 0; i < 10; i++) {
+			random = randomNums.removeFirst();
+			System.out.println("Number [" + i + "]: " + random +
+					" -> removed? " + tree.remove(random));
+		}
+	}
+}
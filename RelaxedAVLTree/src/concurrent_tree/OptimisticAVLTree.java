@@ -0,0 +1,1075 @@
+package concurrent_tree;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Optimistic Relaxed AVL Tree
+ *
+ * This class implements the relaxed balanced AVL tree using optimistic
+ * concurrency control instead of hand-over-hand locking, following Bronson et
+ * al., "A Practical Concurrent Binary Search Tree".
+ *
+ * Searches take no locks at all.  Before following a child pointer, a thread
+ * snapshots the current node's version number; after reading the child it
+ * re-reads the version, and if it changed (because a rotation moved the node)
+ * the thread backs up to the parent and retries from there.  Updates use the
+ * same traversal and then lock only the node being modified (plus its parent
+ * when a node is unlinked).  Rotations lock the parent, the node and the child
+ * being rotated, so every update holds O(1) locks.
+ *
+ * Removing a node with two children only clears its present flag, leaving a
+ * routing node behind.  Routing nodes are unlinked once they have fewer than
+ * two children, either by the remove itself or by later rebalancing.
+ *
+ * @param <T> Generic data type that the tree stores.  The data type must
+ * implement the Comparable interface so that an ordering can be determined.
+ */
+public class OptimisticAVLTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * Sentinel returned by the attempt methods when the traversal must be
+	 * restarted from the parent.
+	 */
+	private static final Object RETRY = new Object();
+
+	/**
+	 * Conditions returned by nodeCondition.  Any non-negative value is the
+	 * corrected height of the node.
+	 */
+	private static final int UNLINK_REQUIRED = -1;
+	private static final int REBALANCE_REQUIRED = -2;
+	private static final int NOTHING_REQUIRED = -3;
+
+	/**
+	 * Local variables and definitions.  The root holder is a permanent
+	 * sentinel whose right child is the actual root of the tree, so that the
+	 * root can be rotated and replaced like any other node.
+	 */
+	final OptimisticNode<T> rootHolder;
+	private final TreeMetrics metrics;
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * Instantiates an empty optimistic AVL tree for use.
+	 */
+	public OptimisticAVLTree() {
+		this(null);
+	}
+
+	/**
+	 * Instantiates an empty optimistic AVL tree that counts its operations,
+	 * retries and rotations in metrics, or counts nothing if metrics is null.
+	 * Nodes are locked with synchronized, so lock acquisitions aren't counted.
+	 */
+	public OptimisticAVLTree(TreeMetrics metrics) {
+		rootHolder = new OptimisticNode<T>(null, 1, false, null, 0L);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Builds a balanced tree holding data, with parent links and heights in
+	 * place.  Duplicates are dropped.
+	 *
+	 * @param data The data objects to load, in any order
+	 * @return A new tree holding the data
+	 */
+	public static <T extends Comparable<? super T>> OptimisticAVLTree<T>
+			bulkLoad(Collection<? extends T> data) {
+		T keys[] = BulkLoad.sortedUnique(data);
+		return buildSorted(keys.length, i -> keys[i]);
+	}
+
+	/**
+	 * Reloads a tree from a checkpoint written by Checkpoint.write, building
+	 * it straight from the mapped file.
+	 *
+	 * @param file The checkpoint file
+	 * @return A new tree holding the checkpointed keys
+	 */
+	public static OptimisticAVLTree<Integer> load(Path file)
+			throws IOException {
+		IntBuffer keys = Checkpoint.read(file);
+		return buildSorted(keys.limit(), keys::get);
+	}
+
+	/**
+	 * Builds a balanced tree over count keys that are already sorted and
+	 * unique, where key(i) returns the i'th.
+	 */
+	private static <T extends Comparable<? super T>> OptimisticAVLTree<T>
+			buildSorted(int count, IntFunction<? extends T> key) {
+		OptimisticAVLTree<T> tree = new OptimisticAVLTree<T>();
+		OptimisticNode<T> subRoot = BulkLoad.build(0, count,
+				(BulkLoad.NodeBuilder<OptimisticNode<T>>) (i, left, right) -> {
+			OptimisticNode<T> node = new OptimisticNode<T>(key.apply(i),
+					1 + Math.max(height(left), height(right)), true, null, 0L);
+			node.left = left;
+			node.right = right;
+			if(left != null)
+				left.parent = node;
+			if(right != null)
+				right.parent = node;
+			return node;
+		});
+		if(subRoot != null) {
+			subRoot.parent = tree.rootHolder;
+			tree.rootHolder.height = subRoot.height + 1;
+			tree.rootHolder.right = subRoot;
+		}
+		tree.size.add(count);
+		return tree;
+	}
+
+	static int height(OptimisticNode<?> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	/**
+	 * Searches the tree for the specified data without acquiring any locks.
+	 *
+	 * @param data The data object to search for in the tree
+	 * @return True if the data is in the tree, false otherwise
+	 */
+	@Override
+	public boolean contains(T data) {
+		if(metrics != null)
+			metrics.operation(TreeMetrics.Operation.CONTAINS, 1);
+		while(true) {
+			OptimisticNode<T> right = rootHolder.right;
+			if(right == null)
+				return false;
+
+			int cmp = data.compareTo(right.data);
+			if(cmp == 0)
+				return right.present;
+
+			long ovl = right.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(ovl)) {
+				right.waitUntilShrinkCompleted(ovl);
+			} else if(right == rootHolder.right) {
+				Object result = attemptContains(data, right, cmp, ovl, 1);
+				if(result != RETRY)
+					return (Boolean) result;
+				retried(0);
+			}
+		}
+	}
+
+	/**
+	 * Continues a search below node, which was reached with version nodeOVL
+	 * and is at the given depth.  Returns RETRY if node was rotated while we
+	 * were below it.
+	 */
+	private Object attemptContains(T data, OptimisticNode<T> node, int dir,
+			long nodeOVL, int depth) {
+		while(true) {
+			OptimisticNode<T> child = node.child(dir);
+			if(child == null) {
+				//Only a valid miss if node hasn't changed since we got here
+				if(node.version != nodeOVL)
+					return RETRY;
+				return Boolean.FALSE;
+			}
+
+			int childCmp = data.compareTo(child.data);
+			if(childCmp == 0)
+				return child.present;
+
+			long childOVL = child.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+				if(node.version != nodeOVL)
+					return RETRY;
+			} else if(child != node.child(dir)) {
+				//child was replaced after we read its version, reread it
+				if(node.version != nodeOVL)
+					return RETRY;
+			} else {
+				//Validate the read that got us to node before descending
+				if(node.version != nodeOVL)
+					return RETRY;
+				Object result = attemptContains(data, child, childCmp,
+						childOVL, depth + 1);
+				if(result != RETRY)
+					return result;
+				retried(depth);
+			}
+		}
+	}
+
+	/**
+	 * Returns the smallest object in the tree.
+	 */
+	@Override
+	public T first() {
+		return successor(null, false);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is >= data.
+	 */
+	@Override
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is > data.
+	 */
+	@Override
+	public T higher(T data) {
+		return successor(data, false);
+	}
+
+	/**
+	 * Returns the number of objects in the tree.  Kept in a LongAdder rather
+	 * than per node, so it costs nothing on the optimistic read paths.
+	 */
+	@Override
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * Searches for data the same way contains does, remembering the last node
+	 * where the search turned left.  If the node found turns out to be a
+	 * routing node left behind by a remove, the search continues above it.
+	 * A null data finds the smallest object.
+	 */
+	@SuppressWarnings("unchecked")
+	private T successor(T data, boolean inclusive) {
+		if(metrics != null)
+			metrics.operation(TreeMetrics.Operation.SCAN, 1);
+		while(true) {
+			OptimisticNode<T> right = rootHolder.right;
+			if(right == null)
+				return null;
+
+			Object result;
+			int dir = direction(data, inclusive, right);
+			if(dir == 0) {
+				result = right;
+			} else {
+				long ovl = right.version;
+				if(OptimisticNode.isShrinkingOrUnlinked(ovl)) {
+					right.waitUntilShrinkCompleted(ovl);
+					continue;
+				} else if(right != rootHolder.right) {
+					continue;
+				}
+				result = attemptSuccessor(data, inclusive, right, dir, ovl,
+						dir < 0 ? right : null, 1);
+				if(result == RETRY) {
+					retried(0);
+					continue;
+				}
+			}
+
+			OptimisticNode<T> node = (OptimisticNode<T>) result;
+			if(node == null)
+				return null;
+			T found = node.data;
+			if(node.present)
+				return found;
+			data = found;
+			inclusive = false;
+		}
+	}
+
+	/**
+	 * Continues a successor search below node, which was reached with version
+	 * nodeOVL, at the given depth.  Returns the node holding data, the best
+	 * candidate seen on the way down (null if there is none), or RETRY if node
+	 * was rotated while we were below it.
+	 */
+	private Object attemptSuccessor(T data, boolean inclusive,
+			OptimisticNode<T> node, int dir, long nodeOVL,
+			OptimisticNode<T> candidate, int depth) {
+		while(true) {
+			OptimisticNode<T> child = node.child(dir);
+			if(child == null) {
+				if(node.version != nodeOVL)
+					return RETRY;
+				return candidate;
+			}
+
+			int childDir = direction(data, inclusive, child);
+			if(childDir == 0)
+				return child;
+
+			long childOVL = child.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+				if(node.version != nodeOVL)
+					return RETRY;
+			} else if(child != node.child(dir)) {
+				if(node.version != nodeOVL)
+					return RETRY;
+			} else {
+				if(node.version != nodeOVL)
+					return RETRY;
+				Object result = attemptSuccessor(data, inclusive, child,
+						childDir, childOVL, childDir < 0 ? child : candidate,
+						depth + 1);
+				if(result != RETRY)
+					return result;
+				retried(depth);
+			}
+		}
+	}
+
+	/**
+	 * Direction a successor search takes at node: 0 if node holds data and
+	 * data itself is wanted, otherwise the side of node to continue on.
+	 */
+	private int direction(T data, boolean inclusive, OptimisticNode<T> node) {
+		if(data == null)
+			return -1;
+		int cmp = data.compareTo(node.data);
+		if(cmp == 0)
+			return inclusive ? 0 : 1;
+		return cmp;
+	}
+
+	/**
+	 * Inserts new data into the tree.  Only the node that the new leaf is
+	 * attached to is locked.
+	 *
+	 * @param data The data to be inserted into the tree
+	 * @return True if the data was successfully inserted, false otherwise
+	 */
+	@Override
+	public boolean insert(T data) {
+		boolean inserted = (Boolean) update(data, true);
+		if(inserted)
+			size.increment();
+		return inserted;
+	}
+
+	/**
+	 * Removes the specified data from the tree.  Locks the node holding the
+	 * data, and its parent if the node can be unlinked.
+	 *
+	 * @param data The data object to remove from the tree
+	 * @return The removed data element if it is in the tree, null otherwise
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public T remove(T data) {
+		T removed = (T) update(data, false);
+		if(removed != null)
+			size.decrement();
+		return removed;
+	}
+
+	/**
+	 * Shared driver for insert and remove.  Returns a Boolean for inserts and
+	 * the removed data (or null) for removes.
+	 */
+	private Object update(T data, boolean insert) {
+		if(metrics != null)
+			metrics.operation(insert ? TreeMetrics.Operation.INSERT
+					: TreeMetrics.Operation.REMOVE, 1);
+		while(true) {
+			OptimisticNode<T> right = rootHolder.right;
+			if(right == null) {
+				//The tree is empty
+				if(!insert)
+					return null;
+				synchronized(rootHolder) {
+					if(rootHolder.right == null) {
+						rootHolder.right = new OptimisticNode<T>(data, 1, true,
+								rootHolder, 0L);
+						rootHolder.height = 2;
+						return Boolean.TRUE;
+					}
+				}
+			} else {
+				long ovl = right.version;
+				if(OptimisticNode.isShrinkingOrUnlinked(ovl)) {
+					right.waitUntilShrinkCompleted(ovl);
+				} else if(right == rootHolder.right) {
+					Object result = attemptUpdate(data, insert, rootHolder,
+							right, ovl, 1);
+					if(result != RETRY)
+						return result;
+					retried(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Continues an update below node, which was reached with version nodeOVL
+	 * and is at the given depth.
+	 * A rotation at node shrinks the key range of one of its subtrees, so
+	 * before descending we must check that node hasn't changed since we
+	 * arrived from parent.
+	 */
+	private Object attemptUpdate(T data, boolean insert,
+			OptimisticNode<T> parent, OptimisticNode<T> node, long nodeOVL,
+			int depth) {
+		int cmp = data.compareTo(node.data);
+		if(cmp == 0)
+			return attemptNodeUpdate(insert, parent, node);
+
+		while(true) {
+			OptimisticNode<T> child = node.child(cmp);
+			if(node.version != nodeOVL)
+				return RETRY;
+
+			if(child == null) {
+				//The data is not in the tree
+				if(!insert)
+					return null;
+
+				OptimisticNode<T> damaged;
+				synchronized(node) {
+					//We hold the lock, so no future rotation can move node.
+					//Check that no past rotation did either.
+					if(node.version != nodeOVL)
+						return RETRY;
+					if(node.child(cmp) != null) {
+						//Lost a race with another insert, retry from node
+						continue;
+					}
+					node.setChild(cmp, new OptimisticNode<T>(data, 1, true,
+							node, 0L));
+					damaged = fixHeight(node);
+				}
+				fixHeightAndRebalance(damaged);
+				return Boolean.TRUE;
+			}
+
+			long childOVL = child.version;
+			if(OptimisticNode.isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+			} else if(child != node.child(cmp)) {
+				//child was replaced after we read its version, reread it
+			} else {
+				if(node.version != nodeOVL)
+					return RETRY;
+				Object result = attemptUpdate(data, insert, node, child,
+						childOVL, depth + 1);
+				if(result != RETRY)
+					return result;
+				retried(depth);
+			}
+		}
+	}
+
+	/**
+	 * Performs the update on the node holding the data.  An insert on a
+	 * routing node simply marks it present again; a remove either unlinks the
+	 * node (if it has at most one child) or turns it into a routing node.
+	 */
+	private Object attemptNodeUpdate(boolean insert, OptimisticNode<T> parent,
+			OptimisticNode<T> node) {
+		if(!insert && !node.present)
+			return null;
+
+		if(!insert && (node.left == null || node.right == null)) {
+			//Potential unlink, lock the parent first
+			OptimisticNode<T> damaged;
+			synchronized(parent) {
+				if(OptimisticNode.isUnlinked(parent.version)
+						|| node.parent != parent)
+					return RETRY;
+				synchronized(node) {
+					if(!node.present)
+						return null;
+					if(!attemptUnlink(parent, node))
+						return RETRY;
+				}
+				damaged = fixHeight(parent);
+			}
+			fixHeightAndRebalance(damaged);
+			return node.data;
+		}
+
+		synchronized(node) {
+			//Rotations don't bother us, but unlinking does
+			if(OptimisticNode.isUnlinked(node.version))
+				return RETRY;
+
+			if(insert) {
+				if(node.present)
+					return Boolean.FALSE;
+				node.present = true;
+				return Boolean.TRUE;
+			}
+
+			if(!node.present)
+				return null;
+			//A child may have been unlinked since we checked, in which case
+			//the node must be unlinked rather than left as a routing node
+			if(node.left == null || node.right == null)
+				return RETRY;
+			node.present = false;
+			return node.data;
+		}
+	}
+
+	/**
+	 * Splices node out of the tree.  Both parent and node must be locked.
+	 *
+	 * @return False if node is no longer a child of parent or now has two
+	 * children, true otherwise
+	 */
+	private boolean attemptUnlink(OptimisticNode<T> parent,
+			OptimisticNode<T> node) {
+		OptimisticNode<T> parentL = parent.left;
+		OptimisticNode<T> parentR = parent.right;
+		if(parentL != node && parentR != node)
+			return false;
+
+		OptimisticNode<T> left = node.left;
+		OptimisticNode<T> right = node.right;
+		if(left != null && right != null)
+			return false;
+
+		OptimisticNode<T> splice = left != null ? left : right;
+		if(parentL == node)
+			parent.left = splice;
+		else
+			parent.right = splice;
+		if(splice != null)
+			splice.parent = parent;
+
+		node.version = OptimisticNode.UNLINKED;
+		node.present = false;
+		return true;
+	}
+
+	/**
+	 * Determines what repair, if any, node needs.  The reads aren't atomic,
+	 * but any thread that changes a node promises to repair it, so either our
+	 * snapshot was consistent or someone else is responsible for the fix.
+	 *
+	 * @return UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED or the
+	 * corrected height of node
+	 */
+	private int nodeCondition(OptimisticNode<T> node) {
+		OptimisticNode<T> nL = node.left;
+		OptimisticNode<T> nR = node.right;
+
+		if((nL == null || nR == null) && !node.present)
+			return UNLINK_REQUIRED;
+
+		int hN = node.height;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+
+		if(bal < -1 || bal > 1)
+			return REBALANCE_REQUIRED;
+		return hN != hNRepl ? hNRepl : NOTHING_REQUIRED;
+	}
+
+	/**
+	 * Walks up from node repairing heights and balance until nothing more is
+	 * required.  Each step only locks the node (and its parent for rotations
+	 * and unlinks).
+	 */
+	private void fixHeightAndRebalance(OptimisticNode<T> node) {
+		while(node != null && node.parent != null) {
+			int condition = nodeCondition(node);
+			if(condition == NOTHING_REQUIRED
+					|| OptimisticNode.isUnlinked(node.version))
+				return;
+
+			if(condition != UNLINK_REQUIRED
+					&& condition != REBALANCE_REQUIRED) {
+				synchronized(node) {
+					node = fixHeight(node);
+				}
+			} else {
+				OptimisticNode<T> nParent = node.parent;
+				synchronized(nParent) {
+					if(!OptimisticNode.isUnlinked(nParent.version)
+							&& node.parent == nParent) {
+						synchronized(node) {
+							node = rebalance(nParent, node);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Attempts to fix the height of a locked node.
+	 *
+	 * @return The lowest node that still needs repair, or null if none
+	 */
+	private OptimisticNode<T> fixHeight(OptimisticNode<T> node) {
+		int c = nodeCondition(node);
+		switch(c) {
+		case REBALANCE_REQUIRED:
+		case UNLINK_REQUIRED:
+			//Can't repair with only this lock
+			return node;
+		case NOTHING_REQUIRED:
+			return null;
+		default:
+			//Height fixed, but now the parent may be damaged
+			node.height = c;
+			return node.parent;
+		}
+	}
+
+	/**
+	 * Rebalances n, unlinking it if it is a routing node with fewer than two
+	 * children.  nParent and n must be locked.
+	 *
+	 * @return A damaged node, or null if no more rebalancing is necessary
+	 */
+	private OptimisticNode<T> rebalance(OptimisticNode<T> nParent,
+			OptimisticNode<T> n) {
+		OptimisticNode<T> nL = n.left;
+		OptimisticNode<T> nR = n.right;
+
+		if((nL == null || nR == null) && !n.present) {
+			if(attemptUnlink(nParent, n))
+				return fixHeight(nParent);
+			return n;
+		}
+
+		int hN = n.height;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+
+		if(bal > 1) {
+			return rebalanceToRight(nParent, n, nL, hR0);
+		} else if(bal < -1) {
+			return rebalanceToLeft(nParent, n, nR, hL0);
+		} else if(hNRepl != hN) {
+			n.height = hNRepl;
+			return fixHeight(nParent);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * The left subtree of n is too tall, rotate right (first rotating nL left
+	 * if its right subtree is the taller one).
+	 */
+	private OptimisticNode<T> rebalanceToRight(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, OptimisticNode<T> nL, int hR0) {
+		synchronized(nL) {
+			int hL = nL.height;
+			if(hL - hR0 <= 1)
+				return n;
+
+			OptimisticNode<T> nLR = nL.right;
+			int hLL0 = height(nL.left);
+			int hLR0 = height(nLR);
+			if(hLL0 >= hLR0)
+				return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR0);
+
+			synchronized(nLR) {
+				//Our snapshot of nLR's height may be stale
+				int hLR = nLR.height;
+				if(hLL0 >= hLR)
+					return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR);
+
+				//Only do the double rotation if it won't leave nL damaged
+				int hLRL = height(nLR.left);
+				int b = hLL0 - hLRL;
+				if(b >= -1 && b <= 1
+						&& !((hLL0 == 0 || hLRL == 0) && !nL.present))
+					return rotateRightOverLeft(nParent, n, nL, hR0, hLL0,
+							nLR, hLRL);
+			}
+
+			//Fix nL first, n will be balanced on a later pass if necessary
+			return rebalanceToLeft(n, nL, nLR, hLL0);
+		}
+	}
+
+	/**
+	 * The right subtree of n is too tall, rotate left (first rotating nR right
+	 * if its left subtree is the taller one).
+	 */
+	private OptimisticNode<T> rebalanceToLeft(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, OptimisticNode<T> nR, int hL0) {
+		synchronized(nR) {
+			int hR = nR.height;
+			if(hL0 - hR >= -1)
+				return n;
+
+			OptimisticNode<T> nRL = nR.left;
+			int hRL0 = height(nRL);
+			int hRR0 = height(nR.right);
+			if(hRR0 >= hRL0)
+				return rotateLeft(nParent, n, hL0, nR, nRL, hRL0, hRR0);
+
+			synchronized(nRL) {
+				int hRL = nRL.height;
+				if(hRR0 >= hRL)
+					return rotateLeft(nParent, n, hL0, nR, nRL, hRL, hRR0);
+
+				int hRLR = height(nRL.right);
+				int b = hRR0 - hRLR;
+				if(b >= -1 && b <= 1
+						&& !((hRR0 == 0 || hRLR == 0) && !nR.present))
+					return rotateLeftOverRight(nParent, n, hL0, nR, nRL,
+							hRR0, hRLR);
+			}
+
+			return rebalanceToRight(n, nR, nRL, hRR0);
+		}
+	}
+
+	/**
+	 * Counts a rotation below n, or at n if below is 0.  Nodes don't know
+	 * their depth, so it is found by following parent links up to the root
+	 * holder, which only happens when metrics are on.  n and its parent are
+	 * locked, so the result can be off only by rotations further up.
+	 */
+	private void rotated(OptimisticNode<T> n, int below) {
+		if(metrics == null)
+			return;
+		int depth = below;
+		for(OptimisticNode<T> p = n; p != null && p != rootHolder; p = p.parent)
+			depth++;
+		metrics.rotation(depth);
+	}
+
+	private void retried(int depth) {
+		if(metrics != null)
+			metrics.retry(depth);
+	}
+
+	/**
+	 * Rotates n right.  nParent, n and nL must be locked.  nLR changes parent
+	 * as part of the rotation, so it is locked as well; otherwise a thread
+	 * repairing nLR's height could read its old parent and the repair of n
+	 * would be lost.  When nLR is null the already held lock on nL is taken
+	 * again instead.
+	 */
+	private OptimisticNode<T> rotateRight(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, OptimisticNode<T> nL, int hR, int hLL,
+			OptimisticNode<T> nLR, int hLR) {
+		rotated(n, 0);
+		synchronized(nLR != null ? nLR : nL) {
+			return rotateRightLocked(nParent, n, nL, hR, hLL, nLR,
+					height(nLR));
+		}
+	}
+
+	private OptimisticNode<T> rotateRightLocked(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, OptimisticNode<T> nL, int hR, int hLL,
+			OptimisticNode<T> nLR, int hLR) {
+		long nodeOVL = n.version;
+		OptimisticNode<T> nPL = nParent.left;
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+
+		// Perform rotation
+		n.left = nLR;
+		if(nLR != null)
+			nLR.parent = n;
+		nL.right = n;
+		n.parent = nL;
+		if(nPL == n)
+			nParent.left = nL;
+		else
+			nParent.right = nL;
+		nL.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hLR, hR);
+		n.height = hNRepl;
+		nL.height = 1 + Math.max(hLL, hNRepl);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+
+		//n is now the deepest damaged node, fix what we can with our locks
+		int balN = hLR - hR;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nLR == null || hR == 0) && !n.present)
+			return n;
+
+		int balL = hLL - hNRepl;
+		if(balL < -1 || balL > 1)
+			return nL;
+		if(hLL == 0 && !nL.present)
+			return nL;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Rotates n left, mirroring rotateRight.
+	 */
+	private OptimisticNode<T> rotateLeft(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, int hL, OptimisticNode<T> nR,
+			OptimisticNode<T> nRL, int hRL, int hRR) {
+		rotated(n, 0);
+		synchronized(nRL != null ? nRL : nR) {
+			return rotateLeftLocked(nParent, n, hL, nR, nRL, height(nRL),
+					hRR);
+		}
+	}
+
+	private OptimisticNode<T> rotateLeftLocked(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, int hL, OptimisticNode<T> nR,
+			OptimisticNode<T> nRL, int hRL, int hRR) {
+		long nodeOVL = n.version;
+		OptimisticNode<T> nPL = nParent.left;
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+
+		// Perform rotation
+		n.right = nRL;
+		if(nRL != null)
+			nRL.parent = n;
+		nR.left = n;
+		n.parent = nR;
+		if(nPL == n)
+			nParent.left = nR;
+		else
+			nParent.right = nR;
+		nR.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hL, hRL);
+		n.height = hNRepl;
+		nR.height = 1 + Math.max(hNRepl, hRR);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+
+		int balN = hRL - hL;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nRL == null || hL == 0) && !n.present)
+			return n;
+
+		int balR = hRR - hNRepl;
+		if(balR < -1 || balR > 1)
+			return nR;
+		if(hRR == 0 && !nR.present)
+			return nR;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Rotates nL left and then n right.  nParent, n, nL and nLR must be
+	 * locked; both children of nLR change parent, so they are locked too.
+	 */
+	private OptimisticNode<T> rotateRightOverLeft(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, OptimisticNode<T> nL, int hR, int hLL,
+			OptimisticNode<T> nLR, int hLRL) {
+		OptimisticNode<T> nLRL = nLR.left;
+		OptimisticNode<T> nLRR = nLR.right;
+		rotated(n, 1);
+		rotated(n, 0);
+		synchronized(nLRL != null ? nLRL : nLR) {
+			synchronized(nLRR != null ? nLRR : nLR) {
+				return rotateRightOverLeftLocked(nParent, n, nL, hR, hLL,
+						nLR, height(nLRL));
+			}
+		}
+	}
+
+	private OptimisticNode<T> rotateRightOverLeftLocked(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, OptimisticNode<T> nL, int hR, int hLL,
+			OptimisticNode<T> nLR, int hLRL) {
+		long nodeOVL = n.version;
+		long leftOVL = nL.version;
+		OptimisticNode<T> nPL = nParent.left;
+		OptimisticNode<T> nLRL = nLR.left;
+		OptimisticNode<T> nLRR = nLR.right;
+		int hLRR = height(nLRR);
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+		nL.version = OptimisticNode.beginChange(leftOVL);
+
+		// Perform rotation, the order of the link updates matters
+		n.left = nLRR;
+		if(nLRR != null)
+			nLRR.parent = n;
+		nL.right = nLRL;
+		if(nLRL != null)
+			nLRL.parent = nL;
+		nLR.left = nL;
+		nL.parent = nLR;
+		nLR.right = n;
+		n.parent = nLR;
+		if(nPL == n)
+			nParent.left = nLR;
+		else
+			nParent.right = nLR;
+		nLR.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hLRR, hR);
+		n.height = hNRepl;
+		int hLRepl = 1 + Math.max(hLL, hLRL);
+		nL.height = hLRepl;
+		nLR.height = 1 + Math.max(hLRepl, hNRepl);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+		nL.version = OptimisticNode.endChange(leftOVL);
+
+		int balN = hLRR - hR;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nLRR == null || hR == 0) && !n.present)
+			return n;
+
+		int balLR = hLRepl - hNRepl;
+		if(balLR < -1 || balLR > 1)
+			return nLR;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Rotates nR right and then n left, mirroring rotateRightOverLeft.
+	 */
+	private OptimisticNode<T> rotateLeftOverRight(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, int hL, OptimisticNode<T> nR,
+			OptimisticNode<T> nRL, int hRR, int hRLR) {
+		OptimisticNode<T> nRLL = nRL.left;
+		OptimisticNode<T> nRLR = nRL.right;
+		rotated(n, 1);
+		rotated(n, 0);
+		synchronized(nRLL != null ? nRLL : nRL) {
+			synchronized(nRLR != null ? nRLR : nRL) {
+				return rotateLeftOverRightLocked(nParent, n, hL, nR, nRL,
+						hRR, height(nRLR));
+			}
+		}
+	}
+
+	private OptimisticNode<T> rotateLeftOverRightLocked(OptimisticNode<T> nParent,
+			OptimisticNode<T> n, int hL, OptimisticNode<T> nR,
+			OptimisticNode<T> nRL, int hRR, int hRLR) {
+		long nodeOVL = n.version;
+		long rightOVL = nR.version;
+		OptimisticNode<T> nPL = nParent.left;
+		OptimisticNode<T> nRLL = nRL.left;
+		OptimisticNode<T> nRLR = nRL.right;
+		int hRLL = height(nRLL);
+
+		n.version = OptimisticNode.beginChange(nodeOVL);
+		nR.version = OptimisticNode.beginChange(rightOVL);
+
+		// Perform rotation, the order of the link updates matters
+		n.right = nRLL;
+		if(nRLL != null)
+			nRLL.parent = n;
+		nR.left = nRLR;
+		if(nRLR != null)
+			nRLR.parent = nR;
+		nRL.right = nR;
+		nR.parent = nRL;
+		nRL.left = n;
+		n.parent = nRL;
+		if(nPL == n)
+			nParent.left = nRL;
+		else
+			nParent.right = nRL;
+		nRL.parent = nParent;
+
+		// Update heights
+		int hNRepl = 1 + Math.max(hL, hRLL);
+		n.height = hNRepl;
+		int hRRepl = 1 + Math.max(hRLR, hRR);
+		nR.height = hRRepl;
+		nRL.height = 1 + Math.max(hNRepl, hRRepl);
+
+		n.version = OptimisticNode.endChange(nodeOVL);
+		nR.version = OptimisticNode.endChange(rightOVL);
+
+		int balN = hRLL - hL;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nRLL == null || hL == 0) && !n.present)
+			return n;
+
+		int balRL = hRRepl - hNRepl;
+		if(balRL < -1 || balRL > 1)
+			return nRL;
+
+		return fixHeight(nParent);
+	}
+
+	/**
+	 * Returns the metrics this tree counts into, or null if it has none.
+	 */
+	public TreeMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * Performs a depth-first search of the tree, printing out the data of each
+	 * node that is present.  Not safe to call concurrently with updates.
+	 */
+	public void printTree() {
+		printTree(rootHolder.right);
+	}
+
+	private void printTree(OptimisticNode<T> curNode) {
+
+		//Check to make sure curNode isn't null
+		if(curNode == null)
+			return;
+
+		//Print the left subtree
+		printTree(curNode.left);
+
+		//Print the current node, skipping routing nodes
+		if(curNode.present)
+			System.out.println(curNode.data.toString());
+
+		//Print the right subtree
+		printTree(curNode.right);
+	}
+
+	/**
+	 * Driver program to test the optimistic tree.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		//Test the tree
+		OptimisticAVLTree<Integer> tree = new OptimisticAVLTree<Integer>();
+		LinkedList<Integer> randomNums = new LinkedList<Integer>();
+		Random rand = new Random();
+		int random = 0;
+		int i = 0;
+
+		for(i = 0; i < 10; i++) {
+			random = rand.nextInt(500);
+			randomNums.addLast(random);
+			tree.insert(random);
+			System.out.println("Number: " + random);
+		}
+
+		System.out.println("----------\nTree contains:");
+		tree.printTree();
+		System.out.println("----------");
+
+		for(i = 0; i < 10; i++) {
+			random = randomNums.removeFirst();
+			System.out.println("Number [" + i + "]: " + random +
+					" -> removed? " + tree.remove(random));
+		}
+	}
+}
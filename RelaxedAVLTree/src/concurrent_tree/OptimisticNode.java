@@ -0,0 +1,107 @@
+package concurrent_tree;
+
+/**
+ * OptimisticNode Class
+ *
+ * Node used by the optimistic AVL tree.  Instead of being locked on every
+ * visit, each node carries a version number that readers snapshot before
+ * following a child pointer and validate afterwards.  A node is only locked
+ * (using its intrinsic monitor) when it is being modified.
+ *
+ * The version number encodes two flags in its low bits: whether the node is
+ * currently being shrunk by a rotation, and whether it has been unlinked from
+ * the tree.  Every completed rotation increments the remaining bits so that a
+ * reader can detect that the node changed underneath it.
+ *
+ */
+public class OptimisticNode<T> {
+
+	static final long UNLINKED = 1L;
+	static final long SHRINKING = 2L;
+
+	static final int SPIN_COUNT = 100;
+	static final int YIELD_COUNT = 20;
+
+	public final T data;
+	public volatile boolean present;
+	public volatile int height;
+	public volatile long version;
+	public volatile OptimisticNode<T> parent;
+	public volatile OptimisticNode<T> left;
+	public volatile OptimisticNode<T> right;
+
+	/**
+	 * Instantiates an OptimisticNode object.
+	 */
+	public OptimisticNode(T data, int height, boolean present,
+			OptimisticNode<T> parent, long version) {
+		this.data = data;
+		this.height = height;
+		this.present = present;
+		this.parent = parent;
+		this.version = version;
+		left = null;
+		right = null;
+	}
+
+	/**
+	 * Returns the left child if dir is negative, the right child otherwise.
+	 */
+	OptimisticNode<T> child(int dir) {
+		return dir < 0 ? left : right;
+	}
+
+	/**
+	 * Sets the left child if dir is negative, the right child otherwise.
+	 */
+	void setChild(int dir, OptimisticNode<T> node) {
+		if(dir < 0)
+			left = node;
+		else
+			right = node;
+	}
+
+	/**
+	 * Waits for a rotation that was in progress when ovl was read to finish.
+	 * Spins briefly and then falls back to acquiring the node's monitor, which
+	 * the rotating thread holds for the duration of the change.
+	 */
+	void waitUntilShrinkCompleted(long ovl) {
+		if(!isShrinking(ovl))
+			return;
+
+		for(int tries = 0; tries < SPIN_COUNT; tries++) {
+			if(version != ovl)
+				return;
+		}
+		for(int tries = 0; tries < YIELD_COUNT; tries++) {
+			Thread.yield();
+			if(version != ovl)
+				return;
+		}
+
+		//Spinning didn't help, block until the rotation releases the node
+		synchronized(this) {
+		}
+	}
+
+	static boolean isShrinking(long ovl) {
+		return (ovl & SHRINKING) != 0;
+	}
+
+	static boolean isUnlinked(long ovl) {
+		return (ovl & UNLINKED) != 0;
+	}
+
+	static boolean isShrinkingOrUnlinked(long ovl) {
+		return (ovl & (SHRINKING | UNLINKED)) != 0;
+	}
+
+	static long beginChange(long ovl) {
+		return ovl | SHRINKING;
+	}
+
+	static long endChange(long ovl) {
+		return (ovl | (SHRINKING | UNLINKED)) + 1;
+	}
+}
@@ -1,8 +1,21 @@
 package concurrent_tree;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 
 /**
@@ -11,22 +24,242 @@ import java.util.concurrent.locks.ReentrantLock;
  * This class implements a concurrent version of a Relaxed balanced AVL using a
  * fine-grained locking approach for correctness and synchronization.
  *
+ * Balancing is decoupled from updates.  insert and remove only mark the nodes
+ * on their path as dirty (their height may be out of date) while they hold
+ * those nodes' locks anyway.  One or more background rebalancer threads,
+ * woken by the updates that change the tree, walk the dirty part of the tree
+ * bottom-up, recomputing heights and performing single or double rotations
+ * wherever a node's balance is off by more than one.  Each rotation only
+ * locks the parent, the node and the one or two children being rotated,
+ * acquired top-down like every other traversal.
+ *
+ * Every node also counts the nodes in its subtree, so that rank, select
+ * and countRange take O(log n) steps.  An update adjusts the count of each
+ * node on its path while it holds that node's lock, and rotations recount
+ * the nodes they move.  An insert of an object that is already there, or a
+ * remove of one that isn't, only finds out at the bottom.  It pins the last
+ * node it counted and takes its counts back on a second hand-over-hand pass
+ * from the root before it returns.  A pinned node is never moved, neither by
+ * a rotation nor by a remove, so that pass ends at the same node and finds
+ * the same counts.
+ *
+ * The rebalancers park while the tree is clean and only hold a weak
+ * reference to it while they do, so a tree that is dropped can still be
+ * collected.  close or shutdown stops them right away.
+ *
  */
 public class RelaxedAVLTree<T extends Comparable<? super T>>
-        implements ConcurrentBinaryTree<T> {
+        implements ConcurrentBinaryTree<T>, AutoCloseable {
 
     /**
      * Local variables and definitions.
      */
     LockableNode<T> root;
-    ReentrantLock headLock;
+    NodeLock headLock;
+    private final LockStrategy lockStrategy;
+    private final TreeMetrics metrics;
+    private final LongAdder size = new LongAdder();
 
     /**
-     * Instantiates an empty fine-grained Relaxed AVL locking tree for use.
+     * How long an idle rebalancer parks before checking whether the tree is
+     * still in use.  Updates unpark it as soon as there is work to do.
+     */
+    private static final long IDLE_CHECK_NANOS = 1000000000L;
+
+    /**
+     * The most objects a scan collects per descent, and the most nodes it
+     * keeps locked.
+     */
+    static final int SCAN_BATCH = 64;
+
+    private final Thread[] rebalancers;
+    private volatile boolean running;
+
+    //Set by updates that changed the tree, cleared by a rebalancer before it
+    //rebalances
+    private volatile boolean pending;
+
+    /**
+     * Instantiates an empty fine-grained Relaxed AVL locking tree for use,
+     * with a single background rebalancer thread.
      */
     public RelaxedAVLTree() {
+        this(1);
+    }
+
+    /**
+     * Instantiates an empty fine-grained Relaxed AVL locking tree for use.
+     *
+     * @param rebalancerThreads Number of background rebalancer threads to
+     * start.  With zero the tree is never rebalanced.
+     */
+    public RelaxedAVLTree(int rebalancerThreads) {
+        this(rebalancerThreads, LockStrategy.INLINE);
+    }
+
+    /**
+     * Instantiates an empty fine-grained Relaxed AVL locking tree whose nodes
+     * and root slot are guarded by locks of the given kind.
+     *
+     * @param rebalancerThreads Number of background rebalancer threads to
+     * start.  With zero the tree is never rebalanced.
+     * @param lockStrategy The kind of lock to use
+     */
+    public RelaxedAVLTree(int rebalancerThreads, LockStrategy lockStrategy) {
+        this(rebalancerThreads, lockStrategy, null);
+    }
+
+    /**
+     * Instantiates an empty fine-grained Relaxed AVL locking tree that counts
+     * its operations, lock contention and rotations in metrics.
+     *
+     * @param rebalancerThreads Number of background rebalancer threads to
+     * start.  With zero the tree is never rebalanced.
+     * @param lockStrategy The kind of lock to use
+     * @param metrics Where to count, or null to count nothing
+     */
+    public RelaxedAVLTree(int rebalancerThreads, LockStrategy lockStrategy,
+            TreeMetrics metrics) {
         root = null;
-        headLock = new ReentrantLock();
+        this.lockStrategy = lockStrategy;
+        this.metrics = metrics;
+        headLock = lockStrategy.newLock();
+        running = true;
+        rebalancers = new Thread[rebalancerThreads];
+        for (int i = 0; i < rebalancerThreads; i++) {
+            rebalancers[i] = new Thread(new Rebalancer(this),
+                    "RelaxedAVLTree-rebalancer-" + i);
+            rebalancers[i].setDaemon(true);
+            rebalancers[i].start();
+        }
+    }
+
+    /**
+     * Builds a balanced tree holding data.  The rebalancers start out with
+     * nothing to do since every node is already in balance.
+     *
+     * @param data The data objects to load, in any order
+     * @return A new tree holding the data
+     */
+    public static <T extends Comparable<? super T>> RelaxedAVLTree<T>
+            bulkLoad(Collection<? extends T> data) {
+        T keys[] = BulkLoad.sortedUnique(data);
+        return buildSorted(keys.length, i -> keys[i]);
+    }
+
+    /**
+     * Reloads a tree from a checkpoint written by Checkpoint.write, building
+     * it straight from the mapped file.
+     *
+     * @param file The checkpoint file
+     * @return A new tree holding the checkpointed keys
+     */
+    public static RelaxedAVLTree<Integer> load(Path file)
+            throws IOException {
+        IntBuffer keys = Checkpoint.read(file);
+        return buildSorted(keys.limit(), keys::get);
+    }
+
+    /**
+     * Builds a balanced tree over count keys that are already sorted and
+     * unique, where key(i) returns the i'th.
+     */
+    private static <T extends Comparable<? super T>> RelaxedAVLTree<T>
+            buildSorted(int count, IntFunction<? extends T> key) {
+        LockableNode<T> subRoot = BulkLoad.build(0, count,
+                (BulkLoad.NodeBuilder<LockableNode<T>>) (i, left, right) -> {
+            LockableNode<T> node = new LockableNode<T>(key.apply(i));
+            node.left = left;
+            node.right = right;
+            node.height = 1 + Math.max(left == null ? 0 : left.height,
+                    right == null ? 0 : right.height);
+            node.size = 1 + (left == null ? 0 : left.size)
+                    + (right == null ? 0 : right.size);
+            return node;
+        });
+
+        //The rebalancers are already running, so publish under headLock
+        RelaxedAVLTree<T> tree = new RelaxedAVLTree<T>();
+        tree.headLock.lock();
+        tree.root = subRoot;
+        tree.headLock.unlock();
+        tree.size.add(count);
+        return tree;
+    }
+
+    /**
+     * Body of a rebalancer thread.  It looks the tree up through a weak
+     * reference every time it wakes, and ends once the tree has been
+     * collected or shut down.
+     */
+    private static final class Rebalancer implements Runnable {
+        private final WeakReference<RelaxedAVLTree<?>> tree;
+
+        Rebalancer(RelaxedAVLTree<?> tree) {
+            this.tree = new WeakReference<RelaxedAVLTree<?>>(tree);
+        }
+
+        @Override
+        public void run() {
+            while (rebalance())
+                LockSupport.parkNanos(IDLE_CHECK_NANOS);
+        }
+
+        /**
+         * Rebalances the tree until it is clean, if any update asked for it.
+         *
+         * @return False if the tree is gone or shut down
+         */
+        private boolean rebalance() {
+            RelaxedAVLTree<?> t = tree.get();
+            if (t == null)
+                return false;
+            while (t.running && t.pending) {
+                t.pending = false;
+                //Rotations leave their nodes dirty for another pass
+                while (t.running && t.rebalancePass())
+                    ;
+            }
+            return t.running;
+        }
+    }
+
+    /**
+     * Wakes the rebalancers after an update, unless a wakeup is already
+     * pending.  Called once the update has released its locks, so the
+     * rebalancers see its dirty marks.
+     */
+    private void wakeRebalancers() {
+        if (!pending) {
+            pending = true;
+            for (Thread rebalancer : rebalancers)
+                LockSupport.unpark(rebalancer);
+        }
+    }
+
+    /**
+     * Stops the background rebalancer threads and waits for them to finish.
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread rebalancer : rebalancers) {
+            LockSupport.unpark(rebalancer);
+            rebalancer.join();
+        }
+    }
+
+    /**
+     * Stops the background rebalancer threads like shutdown.  If the calling
+     * thread is interrupted while waiting for them they still stop, and the
+     * interrupt status is set again.
+     */
+    @Override
+    public void close() {
+        try {
+            shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     int height(LockableNode N) {
@@ -36,6 +269,13 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
         return N.height;
     }
 
+    int sizeOf(LockableNode<?> N) {
+        if (N == null)
+            return 0;
+
+        return N.size;
+    }
+
     int max(int n1, int n2) {
         if (n1 > n2)
             return n1;
@@ -43,33 +283,37 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
             return n2;
     }
 
-    LockableNode rightRotate(LockableNode y) {
-        LockableNode x = y.left;
-        LockableNode T2 = x.right;
+    LockableNode<T> rightRotate(LockableNode<T> y) {
+        LockableNode<T> x = y.left;
+        LockableNode<T> T2 = x.right;
 
         // Perform rotation
         x.right = y;
         y.left = T2;
 
-        // Update heights
+        // Update heights and sizes
         y.height = max(height(y.left), height(y.right)) + 1;
         x.height = max(height(x.left), height(x.right)) + 1;
+        y.size = sizeOf(y.left) + sizeOf(y.right) + 1;
+        x.size = sizeOf(x.left) + sizeOf(x.right) + 1;
 
         // Return new root
         return x;
     }
 
-    LockableNode leftRotate(LockableNode x) {
-        LockableNode y = x.right;
-        LockableNode T2 = y.left;
+    LockableNode<T> leftRotate(LockableNode<T> x) {
+        LockableNode<T> y = x.right;
+        LockableNode<T> T2 = y.left;
 
         // Perform rotation
         y.left = x;
         x.right = T2;
 
-        //  Update heights
+        //  Update heights and sizes
         x.height = max(height(x.left), height(x.right)) + 1;
         y.height = max(height(y.left), height(y.right)) + 1;
+        x.size = sizeOf(x.left) + sizeOf(x.right) + 1;
+        y.size = sizeOf(y.left) + sizeOf(y.right) + 1;
 
         // Return new root
         return y;
@@ -90,24 +334,43 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
      */
     @Override
     public boolean insert(T data) {
+        return insertIfAbsent(data) == null;
+    }
+
+    /**
+     * Inserts data unless an equal object is already in the tree, in which
+     * case that object is returned instead.
+     *
+     * @return Null if data was inserted, otherwise the object found
+     */
+    T insertIfAbsent(T data) {
 
-        LockableNode<T> newNode = new LockableNode<T>(data);
+        LockableNode<T> newNode = new LockableNode<T>(data,
+                lockStrategy.newNodeLock());
         LockableNode<T> curNode = null;
         LockableNode<T> parentNode = null;
         int compare = 0;
+        int depth = 1;
 
-        headLock.lock();
+        newNode.height = 1;
+        newNode.size = 1;
+        count(TreeMetrics.Operation.INSERT, 1);
+        lockHead();
         if (root == null) {
             //The tree is empty, insert the new node as the root
             root = newNode;
             headLock.unlock();
         } else {
-            //The tree is not empty, find a location to insert the new node
+            //The tree is not empty, find a location to insert the new node.
+            //Every node on the way counts the new node while it is locked.
             curNode = root;
-            curNode.lock();
+            lock(curNode, depth);
+            curNode.size++;
             headLock.unlock();
             while (true) {
                 parentNode = curNode;
+                //Record that this node's height may change
+                curNode.dirty = true;
                 compare = curNode.data.compareTo(data);
                 if (compare > 0) {
                     //curNode is "bigger" than newNode, enter left subtree
@@ -116,9 +379,13 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                     //curNode is "smaller" than newNode, enter right subtree
                     curNode = curNode.right;
                 } else {
-                    //The data is already in the tree
+                    //The data is already in the tree, and every node down to
+                    //this one counted it.  Pin this one and take them back.
+                    T existing = curNode.data;
+                    curNode.pins++;
                     curNode.unlock();
-                    return false;
+                    restoreCounts(curNode, -1);
+                    return existing;
                 }
 
                 //Check to see if we've found our location.  If not, continue
@@ -126,7 +393,8 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                 if (curNode == null) {
                     break;
                 } else {
-                    curNode.lock();
+                    lock(curNode, ++depth);
+                    curNode.size++;
                     parentNode.unlock();
                 }
             }
@@ -138,60 +406,11 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                 parentNode.right = newNode;
             parentNode.unlock();
         }
-        newNode.height = 1 + max(height(newNode.left),
-                height(newNode.right));
-
-
-        int balance = getBalance(newNode);
-        balanceTreeInsert(balance, newNode);
-        return true;
-    }
-
-
-    public LockableNode balanceTreeInsert(int bal, LockableNode n) {
-        if (bal > 1 && (Integer) n.data < (Integer) n.left.data)
-            return rightRotate(n);
-
-        // Right Right Case
-        if (bal < -1 && (Integer) n.data > (Integer) n.right.data)
-            return leftRotate(n);
-
-        // Left Right Case
-        if (bal > 1 && (Integer) n.data > (Integer) n.left.data) {
-            n.left = leftRotate(n.left);
-            return rightRotate(n);
-        }
-
-        // Right Left Case
-        if (bal < -1 && (Integer) n.data < (Integer) n.left.data) {
-            n.right = rightRotate(n.right);
-            return leftRotate(n);
-        }
-        return n;
+        size.increment();
+        wakeRebalancers();
+        return null;
     }
-    public LockableNode balanceTreeDelete(int bal, LockableNode n){
-        if (bal > 1 && getBalance(n.left) >= 0)
-            return rightRotate(n);
-
-        // Left Right Case
-        if (bal > 1 && getBalance(n.left) < 0)
-        {
-            n.left = leftRotate(n.left);
-            return rightRotate(n);
-        }
 
-        // Right Right Case
-        if (bal < -1 && getBalance(n.right) <= 0)
-            return leftRotate(n);
-
-        // Right Left Case
-        if (bal < -1 && getBalance(n.right) > 0)
-        {
-            n.right = rightRotate(n.right);
-            return leftRotate(n);
-        }
-        return  n;
-    }
 
     /**
      * Removes the specified data from the tree.  Traverses the tree using a
@@ -205,14 +424,27 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
         LockableNode<T> parentNode = null;
         int compare = 0;
         int oldCompare = 0;
+        int depth = 1;
+
+        count(TreeMetrics.Operation.REMOVE, 1);
+        retry:
+        while (true) {
+            depth = 1;
+            lockHead();
+            if (root == null) {
+                //Tree is empty
+                headLock.unlock();
+                return null;
+            }
 
-        headLock.lock();
-        if (root != null) {
             //Tree is not empty, search for the passed data.  Start by checking
-            //the root separately.
+            //the root separately.  Every node on the way stops counting the
+            //data while it is locked.
             curNode = root;
             parentNode = curNode;
-            curNode.lock();
+            lock(curNode, depth);
+            curNode.dirty = true;
+            curNode.size--;
             compare = curNode.data.compareTo(data);
             if (compare > 0) {
                 //root is "bigger" than passed data, search the left subtree
@@ -224,23 +456,19 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                 oldCompare = compare;
             } else {
                 //Found the specified data, remove it from the tree
-                LockableNode<T> replacement = findReplacement(curNode);
-
-                root = replacement;
-
-                if (replacement != null) {
-                    replacement.left = curNode.left;
-                    replacement.right = curNode.right;
-                }
-
-
-
-
-                curNode.unlock();
-                headLock.unlock();
+                if (!unlink(null, false, curNode, depth))
+                    continue retry;
                 return curNode.data;
             }
-            curNode.lock();
+            if (curNode == null) {
+                //The root has no child on that side, the data isn't here
+                parentNode.size++;
+                parentNode.unlock();
+                headLock.unlock();
+                return null;
+            }
+            lock(curNode, ++depth);
+            curNode.size--;
             headLock.unlock();
 
             while (true) {
@@ -248,6 +476,7 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                 if (compare != 0) {
                     parentNode.unlock();
                     parentNode = curNode;
+                    curNode.dirty = true;
                     if (compare > 0) {
                         //curNode is "bigger" than passed data, search the left
                         //subtree
@@ -261,61 +490,371 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                     }
                 } else {
                     //Found the specified data, remove it from the tree
-                    LockableNode<T> replacement = findReplacement(curNode);
-
-                    //Set the parent pointer to the new child
-                    if (oldCompare > 0)
-                        parentNode.left = replacement;
-                    else
-                        parentNode.right = replacement;
-
-                    //Replace curNode with replacement
-                    if (replacement != null) {
-                        replacement.left = curNode.left;
-                        replacement.right = curNode.right;
-                    }
-
-                    curNode.unlock();
-                    parentNode.unlock();
+                    if (!unlink(parentNode, oldCompare > 0, curNode, depth))
+                        continue retry;
                     return curNode.data;
                 }
 
                 if (curNode == null) {
                     break;
                 } else {
-                    curNode.lock();
+                    lock(curNode, ++depth);
+                    curNode.size--;
                 }
             }
-        } else {
-            //Tree is empty
-            headLock.unlock();
+
+            //The specified data was not in the tree, and every node down to
+            //this one stopped counting it.  Pin this one and count it again.
+            parentNode.pins++;
+            parentNode.unlock();
+            restoreCounts(parentNode, 1);
             return null;
         }
+    }
 
-        //The specified data was not in the tree
-        parentNode.unlock();
+    /**
+     * Unlinks curNode, the child of parentNode on the given side (or the root,
+     * if parentNode is null), and moves a replacement from its subtree into
+     * its place.  curNode and its parent (or headLock) must be locked; both
+     * are unlocked here.
+     *
+     * @return False if curNode or its replacement is pinned.  Nothing was
+     * unlinked then, and the counts made by the remove have been restored.
+     */
+    private boolean unlink(LockableNode<T> parentNode, boolean left,
+            LockableNode<T> curNode, int depth) {
 
-        return null;
+        LockableNode<T> replacement = null;
+        LockableNode<T> pinned = curNode;
+
+        if (curNode.pins == 0) {
+            replacement = findReplacement(curNode, depth);
+            if (replacement == null || replacement.pins == 0)
+                pinned = null;
+            else
+                pinned = replacement;
+        }
+        if (pinned != null) {
+            //A failed update is still restoring the counts down to the pinned
+            //node, which has to stay where it is until then.  Restore this
+            //remove's counts as well and give that update a chance to finish
+            //before trying again.
+            pinned.pins++;
+            if (pinned != curNode)
+                pinned.unlock();
+            curNode.unlock();
+            unlockParent(parentNode);
+            restoreCounts(pinned, 1);
+            if (metrics != null)
+                metrics.retry(depth);
+            Thread.yield();
+            return false;
+        }
+
+        //Set the parent pointer to the new child
+        setChild(parentNode, left, replacement);
+
+        //Replace curNode with replacement
+        if (replacement != null) {
+            replacement.left = curNode.left;
+            replacement.right = curNode.right;
+            replacement.height = curNode.height;
+            replacement.size = curNode.size;
+            replacement.dirty = true;
+            replacement.unlock();
+        }
+
+        //Detach the removed node so a rebalancer still holding a reference to
+        //it can't rotate its old children
+        curNode.left = null;
+        curNode.right = null;
+        curNode.unlock();
+        unlockParent(parentNode);
+        size.decrement();
+        wakeRebalancers();
+        return true;
     }
 
+    /**
+     * Adds delta to the count of every node from the root down to target,
+     * taking back the counts of an update that turned out to have nothing to
+     * do.  The caller pinned target before letting go of it, so target hasn't
+     * moved and the search for its data still ends there.  Unpins target.
+     */
+    private void restoreCounts(LockableNode<T> target, int delta) {
 
-   LockableNode CheckHeightAndBalance(LockableNode curNode){
+        LockableNode<T> curNode = null;
+        LockableNode<T> parentNode = null;
+        int depth = 1;
+
+        lockHead();
+        curNode = root;
+        lock(curNode, depth);
+        headLock.unlock();
+        while (true) {
+            curNode.size += delta;
+            if (curNode == target)
+                break;
+            parentNode = curNode;
+            if (curNode.data.compareTo(target.data) > 0)
+                curNode = curNode.left;
+            else
+                curNode = curNode.right;
+            lock(curNode, ++depth);
+            parentNode.unlock();
+        }
+        target.pins--;
+        target.unlock();
 
-           if (curNode.equals(null))
-               return null;
+        //A rebalancer may have left a rotation for after the pin
+        wakeRebalancers();
+    }
 
-       //curNode.height = 1 + max(height(curNode.left),
-        //       height(curNode.right));
-       int balance = getBalance(curNode);
 
-       if(balance<-1 || balance>1)
-           return balanceTreeInsert(balance,curNode);
-       else
-            CheckHeightAndBalance(curNode);
-     return curNode;
+    /**
+     * One entry of the rebalancer's post-order walk: the child of parent on
+     * the given side (or the root, if parent is null).  node is filled in
+     * once the child has been claimed.  depth is the depth of the child.
+     */
+    private static class Frame<T> {
+        final LockableNode<T> parent;
+        final boolean left;
+        final int depth;
+        LockableNode<T> node;
+
+        Frame(LockableNode<T> parent, boolean left, int depth) {
+            this.parent = parent;
+            this.left = left;
+            this.depth = depth;
+        }
+    }
 
+    /**
+     * Performs one rebalancing pass over the dirty part of the tree, visiting
+     * children before their parents so that heights are recomputed bottom-up.
+     * Clean subtrees are skipped entirely.  No locks are held between steps.
+     *
+     * @return True if there was anything to do, false if the tree was clean
+     * or the work left waits for a pinned node
+     */
+    boolean rebalancePass() {
+        ArrayDeque<Frame<T>> stack = new ArrayDeque<Frame<T>>();
+        boolean visited = false;
+        boolean blocked = false;
+
+        stack.push(new Frame<T>(null, false, 1));
+        while (!stack.isEmpty()) {
+            Frame<T> frame = stack.peek();
+            if (frame.node == null) {
+                //First visit, claim the node and descend into its children
+                LockableNode<T> node = claimDirty(frame.parent, frame.left,
+                        frame.depth);
+                if (node == null) {
+                    stack.pop();
+                    continue;
+                }
+                visited = true;
+                frame.node = node;
+                stack.push(new Frame<T>(node, true, frame.depth + 1));
+                stack.push(new Frame<T>(node, false, frame.depth + 1));
+            } else {
+                //Both subtrees are done, fix this node
+                stack.pop();
+                if (!fixNode(frame.parent, frame.left, frame.node, frame.depth))
+                    blocked = true;
+            }
+        }
+        return visited && !blocked;
+    }
 
-   }
+    /**
+     * Locks the root slot, which is depth 0 as far as metrics go.
+     */
+    private void lockHead() {
+        if (metrics == null)
+            headLock.lock();
+        else
+            metrics.lock(headLock, 0);
+    }
+
+    private void lock(LockableNode<T> node, int depth) {
+        if (metrics == null)
+            node.lock();
+        else
+            metrics.lock(node, depth);
+    }
+
+    private void count(TreeMetrics.Operation kind, int count) {
+        if (metrics != null)
+            metrics.operation(kind, count);
+    }
+
+    private void lockParent(LockableNode<T> parent, int depth) {
+        if (parent == null)
+            lockHead();
+        else
+            lock(parent, depth);
+    }
+
+    private void unlockParent(LockableNode<T> parent) {
+        if (parent == null)
+            headLock.unlock();
+        else
+            parent.unlock();
+    }
+
+    private LockableNode<T> getChild(LockableNode<T> parent, boolean left) {
+        if (parent == null)
+            return root;
+        return left ? parent.left : parent.right;
+    }
+
+    private void setChild(LockableNode<T> parent, boolean left,
+            LockableNode<T> child) {
+        if (parent == null)
+            root = child;
+        else if (left)
+            parent.left = child;
+        else
+            parent.right = child;
+    }
+
+    /**
+     * Clears the dirty flag of parent's child on the given side.
+     *
+     * @return The child if it was dirty, null otherwise
+     */
+    private LockableNode<T> claimDirty(LockableNode<T> parent, boolean left,
+            int depth) {
+        LockableNode<T> claimed = null;
+
+        lockParent(parent, depth - 1);
+        LockableNode<T> node = getChild(parent, left);
+        if (node != null) {
+            lock(node, depth);
+            if (node.dirty) {
+                node.dirty = false;
+                claimed = node;
+            }
+            node.unlock();
+        }
+        unlockParent(parent);
+        return claimed;
+    }
+
+    /**
+     * Recomputes the height of node and rotates it if it is out of balance.
+     * If the node moved since it was claimed (a remove replaced it) it is
+     * skipped; the remove marked the new path dirty for a later pass.
+     *
+     * @return False if a rotation had to wait for a pinned node.  The node is
+     * left dirty, and the update holding the pin wakes the rebalancers.
+     */
+    private boolean fixNode(LockableNode<T> parent, boolean left,
+            LockableNode<T> node, int depth) {
+        lockParent(parent, depth - 1);
+        if (getChild(parent, left) != node) {
+            unlockParent(parent);
+            if (metrics != null)
+                metrics.retry(depth);
+            return true;
+        }
+
+        lock(node, depth);
+        LockableNode<T> top = rebalanceNode(node, depth);
+        if (top == null)
+            node.dirty = true;
+        else if (top != node)
+            setChild(parent, left, top);
+
+        //Keep the path to any remaining work dirty for the next pass
+        if (node.dirty && parent != null)
+            parent.dirty = true;
+        node.unlock();
+        unlockParent(parent);
+        return top != null;
+    }
+
+    /**
+     * Rebalances the subtree rooted at n.  n and its parent must be locked;
+     * the children taking part in a rotation are locked here, top-down.
+     * Nodes that are pinned are not rotated.
+     *
+     * @return The new root of the subtree, or null if a rotation was needed
+     * but one of its nodes is pinned
+     */
+    private LockableNode<T> rebalanceNode(LockableNode<T> n, int depth) {
+        int hl = height(n.left);
+        int hr = height(n.right);
+
+        if (hl - hr > 1) {
+            LockableNode<T> nL = n.left;
+            LockableNode<T> nLR = null;
+            lock(nL, depth + 1);
+            if (height(nL.left) < height(nL.right)) {
+                nLR = nL.right;
+                lock(nLR, depth + 2);
+            }
+            if (n.pins > 0 || nL.pins > 0 || (nLR != null && nLR.pins > 0)) {
+                if (nLR != null)
+                    nLR.unlock();
+                nL.unlock();
+                return null;
+            }
+            if (nLR != null) {
+                // Left Right Case
+                n.left = leftRotate(nL);
+                rotated(depth + 1);
+            }
+            // Left Left Case
+            LockableNode<T> top = rightRotate(n);
+            rotated(depth);
+            n.dirty = true;
+            top.dirty = true;
+            if (nLR != null)
+                nLR.unlock();
+            nL.unlock();
+            return top;
+        }
+
+        if (hr - hl > 1) {
+            LockableNode<T> nR = n.right;
+            LockableNode<T> nRL = null;
+            lock(nR, depth + 1);
+            if (height(nR.right) < height(nR.left)) {
+                nRL = nR.left;
+                lock(nRL, depth + 2);
+            }
+            if (n.pins > 0 || nR.pins > 0 || (nRL != null && nRL.pins > 0)) {
+                if (nRL != null)
+                    nRL.unlock();
+                nR.unlock();
+                return null;
+            }
+            if (nRL != null) {
+                // Right Left Case
+                n.right = rightRotate(nR);
+                rotated(depth + 1);
+            }
+            // Right Right Case
+            LockableNode<T> top = leftRotate(n);
+            rotated(depth);
+            n.dirty = true;
+            top.dirty = true;
+            if (nRL != null)
+                nRL.unlock();
+            nR.unlock();
+            return top;
+        }
+
+        n.height = max(hl, hr) + 1;
+        return n;
+    }
+
+    private void rotated(int depth) {
+        if (metrics != null)
+            metrics.rotation(depth);
+    }
 
     LockableNode minValueNode(LockableNode node)
     {
@@ -333,9 +872,13 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
      * will take its place. For this, e ill use the replace function and hand-over-hand locking
      * approach.
      *
-     * This returns A replacement node or null if no replacement exists
+     * This returns A replacement node or null if no replacement exists.  The
+     * replacement is returned still locked so that no rebalancer can touch it
+     * before the caller has moved it into place.  A pinned replacement is
+     * returned locked but left where it is.
      */
-    private LockableNode<T> findReplacement(LockableNode<T> subRoot) {
+    private LockableNode<T> findReplacement(LockableNode<T> subRoot,
+            int depth) {
 
         LockableNode<T> curNode = null;
         LockableNode<T> parentNode = null;
@@ -344,16 +887,24 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
             //Find the "biggest" node in the left subtree as the replacement
             parentNode = subRoot;
             curNode = subRoot.left;
-            curNode.lock();
+            lock(curNode, ++depth);
+            curNode.size--;
             while(curNode.right != null) {
                 if(parentNode != subRoot)
                     parentNode.unlock();
+                curNode.dirty = true;
                 parentNode = curNode;
                 curNode = curNode.right;
-                curNode.lock();
+                lock(curNode, ++depth);
+                curNode.size--;
+            }
+            if(curNode.pins > 0) {
+                if(parentNode != subRoot)
+                    parentNode.unlock();
+                return curNode;
             }
             if(curNode.left != null)
-                curNode.left.lock();
+                lock(curNode.left, depth + 1);
             if(parentNode == subRoot)
                 parentNode.left = curNode.left;
             else {
@@ -362,21 +913,28 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
             }
             if(curNode.left != null)
                 curNode.left.unlock();
-            curNode.unlock();
         } else if(subRoot.right != null) {
             //Find the "smallest" node in the right subtree as the replacement
             parentNode = subRoot;
             curNode = subRoot.right;
-            curNode.lock();
+            lock(curNode, ++depth);
+            curNode.size--;
             while(curNode.left != null) {
                 if(parentNode != subRoot)
                     parentNode.unlock();
+                curNode.dirty = true;
                 parentNode = curNode;
                 curNode = curNode.left;
-                curNode.lock();
+                lock(curNode, ++depth);
+                curNode.size--;
+            }
+            if(curNode.pins > 0) {
+                if(parentNode != subRoot)
+                    parentNode.unlock();
+                return curNode;
             }
             if(curNode.right != null)
-                curNode.right.lock();
+                lock(curNode.right, depth + 1);
             if(parentNode == subRoot)
                 parentNode.right = curNode.right;
             else {
@@ -385,7 +943,6 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
             }
             if(curNode.right != null)
                 curNode.right.unlock();
-            curNode.unlock();
         } else {
             //No children, no replacement needed
             return null;
@@ -399,16 +956,27 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
      */
     @Override
     public boolean contains(T data) {
+        return find(data) != null;
+    }
+
+    /**
+     * Searches the tree for the specified data.
+     *
+     * @return The object in the tree equal to data, or null if there is none
+     */
+    T find(T data) {
 
         LockableNode<T> curNode = null;
         LockableNode<T> parentNode = null;
         int compare = 0;
+        int depth = 1;
 
-        headLock.lock();
+        count(TreeMetrics.Operation.CONTAINS, 1);
+        lockHead();
         if(root != null) {
             //The tree is not empty, search the tree for the passed data
             curNode = root;
-            curNode.lock();
+            lock(curNode, depth);
             headLock.unlock();
             while(curNode != null) {
                 compare = curNode.data.compareTo(data);
@@ -423,28 +991,464 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
                     curNode = curNode.right;
                 } else {
                     //We found the data
+                    T found = curNode.data;
                     curNode.unlock();
-                    return true;
+                    return found;
                 }
 
                 if(curNode == null) {
                     break;
                 } else {
-                    curNode.lock();
+                    lock(curNode, ++depth);
                     parentNode.unlock();
                 }
             }
         } else {
             //The tree is empty
             headLock.unlock();
-            return false;
+            return null;
         }
 
         //The passed data is not in the tree
         parentNode.unlock();
-        return false;
+        return null;
+    }
+
+
+    /**
+     * Returns the smallest object in the tree.
+     */
+    @Override
+    public T first() {
+        return successor(null, false);
+    }
+
+    /**
+     * Returns the smallest object in the tree that is >= data.
+     */
+    @Override
+    public T ceiling(T data) {
+        return successor(data, true);
+    }
+
+    /**
+     * Returns the smallest object in the tree that is > data.
+     */
+    @Override
+    public T higher(T data) {
+        return successor(data, false);
+    }
+
+    /**
+     * Returns the largest object in the tree.
+     */
+    public T last() {
+        return predecessor(null, false);
+    }
+
+    /**
+     * Returns the largest object in the tree that is <= data.
+     */
+    public T floor(T data) {
+        return predecessor(data, true);
+    }
+
+    /**
+     * Returns the largest object in the tree that is < data.
+     */
+    public T lower(T data) {
+        return predecessor(data, false);
+    }
+
+    /**
+     * Returns the number of objects in the tree, read from a LongAdder that
+     * insert and remove update once they have succeeded.
+     */
+    @Override
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Returns the number of objects smaller than data, adding up subtree
+     * sizes on the way down to it.  Locks hand-over-hand like successor.
+     */
+    @Override
+    public long rank(T data) {
+        LockableNode<T> curNode = null;
+        LockableNode<T> parentNode = null;
+        long rank = 0;
+        int compare = 0;
+        int depth = 1;
+
+        count(TreeMetrics.Operation.SCAN, 1);
+        lockHead();
+        curNode = root;
+        if(curNode == null) {
+            //The tree is empty
+            headLock.unlock();
+            return 0;
+        }
+        lock(curNode, depth);
+        headLock.unlock();
+
+        while(true) {
+            compare = curNode.data.compareTo(data);
+            if(compare == 0) {
+                rank += sizeOf(curNode.left);
+                curNode.unlock();
+                return rank;
+            }
+            parentNode = curNode;
+            if(compare < 0) {
+                //curNode and its left subtree are all smaller than data
+                rank += sizeOf(curNode.left) + 1;
+                curNode = curNode.right;
+            } else {
+                curNode = curNode.left;
+            }
+
+            if(curNode == null)
+                break;
+            lock(curNode, ++depth);
+            parentNode.unlock();
+        }
+
+        parentNode.unlock();
+        return rank;
+    }
+
+    /**
+     * Returns the k'th smallest object, steering by subtree sizes.
+     */
+    @Override
+    public T select(long k) {
+        if(k < 0)
+            return null;
+
+        LockableNode<T> curNode = null;
+        LockableNode<T> parentNode = null;
+        int depth = 1;
+
+        count(TreeMetrics.Operation.SCAN, 1);
+        lockHead();
+        curNode = root;
+        if(curNode == null) {
+            //The tree is empty
+            headLock.unlock();
+            return null;
+        }
+        lock(curNode, depth);
+        headLock.unlock();
+
+        while(true) {
+            int left = sizeOf(curNode.left);
+            if(k == left) {
+                T found = curNode.data;
+                curNode.unlock();
+                return found;
+            }
+            parentNode = curNode;
+            if(k < left) {
+                curNode = curNode.left;
+            } else {
+                //Skip curNode and everything to its left
+                k -= left + 1;
+                curNode = curNode.right;
+            }
+
+            if(curNode == null)
+                break;
+            lock(curNode, ++depth);
+            parentNode.unlock();
+        }
+
+        parentNode.unlock();
+        return null;
+    }
+
+    /**
+     * Returns the number of objects in [lo, hi) as the difference of two
+     * ranks.
+     */
+    @Override
+    public long countRange(T lo, T hi) {
+        if(lo.compareTo(hi) >= 0)
+            return 0;
+        return Math.max(0, rank(hi) - rank(lo));
+    }
+
+    /**
+     * Searches hand-over-hand for data, remembering the last node where the
+     * search turned left.  That node holds the smallest object bigger than
+     * data, unless data itself is found and inclusive is set.  At most two
+     * nodes are locked at any time.  A null data finds the smallest object.
+     */
+    private T successor(T data, boolean inclusive) {
+
+        LockableNode<T> curNode = null;
+        LockableNode<T> parentNode = null;
+        T candidate = null;
+        int compare = 0;
+        int depth = 1;
+
+        count(TreeMetrics.Operation.SCAN, 1);
+        lockHead();
+        curNode = root;
+        if(curNode == null) {
+            //The tree is empty
+            headLock.unlock();
+            return null;
+        }
+        lock(curNode, depth);
+        headLock.unlock();
+
+        while(true) {
+            compare = data == null ? 1 : curNode.data.compareTo(data);
+            if(compare == 0 && inclusive) {
+                T found = curNode.data;
+                curNode.unlock();
+                return found;
+            }
+            parentNode = curNode;
+            if(compare > 0) {
+                //curNode is bigger than data, look for a smaller candidate in
+                //the left subtree
+                candidate = curNode.data;
+                curNode = curNode.left;
+            } else {
+                curNode = curNode.right;
+            }
+
+            if(curNode == null)
+                break;
+            lock(curNode, ++depth);
+            parentNode.unlock();
+        }
+
+        parentNode.unlock();
+        return candidate;
     }
 
+    /**
+     * The mirror image of successor: remembers the last node where the search
+     * turned right.  A null data finds the largest object.
+     */
+    private T predecessor(T data, boolean inclusive) {
+
+        LockableNode<T> curNode = null;
+        LockableNode<T> parentNode = null;
+        T candidate = null;
+        int compare = 0;
+        int depth = 1;
+
+        count(TreeMetrics.Operation.SCAN, 1);
+        lockHead();
+        curNode = root;
+        if(curNode == null) {
+            //The tree is empty
+            headLock.unlock();
+            return null;
+        }
+        lock(curNode, depth);
+        headLock.unlock();
+
+        while(true) {
+            compare = data == null ? -1 : curNode.data.compareTo(data);
+            if(compare == 0 && inclusive) {
+                T found = curNode.data;
+                curNode.unlock();
+                return found;
+            }
+            parentNode = curNode;
+            if(compare < 0) {
+                //curNode is smaller than data, look for a bigger candidate in
+                //the right subtree
+                candidate = curNode.data;
+                curNode = curNode.right;
+            } else {
+                curNode = curNode.left;
+            }
+
+            if(curNode == null)
+                break;
+            lock(curNode, ++depth);
+            parentNode.unlock();
+        }
+
+        parentNode.unlock();
+        return candidate;
+    }
+
+    /**
+     * Passes every object in [lo, hi) to action, in ascending order.  Rather
+     * than searching for each object separately, walks the tree in order and
+     * collects up to SCAN_BATCH objects per descent, calling action once the
+     * descent has let go of its locks.
+     */
+    @Override
+    public void forEachInRange(T lo, T hi, Consumer<? super T> action) {
+        List<T> batch = new ArrayList<T>(SCAN_BATCH);
+        boolean more = collect(lo, true, hi, batch);
+        while(true) {
+            for(T data : batch)
+                action.accept(data);
+            if(!more)
+                return;
+            T last = batch.get(batch.size() - 1);
+            batch.clear();
+            more = collect(last, false, hi, batch);
+        }
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the tree in ascending order,
+     * which fetches SCAN_BATCH objects per descent like forEachInRange.  The
+     * iterator does not support remove.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            final List<T> batch = new ArrayList<T>(SCAN_BATCH);
+            boolean more = collect(null, false, null, batch);
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                if(next == batch.size() && more) {
+                    T last = batch.get(batch.size() - 1);
+                    batch.clear();
+                    next = 0;
+                    more = collect(last, false, null, batch);
+                }
+                return next < batch.size();
+            }
+
+            @Override
+            public T next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                return batch.get(next++);
+            }
+        };
+    }
+
+    /**
+     * Walks the tree in order from the smallest object after from (or equal
+     * to it, if inclusive is set) and adds the objects below hi to batch,
+     * until it holds SCAN_BATCH of them.  A null from starts at the smallest
+     * object and a null hi doesn't stop before the largest.
+     *
+     * The walk keeps the nodes it has still to come back to locked, which are
+     * the ones where it went left, so that nothing can move them before they
+     * are visited; every other node is locked hand-over-hand.  If more than
+     * SCAN_BATCH nodes are kept, the one kept first, which holds the biggest
+     * object, is let go and the walk stops short of it.
+     *
+     * @return True if there may be more objects after the last one in batch
+     */
+    private boolean collect(T from, boolean inclusive, T hi, List<T> batch) {
+
+        ArrayDeque<LockableNode<T>> kept = new ArrayDeque<LockableNode<T>>();
+        ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+        LockableNode<T> curNode = null;
+        LockableNode<T> nextNode = null;
+        boolean more = false;
+        int compare = 0;
+        int depth = 1;
+
+        count(TreeMetrics.Operation.SCAN, 1);
+        lockHead();
+        curNode = root;
+        if(curNode == null) {
+            //The tree is empty
+            headLock.unlock();
+            return false;
+        }
+        lock(curNode, depth);
+        headLock.unlock();
+
+        //Search for from, keeping the nodes where the search goes left unless
+        //they are past hi
+        while(curNode != null) {
+            compare = from == null ? 1 : curNode.data.compareTo(from);
+            if(compare == 0 && inclusive)
+                nextNode = null;
+            else if(compare > 0)
+                nextNode = curNode.left;
+            else
+                nextNode = curNode.right;
+            if(nextNode != null)
+                lock(nextNode, depth + 1);
+
+            if((compare > 0 || (compare == 0 && inclusive))
+                    && (hi == null || curNode.data.compareTo(hi) < 0))
+                more |= keep(kept, depths, curNode, depth);
+            else
+                curNode.unlock();
+            curNode = nextNode;
+            depth++;
+        }
+
+        //Visit the kept nodes, smallest first, keeping the left spine of each
+        //one's right subtree in turn
+        while(!kept.isEmpty()) {
+            curNode = kept.pop();
+            depth = depths.pop();
+            if(hi != null && curNode.data.compareTo(hi) >= 0) {
+                curNode.unlock();
+                more = false;
+                break;
+            }
+            if(batch.size() == SCAN_BATCH) {
+                curNode.unlock();
+                more = true;
+                break;
+            }
+            batch.add(curNode.data);
+
+            nextNode = curNode.right;
+            if(nextNode != null)
+                lock(nextNode, depth + 1);
+            curNode.unlock();
+            while(nextNode != null) {
+                curNode = nextNode;
+                depth++;
+                nextNode = curNode.left;
+                if(nextNode != null)
+                    lock(nextNode, depth + 1);
+                more |= keep(kept, depths, curNode, depth);
+            }
+        }
+
+        while(!kept.isEmpty())
+            kept.pop().unlock();
+        return more;
+    }
+
+    /**
+     * Pushes a locked node on the walk's stack, letting go of the one at the
+     * bottom if that leaves more than SCAN_BATCH of them.
+     *
+     * @return True if a node was let go
+     */
+    private static <T> boolean keep(ArrayDeque<LockableNode<T>> kept,
+            ArrayDeque<Integer> depths, LockableNode<T> node, int depth) {
+        kept.push(node);
+        depths.push(depth);
+        if(kept.size() <= SCAN_BATCH)
+            return false;
+        kept.removeLast().unlock();
+        depths.removeLast();
+        return true;
+    }
+
+    /**
+     * Returns the metrics this tree counts into, or null if it has none.
+     */
+    public TreeMetrics metrics() {
+        return metrics;
+    }
 
     public void printTree() {
         printTree(root);
@@ -470,8 +1474,7 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
 
     public static void main(String[] args) {
         //Test the tree
-        FineGrainedLockingBinaryTree<Integer> tree =
-                new FineGrainedLockingBinaryTree<Integer>();
+        RelaxedAVLTree<Integer> tree = new RelaxedAVLTree<Integer>();
         LinkedList<Integer> randomNums = new LinkedList<Integer>();
         Random rand = new Random();
         int random = 0;
@@ -495,4 +1498,4 @@ public class RelaxedAVLTree<T extends Comparable<? super T>>
         }
         tree.printTree();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,930 @@
+package concurrent_tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+/**
+ * Relaxed AVL Tree Map
+ *
+ * A ConcurrentNavigableMap backed by a RelaxedAVLTree, meant as a drop-in
+ * replacement for ConcurrentSkipListMap with naturally ordered keys.  The
+ * tree holds one Mapping per key, which carries the value alongside the key,
+ * so a get or put is a single hand-over-hand search.
+ *
+ * Values are replaced with a CAS on the mapping, which makes put, replace
+ * and the conditional ConcurrentMap operations atomic without holding a
+ * node lock.  Removing a key first CASes its value to DELETED, which is the
+ * point where the key leaves the map, and then unlinks the mapping from the
+ * tree.  A put that finds a DELETED mapping waits for that unlink and then
+ * inserts a fresh one, so a key is never in the tree twice.
+ *
+ * Views returned by subMap, headMap, tailMap and descendingMap are instances
+ * of this class sharing the same tree, with bounds and a direction.  Like
+ * the tree's own traversals, iterators and bulk operations are weakly
+ * consistent, and every step of an iterator is a separate search.  size is
+ * the tree's counter for the whole map and a count of the range for views.
+ *
+ * Null keys and values are not allowed.
+ *
+ */
+public class RelaxedAVLTreeMap<K extends Comparable<? super K>, V>
+		extends AbstractMap<K, V>
+		implements ConcurrentNavigableMap<K, V>, AutoCloseable {
+
+	/**
+	 * The value of a mapping whose key has been removed.
+	 */
+	static final Object DELETED = new Object();
+
+	/**
+	 * What the tree stores: a key and its current value.  Mappings compare
+	 * by key only.
+	 */
+	static final class Mapping<K extends Comparable<? super K>, V>
+			implements Comparable<Mapping<K, V>> {
+
+		private static final VarHandle VALUE;
+
+		static {
+			try {
+				VALUE = MethodHandles.lookup().findVarHandle(Mapping.class,
+						"value", Object.class);
+			} catch(ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		final K key;
+		volatile Object value;
+
+		Mapping(K key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		boolean casValue(Object expected, Object value) {
+			return VALUE.compareAndSet(this, expected, value);
+		}
+
+		@Override
+		public int compareTo(Mapping<K, V> other) {
+			return key.compareTo(other.key);
+		}
+	}
+
+	private final RelaxedAVLTree<Mapping<K, V>> tree;
+
+	//Bounds of this view, where a null key means unbounded
+	private final K lo;
+	private final boolean loInclusive;
+	private final K hi;
+	private final boolean hiInclusive;
+	private final boolean descending;
+
+	/**
+	 * Instantiates an empty map with a single background rebalancer thread.
+	 */
+	public RelaxedAVLTreeMap() {
+		this(1);
+	}
+
+	/**
+	 * Instantiates an empty map.
+	 *
+	 * @param rebalancerThreads Number of background rebalancer threads to
+	 * start for the underlying tree
+	 */
+	public RelaxedAVLTreeMap(int rebalancerThreads) {
+		this(new RelaxedAVLTree<Mapping<K, V>>(rebalancerThreads), null, false,
+				null, false, false);
+	}
+
+	/**
+	 * Instantiates a map holding the same mappings as map.
+	 */
+	public RelaxedAVLTreeMap(Map<? extends K, ? extends V> map) {
+		this();
+		putAll(map);
+	}
+
+	private RelaxedAVLTreeMap(RelaxedAVLTree<Mapping<K, V>> tree, K lo,
+			boolean loInclusive, K hi, boolean hiInclusive,
+			boolean descending) {
+		this.tree = tree;
+		this.lo = lo;
+		this.loInclusive = loInclusive;
+		this.hi = hi;
+		this.hiInclusive = hiInclusive;
+		this.descending = descending;
+	}
+
+	/**
+	 * Stops the underlying tree's rebalancer threads.  Shared by every view
+	 * of the map.
+	 */
+	public void shutdown() throws InterruptedException {
+		tree.shutdown();
+	}
+
+	/**
+	 * Stops the underlying tree's rebalancer threads, see
+	 * RelaxedAVLTree.close.
+	 */
+	@Override
+	public void close() {
+		tree.close();
+	}
+
+	private static <K extends Comparable<? super K>, V> Mapping<K, V> probe(
+			K key) {
+		return new Mapping<K, V>(key, null);
+	}
+
+	private boolean tooLow(K key) {
+		if(lo == null)
+			return false;
+		int c = key.compareTo(lo);
+		return c < 0 || (c == 0 && !loInclusive);
+	}
+
+	private boolean tooHigh(K key) {
+		if(hi == null)
+			return false;
+		int c = key.compareTo(hi);
+		return c > 0 || (c == 0 && !hiInclusive);
+	}
+
+	private boolean inRange(K key) {
+		return !tooLow(key) && !tooHigh(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private K key(Object key) {
+		return (K) Objects.requireNonNull(key);
+	}
+
+	/**
+	 * Returns the mapping for key if it is in this view and not removed.
+	 */
+	private Mapping<K, V> find(Object key) {
+		K k = key(key);
+		if(!inRange(k))
+			return null;
+		Mapping<K, V> mapping = tree.find(probe(k));
+		return mapping == null || mapping.value == DELETED ? null : mapping;
+	}
+
+	/**
+	 * Returns the smallest live mapping above key (or at it, if inclusive),
+	 * ignoring this view's bounds.  A null key finds the smallest one.
+	 */
+	private Mapping<K, V> successor(K key, boolean inclusive) {
+		Mapping<K, V> mapping;
+		if(key == null)
+			mapping = tree.first();
+		else if(inclusive)
+			mapping = tree.ceiling(probe(key));
+		else
+			mapping = tree.higher(probe(key));
+		while(mapping != null && mapping.value == DELETED)
+			mapping = tree.higher(mapping);
+		return mapping;
+	}
+
+	/**
+	 * Returns the largest live mapping below key (or at it, if inclusive),
+	 * ignoring this view's bounds.  A null key finds the largest one.
+	 */
+	private Mapping<K, V> predecessor(K key, boolean inclusive) {
+		Mapping<K, V> mapping;
+		if(key == null)
+			mapping = tree.last();
+		else if(inclusive)
+			mapping = tree.floor(probe(key));
+		else
+			mapping = tree.lower(probe(key));
+		while(mapping != null && mapping.value == DELETED)
+			mapping = tree.lower(mapping);
+		return mapping;
+	}
+
+	/**
+	 * Returns the next mapping in ascending key order that is within this
+	 * view, starting from the lowest one if key is null or below the view.
+	 */
+	private Mapping<K, V> ascend(K key, boolean inclusive) {
+		Mapping<K, V> mapping;
+		if(key == null || tooLow(key))
+			mapping = lo == null ? successor(null, true)
+					: successor(lo, loInclusive);
+		else
+			mapping = successor(key, inclusive);
+		return mapping == null || tooHigh(mapping.key) ? null : mapping;
+	}
+
+	/**
+	 * Returns the next mapping in descending key order that is within this
+	 * view, starting from the highest one if key is null or above the view.
+	 */
+	private Mapping<K, V> descend(K key, boolean inclusive) {
+		Mapping<K, V> mapping;
+		if(key == null || tooHigh(key))
+			mapping = hi == null ? predecessor(null, true)
+					: predecessor(hi, hiInclusive);
+		else
+			mapping = predecessor(key, inclusive);
+		return mapping == null || tooLow(mapping.key) ? null : mapping;
+	}
+
+	/**
+	 * Returns the next mapping after key in this view's order, or the first
+	 * one if key is null.
+	 */
+	private Mapping<K, V> next(K key, boolean inclusive) {
+		return descending ? descend(key, inclusive) : ascend(key, inclusive);
+	}
+
+	/**
+	 * Returns the next mapping before key in this view's order, or the last
+	 * one if key is null.
+	 */
+	private Mapping<K, V> previous(K key, boolean inclusive) {
+		return descending ? ascend(key, inclusive) : descend(key, inclusive);
+	}
+
+	/**
+	 * Snapshots the first mapping that next (or previous, if backwards)
+	 * finds that is still live by the time its value is read.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map.Entry<K, V> entry(K key, boolean inclusive,
+			boolean backwards) {
+		while(true) {
+			Mapping<K, V> mapping = backwards ? previous(key, inclusive)
+					: next(key, inclusive);
+			if(mapping == null)
+				return null;
+			Object value = mapping.value;
+			if(value != DELETED)
+				return new AbstractMap.SimpleImmutableEntry<K, V>(
+						mapping.key, (V) value);
+			//Removed since it was found, keep going past it
+			key = mapping.key;
+			inclusive = false;
+		}
+	}
+
+	private K keyOf(Mapping<K, V> mapping) {
+		return mapping == null ? null : mapping.key;
+	}
+
+	private K keyOrThrow(Mapping<K, V> mapping) {
+		if(mapping == null)
+			throw new NoSuchElementException();
+		return mapping.key;
+	}
+
+	/**
+	 * Removes mapping if its value is still expected.
+	 */
+	private boolean delete(Mapping<K, V> mapping, Object expected) {
+		if(!mapping.casValue(expected, DELETED))
+			return false;
+		//No other mapping for this key can be inserted until this one is
+		//unlinked, so the key finds exactly this mapping
+		tree.remove(mapping);
+		return true;
+	}
+
+	/**
+	 * Shared driver for put and putIfAbsent.
+	 */
+	@SuppressWarnings("unchecked")
+	private V put(K key, V value, boolean onlyIfAbsent) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		if(!inRange(key))
+			throw new IllegalArgumentException("Key out of range");
+		Mapping<K, V> created = new Mapping<K, V>(key, value);
+		while(true) {
+			Mapping<K, V> existing = tree.insertIfAbsent(created);
+			if(existing == null)
+				return null;
+			Object old = existing.value;
+			if(old == DELETED) {
+				//Being removed, wait for the remover to unlink it
+				Thread.yield();
+				continue;
+			}
+			if(onlyIfAbsent || existing.casValue(old, value))
+				return (V) old;
+		}
+	}
+
+	/* Map and ConcurrentMap operations */
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Mapping<K, V> mapping = find(key);
+		if(mapping == null)
+			return null;
+		Object value = mapping.value;
+		return value == DELETED ? null : (V) value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return find(key) != null;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		return put(key, value, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		return put(key, value, true);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		Mapping<K, V> mapping;
+		while((mapping = find(key)) != null) {
+			Object value = mapping.value;
+			if(value != DELETED && delete(mapping, value))
+				return (V) value;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if(value == null)
+			return false;
+		Mapping<K, V> mapping;
+		while((mapping = find(key)) != null) {
+			Object current = mapping.value;
+			if(current == DELETED)
+				continue;
+			if(!current.equals(value))
+				return false;
+			if(delete(mapping, current))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V replace(K key, V value) {
+		Objects.requireNonNull(value);
+		Mapping<K, V> mapping;
+		while((mapping = find(key)) != null) {
+			Object current = mapping.value;
+			if(current != DELETED && mapping.casValue(current, value))
+				return (V) current;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		Objects.requireNonNull(oldValue);
+		Objects.requireNonNull(newValue);
+		Mapping<K, V> mapping;
+		while((mapping = find(key)) != null) {
+			Object current = mapping.value;
+			if(current == DELETED)
+				continue;
+			if(!current.equals(oldValue))
+				return false;
+			if(mapping.casValue(current, newValue))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the tree's counter for the whole map, or counts the mappings
+	 * in a view one at a time.
+	 */
+	@Override
+	public int size() {
+		long count;
+		if(lo == null && hi == null) {
+			count = tree.size();
+		} else {
+			count = 0;
+			for(Mapping<K, V> m = next(null, true); m != null;
+					m = next(m.key, false))
+				count++;
+		}
+		return (int) Math.min(count, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return next(null, true) == null;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		Objects.requireNonNull(value);
+		for(Mapping<K, V> m = next(null, true); m != null;
+				m = next(m.key, false)) {
+			if(value.equals(m.value))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		Mapping<K, V> m;
+		while((m = next(null, true)) != null) {
+			Object value = m.value;
+			if(value != DELETED)
+				delete(m, value);
+		}
+	}
+
+	/* SortedMap and NavigableMap operations */
+
+	@Override
+	public Comparator<? super K> comparator() {
+		return descending ? Comparator.<K>reverseOrder() : null;
+	}
+
+	@Override
+	public K firstKey() {
+		return keyOrThrow(next(null, true));
+	}
+
+	@Override
+	public K lastKey() {
+		return keyOrThrow(previous(null, true));
+	}
+
+	@Override
+	public Map.Entry<K, V> firstEntry() {
+		return entry(null, true, false);
+	}
+
+	@Override
+	public Map.Entry<K, V> lastEntry() {
+		return entry(null, true, true);
+	}
+
+	@Override
+	public Map.Entry<K, V> ceilingEntry(K key) {
+		return entry(Objects.requireNonNull(key), true, false);
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOf(next(Objects.requireNonNull(key), true));
+	}
+
+	@Override
+	public Map.Entry<K, V> higherEntry(K key) {
+		return entry(Objects.requireNonNull(key), false, false);
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOf(next(Objects.requireNonNull(key), false));
+	}
+
+	@Override
+	public Map.Entry<K, V> floorEntry(K key) {
+		return entry(Objects.requireNonNull(key), true, true);
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOf(previous(Objects.requireNonNull(key), true));
+	}
+
+	@Override
+	public Map.Entry<K, V> lowerEntry(K key) {
+		return entry(Objects.requireNonNull(key), false, true);
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOf(previous(Objects.requireNonNull(key), false));
+	}
+
+	@Override
+	public Map.Entry<K, V> pollFirstEntry() {
+		return poll(false);
+	}
+
+	@Override
+	public Map.Entry<K, V> pollLastEntry() {
+		return poll(true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map.Entry<K, V> poll(boolean last) {
+		Mapping<K, V> m;
+		while((m = last ? previous(null, true) : next(null, true)) != null) {
+			Object value = m.value;
+			if(value != DELETED && delete(m, value))
+				return new AbstractMap.SimpleImmutableEntry<K, V>(m.key,
+						(V) value);
+		}
+		return null;
+	}
+
+	/* Views */
+
+	/**
+	 * Returns a view over the keys in the given range, in ascending terms,
+	 * after checking that the range lies within this view's.  A null bound
+	 * keeps this view's bound on that side.
+	 */
+	private RelaxedAVLTreeMap<K, V> view(K fromKey, boolean fromInclusive,
+			K toKey, boolean toInclusive, boolean descending) {
+		if(lo != null) {
+			if(fromKey == null) {
+				fromKey = lo;
+				fromInclusive = loInclusive;
+			} else {
+				int c = fromKey.compareTo(lo);
+				if(c < 0 || (c == 0 && !loInclusive && fromInclusive))
+					throw new IllegalArgumentException("Key out of range");
+			}
+		}
+		if(hi != null) {
+			if(toKey == null) {
+				toKey = hi;
+				toInclusive = hiInclusive;
+			} else {
+				int c = toKey.compareTo(hi);
+				if(c > 0 || (c == 0 && !hiInclusive && toInclusive))
+					throw new IllegalArgumentException("Key out of range");
+			}
+		}
+		if(fromKey != null && toKey != null && fromKey.compareTo(toKey) > 0)
+			throw new IllegalArgumentException("Inconsistent range");
+		return new RelaxedAVLTreeMap<K, V>(tree, fromKey, fromInclusive,
+				toKey, toInclusive, descending);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> subMap(K fromKey, boolean fromInclusive,
+			K toKey, boolean toInclusive) {
+		Objects.requireNonNull(fromKey);
+		Objects.requireNonNull(toKey);
+		if(descending)
+			return view(toKey, toInclusive, fromKey, fromInclusive, true);
+		return view(fromKey, fromInclusive, toKey, toInclusive, false);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> headMap(K toKey, boolean inclusive) {
+		Objects.requireNonNull(toKey);
+		if(descending)
+			return view(toKey, inclusive, null, false, true);
+		return view(null, false, toKey, inclusive, false);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		Objects.requireNonNull(fromKey);
+		if(descending)
+			return view(null, false, fromKey, inclusive, true);
+		return view(fromKey, inclusive, null, false, false);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public RelaxedAVLTreeMap<K, V> descendingMap() {
+		return new RelaxedAVLTreeMap<K, V>(tree, lo, loInclusive, hi,
+				hiInclusive, !descending);
+	}
+
+	@Override
+	public NavigableSet<K> keySet() {
+		return new KeySet<K, V>(this);
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return new KeySet<K, V>(this);
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return new KeySet<K, V>(descendingMap());
+	}
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new MappingIterator<V>() {
+					@Override
+					V element(K key, V value) {
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return RelaxedAVLTreeMap.this.size();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return RelaxedAVLTreeMap.this.isEmpty();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsValue(o);
+			}
+
+			@Override
+			public void clear() {
+				RelaxedAVLTreeMap.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new MappingIterator<Map.Entry<K, V>>() {
+					@Override
+					Map.Entry<K, V> element(K key, V value) {
+						return new AbstractMap.SimpleImmutableEntry<K, V>(key,
+								value);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return RelaxedAVLTreeMap.this.size();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				return RelaxedAVLTreeMap.this.isEmpty();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				if(!(o instanceof Map.Entry))
+					return false;
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				V value = get(e.getKey());
+				return value != null && value.equals(e.getValue());
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				if(!(o instanceof Map.Entry))
+					return false;
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				return RelaxedAVLTreeMap.this.remove(e.getKey(), e.getValue());
+			}
+
+			@Override
+			public void clear() {
+				RelaxedAVLTreeMap.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * Walks this view in its order, one search per step.  Each element is
+	 * snapshotted when the iterator moves onto it, and remove removes the
+	 * last key returned.
+	 */
+	private abstract class MappingIterator<E> implements Iterator<E> {
+		private K nextKey;
+		private V nextValue;
+		private K lastReturned;
+
+		MappingIterator() {
+			advance(null, true);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance(K key, boolean inclusive) {
+			while(true) {
+				Mapping<K, V> m = RelaxedAVLTreeMap.this.next(key, inclusive);
+				if(m == null) {
+					nextKey = null;
+					return;
+				}
+				Object value = m.value;
+				if(value != DELETED) {
+					nextKey = m.key;
+					nextValue = (V) value;
+					return;
+				}
+				key = m.key;
+				inclusive = false;
+			}
+		}
+
+		abstract E element(K key, V value);
+
+		@Override
+		public boolean hasNext() {
+			return nextKey != null;
+		}
+
+		@Override
+		public E next() {
+			if(nextKey == null)
+				throw new NoSuchElementException();
+			E result = element(nextKey, nextValue);
+			lastReturned = nextKey;
+			advance(nextKey, false);
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			if(lastReturned == null)
+				throw new IllegalStateException();
+			RelaxedAVLTreeMap.this.remove(lastReturned);
+			lastReturned = null;
+		}
+	}
+
+	/**
+	 * The keys of a map, as a NavigableSet view backed by it.
+	 */
+	static final class KeySet<K extends Comparable<? super K>, V>
+			extends AbstractSet<K> implements NavigableSet<K> {
+		private final RelaxedAVLTreeMap<K, V> map;
+
+		KeySet(RelaxedAVLTreeMap<K, V> map) {
+			this.map = map;
+		}
+
+		@Override
+		public Iterator<K> iterator() {
+			return map.new MappingIterator<K>() {
+				@Override
+				K element(K key, V value) {
+					return key;
+				}
+			};
+		}
+
+		@Override
+		public Iterator<K> descendingIterator() {
+			return descendingSet().iterator();
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return map.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return map.containsKey(o);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			return map.remove(o) != null;
+		}
+
+		@Override
+		public void clear() {
+			map.clear();
+		}
+
+		@Override
+		public Comparator<? super K> comparator() {
+			return map.comparator();
+		}
+
+		@Override
+		public K first() {
+			return map.firstKey();
+		}
+
+		@Override
+		public K last() {
+			return map.lastKey();
+		}
+
+		@Override
+		public K lower(K key) {
+			return map.lowerKey(key);
+		}
+
+		@Override
+		public K floor(K key) {
+			return map.floorKey(key);
+		}
+
+		@Override
+		public K ceiling(K key) {
+			return map.ceilingKey(key);
+		}
+
+		@Override
+		public K higher(K key) {
+			return map.higherKey(key);
+		}
+
+		@Override
+		public K pollFirst() {
+			Map.Entry<K, V> e = map.pollFirstEntry();
+			return e == null ? null : e.getKey();
+		}
+
+		@Override
+		public K pollLast() {
+			Map.Entry<K, V> e = map.pollLastEntry();
+			return e == null ? null : e.getKey();
+		}
+
+		@Override
+		public NavigableSet<K> descendingSet() {
+			return new KeySet<K, V>(map.descendingMap());
+		}
+
+		@Override
+		public NavigableSet<K> subSet(K fromElement, boolean fromInclusive,
+				K toElement, boolean toInclusive) {
+			return new KeySet<K, V>(map.subMap(fromElement, fromInclusive,
+					toElement, toInclusive));
+		}
+
+		@Override
+		public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+			return new KeySet<K, V>(map.headMap(toElement, inclusive));
+		}
+
+		@Override
+		public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+			return new KeySet<K, V>(map.tailMap(fromElement, inclusive));
+		}
+
+		@Override
+		public SortedSet<K> subSet(K fromElement, K toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		@Override
+		public SortedSet<K> headSet(K toElement) {
+			return headSet(toElement, false);
+		}
+
+		@Override
+		public SortedSet<K> tailSet(K fromElement) {
+			return tailSet(fromElement, true);
+		}
+	}
+}
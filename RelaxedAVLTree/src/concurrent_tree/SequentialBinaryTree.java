@@ -1,7 +1,12 @@
 package concurrent_tree;
 
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Random;
+import java.util.function.IntFunction;
 
 /**
  * Sequential Binary Tree
@@ -22,6 +27,7 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 	 * Local variables and definitions.
 	 */
 	Node<T> root;
+	long size;
 	
 	/**
 	 * Instantiates an empty sequential binary tree for use.
@@ -29,6 +35,50 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 	public SequentialBinaryTree() {
 		root = null;
 	}
+
+	/**
+	 * Builds a balanced tree holding data, dropping duplicates.  See BulkLoad
+	 * for how the input is sorted and built.
+	 *
+	 * @param data The data objects to load, in any order
+	 * @return A new tree holding the data
+	 */
+	public static <T extends Comparable<? super T>> SequentialBinaryTree<T>
+			bulkLoad(Collection<? extends T> data) {
+		T keys[] = BulkLoad.sortedUnique(data);
+		return buildSorted(keys.length, i -> keys[i]);
+	}
+
+	/**
+	 * Reloads a tree from a checkpoint written by Checkpoint.write, building
+	 * it straight from the mapped file.
+	 *
+	 * @param file The checkpoint file
+	 * @return A new tree holding the checkpointed keys
+	 */
+	public static SequentialBinaryTree<Integer> load(Path file)
+			throws IOException {
+		IntBuffer keys = Checkpoint.read(file);
+		return buildSorted(keys.limit(), keys::get);
+	}
+
+	/**
+	 * Builds a balanced tree over count keys that are already sorted and
+	 * unique, where key(i) returns the i'th.
+	 */
+	private static <T extends Comparable<? super T>> SequentialBinaryTree<T>
+			buildSorted(int count, IntFunction<? extends T> key) {
+		SequentialBinaryTree<T> tree = new SequentialBinaryTree<T>();
+		tree.root = BulkLoad.build(0, count,
+				(BulkLoad.NodeBuilder<Node<T>>) (i, left, right) -> {
+			Node<T> node = new Node<T>(key.apply(i));
+			node.left = left;
+			node.right = right;
+			return node;
+		});
+		tree.size = count;
+		return tree;
+	}
 	
 	/**
 	 * Inserts new data into the tree.
@@ -71,6 +121,7 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 			else
 				parentNode.right = newNode;
 		}
+		size++;
 		return true;
 	}
 
@@ -125,6 +176,7 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 						replacement.left = curNode.left;
 						replacement.right = curNode.right;
 					}
+					size--;
 					return curNode.data;
 				}
 			}
@@ -214,6 +266,62 @@ public class SequentialBinaryTree<T extends Comparable<? super T>>
 		return false;
 	}
 	
+	/**
+	 * Returns the smallest object in the tree.
+	 */
+	@Override
+	public T first() {
+		return successor(null, false);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is >= data.
+	 */
+	@Override
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+
+	/**
+	 * Returns the smallest object in the tree that is > data.
+	 */
+	@Override
+	public T higher(T data) {
+		return successor(data, false);
+	}
+
+	/**
+	 * Returns the number of objects in the tree.
+	 */
+	@Override
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Searches for data, remembering the last node where the search turned
+	 * left.  A null data finds the smallest object.
+	 */
+	private T successor(T data, boolean inclusive) {
+		
+		Node<T> curNode = root;
+		T candidate = null;
+		int compare = 0;
+		
+		while(curNode != null) {
+			compare = data == null ? 1 : curNode.data.compareTo(data);
+			if(compare == 0 && inclusive)
+				return curNode.data;
+			if(compare > 0) {
+				candidate = curNode.data;
+				curNode = curNode.left;
+			} else {
+				curNode = curNode.right;
+			}
+		}
+		return candidate;
+	}
+	
 	/**
 	 * Performs a depth-first search of the tree, printing out the data of each
 	 * node.
@@ -0,0 +1,453 @@
+package concurrent_tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Sharded Concurrent Tree
+ *
+ * Splits the key space into range partitions, each backed by its own tree,
+ * so that operations on different ranges never touch the same head lock or
+ * root.  Shard i holds the objects in [boundaries[i - 1], boundaries[i]);
+ * the first and last shards are open ended.  An operation finds its shard by
+ * a binary search of the boundary array and then runs entirely inside that
+ * shard's tree.
+ *
+ * Shards can be re-partitioned online.  rebalance moves the boundary between
+ * the two adjacent shards whose sizes differ the most to the middle of their
+ * combined contents, and if maxImbalance is set this happens automatically
+ * whenever an insert leaves a shard more than maxImbalance times the average
+ * size.  Each shard has a StampedLock that is only write locked while that
+ * shard is being re-partitioned.  Inserts and removes hold their shard's
+ * read lock, and contains just validates an optimistic read stamp, so every
+ * shard except the two being changed keeps running.  Each operation re-checks
+ * the boundary array after locking its shard and retries if the shard no
+ * longer owns its key.
+ *
+ * first, ceiling and higher walk the shards in order and start over if the
+ * shards are re-partitioned while they run, so scans across shards are as
+ * weakly consistent as the shards' own.  size, rank, select and countRange
+ * take every shard they don't need to search from its count instead.
+ *
+ */
+public class ShardedConcurrentTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	/**
+	 * One in this many inserts checks whether the shards are imbalanced.
+	 */
+	static final int CHECK_INTERVAL = 1024;
+
+	/**
+	 * Adjacent shards are only re-partitioned if their sizes differ by more
+	 * than 1/MIN_SKEW of their combined size.
+	 */
+	static final int MIN_SKEW = 4;
+
+	/**
+	 * The boundaries and the shards they route to.  Replaced as a whole when
+	 * a boundary moves; the shards themselves never change.
+	 */
+	private static final class Layout<T> {
+		final T boundaries[];
+
+		Layout(T boundaries[]) {
+			this.boundaries = boundaries;
+		}
+	}
+
+	private final ConcurrentBinaryTree<T> shards[];
+	private final StampedLock shardLocks[];
+	private final LongAdder sizes[];
+	private final ReentrantLock rebalanceLock = new ReentrantLock();
+	private final double maxImbalance;
+	private volatile Layout<T> layout;
+
+	/**
+	 * Instantiates a sharded tree with boundaries.length + 1 shards that are
+	 * never re-partitioned automatically.
+	 *
+	 * @param boundaries Strictly ascending split points between shards
+	 * @param factory Creates the empty tree backing each shard
+	 */
+	public ShardedConcurrentTree(T boundaries[],
+			Supplier<? extends ConcurrentBinaryTree<T>> factory) {
+		this(boundaries, factory, 0);
+	}
+
+	/**
+	 * Instantiates a sharded tree with boundaries.length + 1 shards.
+	 *
+	 * @param boundaries Strictly ascending split points between shards
+	 * @param factory Creates the empty tree backing each shard
+	 * @param maxImbalance Re-partition automatically once a shard holds this
+	 * many times the average shard size, or 0 to only re-partition when
+	 * rebalance is called
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedConcurrentTree(T boundaries[],
+			Supplier<? extends ConcurrentBinaryTree<T>> factory,
+			double maxImbalance) {
+		for(int i = 1; i < boundaries.length; i++) {
+			if(boundaries[i - 1].compareTo(boundaries[i]) >= 0)
+				throw new IllegalArgumentException(
+						"Boundaries must be strictly ascending");
+		}
+		int count = boundaries.length + 1;
+		shards = (ConcurrentBinaryTree<T>[]) new ConcurrentBinaryTree<?>[count];
+		shardLocks = new StampedLock[count];
+		sizes = new LongAdder[count];
+		for(int i = 0; i < count; i++) {
+			shards[i] = factory.get();
+			shardLocks[i] = new StampedLock();
+			sizes[i] = new LongAdder();
+		}
+		this.maxImbalance = maxImbalance;
+		layout = new Layout<T>(boundaries.clone());
+	}
+
+	/**
+	 * Returns the index of the shard that owns data under layout.
+	 */
+	private static <T extends Comparable<? super T>> int shardIndex(
+			Layout<T> layout, T data) {
+		T boundaries[] = layout.boundaries;
+		int lo = 0;
+		int hi = boundaries.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(data.compareTo(boundaries[mid]) < 0)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Runs op on the index of the shard that owns data, with that shard read
+	 * locked.
+	 */
+	private <R> R withShard(T data, IntFunction<R> op) {
+		while(true) {
+			int shard = shardIndex(layout, data);
+			long stamp = shardLocks[shard].readLock();
+			try {
+				//The shard's range can't move while we hold its read lock
+				if(shardIndex(layout, data) == shard)
+					return op.apply(shard);
+			} finally {
+				shardLocks[shard].unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Inserts data into the shard that owns it.
+	 */
+	@Override
+	public boolean insert(T data) {
+		boolean inserted = withShard(data, shard -> {
+			if(!shards[shard].insert(data))
+				return false;
+			sizes[shard].increment();
+			return true;
+		});
+
+		if(inserted && maxImbalance > 0
+				&& ThreadLocalRandom.current().nextInt(CHECK_INTERVAL) == 0
+				&& isImbalanced())
+			tryRebalance();
+		return inserted;
+	}
+
+	/**
+	 * Removes data from the shard that owns it.
+	 */
+	@Override
+	public T remove(T data) {
+		return withShard(data, shard -> {
+			T removed = shards[shard].remove(data);
+			if(removed != null)
+				sizes[shard].decrement();
+			return removed;
+		});
+	}
+
+	/**
+	 * Searches the shard that owns data without locking it, unless the shard
+	 * is being re-partitioned.
+	 */
+	@Override
+	public boolean contains(T data) {
+		Layout<T> current = layout;
+		int shard = shardIndex(current, data);
+		long stamp = shardLocks[shard].tryOptimisticRead();
+		if(stamp != 0) {
+			boolean found = shards[shard].contains(data);
+			if(shardLocks[shard].validate(stamp) && layout == current)
+				return found;
+		}
+		return withShard(data, s -> shards[s].contains(data));
+	}
+
+	@Override
+	public T first() {
+		return successor(null, false);
+	}
+
+	@Override
+	public T ceiling(T data) {
+		return successor(data, true);
+	}
+
+	@Override
+	public T higher(T data) {
+		return successor(data, false);
+	}
+
+	/**
+	 * Asks the shard that owns data for its successor, then the first object
+	 * of each later shard until one is found.  Starts over if a boundary
+	 * moved in the meantime, since objects may have moved between shards
+	 * that were already searched and ones that weren't.
+	 */
+	private T successor(T data, boolean inclusive) {
+		while(true) {
+			Layout<T> current = layout;
+			int owner = data == null ? -1 : shardIndex(current, data);
+			T found = null;
+			for(int shard = Math.max(owner, 0);
+					shard < shards.length && found == null; shard++) {
+				long stamp = shardLocks[shard].readLock();
+				try {
+					if(shard != owner)
+						found = shards[shard].first();
+					else if(inclusive)
+						found = shards[shard].ceiling(data);
+					else
+						found = shards[shard].higher(data);
+				} finally {
+					shardLocks[shard].unlockRead(stamp);
+				}
+			}
+			if(layout == current)
+				return found;
+		}
+	}
+
+	/**
+	 * Returns the sum of the shard counts.
+	 */
+	@Override
+	public long size() {
+		long size = 0;
+		for(LongAdder shardSize : sizes)
+			size += shardSize.sum();
+		return size;
+	}
+
+	/**
+	 * Adds up the counts of the shards below the one that owns data and asks
+	 * only the owner to rank data among its own objects.
+	 */
+	@Override
+	public long rank(T data) {
+		while(true) {
+			Layout<T> current = layout;
+			int owner = shardIndex(current, data);
+			long rank = 0;
+			for(int shard = 0; shard <= owner; shard++) {
+				long stamp = shardLocks[shard].readLock();
+				try {
+					if(shard < owner)
+						rank += sizes[shard].sum();
+					else
+						rank += shards[shard].rank(data);
+				} finally {
+					shardLocks[shard].unlockRead(stamp);
+				}
+			}
+			if(layout == current)
+				return rank;
+		}
+	}
+
+	/**
+	 * Skips whole shards by their counts until it reaches the one holding
+	 * the k'th object, then selects within that shard.
+	 */
+	@Override
+	public T select(long k) {
+		if(k < 0)
+			return null;
+		while(true) {
+			Layout<T> current = layout;
+			long remaining = k;
+			T found = null;
+			for(int shard = 0; shard < shards.length; shard++) {
+				long stamp = shardLocks[shard].readLock();
+				try {
+					long shardSize = sizes[shard].sum();
+					if(remaining < shardSize) {
+						found = shards[shard].select(remaining);
+						break;
+					}
+					remaining -= shardSize;
+				} finally {
+					shardLocks[shard].unlockRead(stamp);
+				}
+			}
+			if(layout == current)
+				return found;
+		}
+	}
+
+	/**
+	 * Counts the range within the shards that hold lo and hi, and adds the
+	 * counts of the shards in between without searching them.
+	 */
+	@Override
+	public long countRange(T lo, T hi) {
+		if(lo.compareTo(hi) >= 0)
+			return 0;
+		while(true) {
+			Layout<T> current = layout;
+			int first = shardIndex(current, lo);
+			int last = shardIndex(current, hi);
+			long count = 0;
+			for(int shard = first; shard <= last; shard++) {
+				long stamp = shardLocks[shard].readLock();
+				try {
+					if(shard == first || shard == last)
+						count += shards[shard].countRange(lo, hi);
+					else
+						count += sizes[shard].sum();
+				} finally {
+					shardLocks[shard].unlockRead(stamp);
+				}
+			}
+			if(layout == current)
+				return count;
+		}
+	}
+
+	/**
+	 * Returns the number of objects in each shard.
+	 */
+	public long[] shardSizes() {
+		long result[] = new long[sizes.length];
+		for(int i = 0; i < sizes.length; i++)
+			result[i] = sizes[i].sum();
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the current boundaries.
+	 */
+	public T[] boundaries() {
+		return layout.boundaries.clone();
+	}
+
+	private boolean isImbalanced() {
+		long total = 0;
+		long largest = 0;
+		for(int i = 0; i < sizes.length; i++) {
+			long size = sizes[i].sum();
+			total += size;
+			largest = Math.max(largest, size);
+		}
+		return largest > maxImbalance * total / sizes.length;
+	}
+
+	/**
+	 * Re-partitions unless another thread already is.
+	 */
+	private void tryRebalance() {
+		if(rebalanceLock.tryLock()) {
+			try {
+				rebalanceOnce();
+			} finally {
+				rebalanceLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Moves the boundary between the two adjacent shards whose sizes differ
+	 * the most so that they end up holding the same number of objects.  Pairs
+	 * that differ by less than 1/MIN_SKEW of their combined size are left
+	 * alone.  Only the two shards are blocked while their objects are moved.
+	 *
+	 * @return True if a boundary was moved
+	 */
+	public boolean rebalance() {
+		rebalanceLock.lock();
+		try {
+			return rebalanceOnce();
+		} finally {
+			rebalanceLock.unlock();
+		}
+	}
+
+	private boolean rebalanceOnce() {
+		int left = -1;
+		long worst = 0;
+		for(int i = 0; i + 1 < sizes.length; i++) {
+			long a = sizes[i].sum();
+			long b = sizes[i + 1].sum();
+			long difference = Math.abs(a - b);
+			if(difference > worst && difference > (a + b) / MIN_SKEW) {
+				worst = difference;
+				left = i;
+			}
+		}
+		if(left < 0)
+			return false;
+
+		int right = left + 1;
+		long leftStamp = shardLocks[left].writeLock();
+		long rightStamp = shardLocks[right].writeLock();
+		try {
+			//Both shards are quiet, so their contents are exact
+			List<T> contents = new ArrayList<T>();
+			shards[left].forEach(contents::add);
+			int leftSize = contents.size();
+			shards[right].forEach(contents::add);
+			int middle = contents.size() / 2;
+			if(middle == leftSize || middle == 0)
+				return false;
+
+			//The moved objects are all at one end of each shard, so move them
+			//as a batch rather than growing a spine one insert at a time
+			T boundary = contents.get(middle);
+			if(middle < leftSize) {
+				List<T> moved = contents.subList(middle, leftSize);
+				shards[left].removeAll(moved);
+				shards[right].insertAll(moved);
+			} else {
+				List<T> moved = contents.subList(leftSize, middle);
+				shards[right].removeAll(moved);
+				shards[left].insertAll(moved);
+			}
+			sizes[left].add(middle - leftSize);
+			sizes[right].add(leftSize - middle);
+
+			T boundaries[] = Arrays.copyOf(layout.boundaries,
+					layout.boundaries.length);
+			boundaries[left] = boundary;
+			layout = new Layout<T>(boundaries);
+			return true;
+		} finally {
+			shardLocks[right].unlockWrite(rightStamp);
+			shardLocks[left].unlockWrite(leftStamp);
+		}
+	}
+}
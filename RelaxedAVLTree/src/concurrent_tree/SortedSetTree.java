@@ -0,0 +1,194 @@
+package concurrent_tree;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sorted Set Tree
+ *
+ * Adapts the sorted sets that ship with the JDK to ConcurrentBinaryTree, so
+ * the test benches can measure the project's trees against them.  There are
+ * three baselines:
+ *
+ * concurrentSkipListSet - a ConcurrentSkipListSet, the JDK's lock-free
+ * ordered set, used as is.
+ *
+ * synchronizedTreeSet - a TreeSet behind Collections.synchronizedNavigableSet,
+ * so every operation holds the set's monitor, like a coarse-grained tree.
+ *
+ * readWriteLockedTreeSet - a TreeSet guarded by a ReentrantReadWriteLock, so
+ * lookups run in parallel with each other and updates run alone.
+ *
+ * size is the set's own size, which ConcurrentSkipListSet computes by
+ * walking the whole set.
+ *
+ * @param <T> Generic data type that the tree stores.
+ */
+public class SortedSetTree<T extends Comparable<? super T>>
+		implements ConcurrentBinaryTree<T> {
+
+	private final NavigableSet<T> set;
+
+	//Held around every access if not null
+	private final Lock readLock;
+	private final Lock writeLock;
+
+	private SortedSetTree(NavigableSet<T> set, ReadWriteLock lock) {
+		this.set = set;
+		readLock = lock == null ? null : lock.readLock();
+		writeLock = lock == null ? null : lock.writeLock();
+	}
+
+	/**
+	 * Creates an empty tree backed by a ConcurrentSkipListSet.
+	 */
+	public static <T extends Comparable<? super T>> SortedSetTree<T>
+			concurrentSkipListSet() {
+		return new SortedSetTree<T>(new ConcurrentSkipListSet<T>(), null);
+	}
+
+	/**
+	 * Creates an empty tree backed by a synchronized TreeSet.
+	 */
+	public static <T extends Comparable<? super T>> SortedSetTree<T>
+			synchronizedTreeSet() {
+		return new SortedSetTree<T>(
+				Collections.synchronizedNavigableSet(new TreeSet<T>()), null);
+	}
+
+	/**
+	 * Creates an empty tree backed by a TreeSet and a read-write lock.
+	 */
+	public static <T extends Comparable<? super T>> SortedSetTree<T>
+			readWriteLockedTreeSet() {
+		return new SortedSetTree<T>(new TreeSet<T>(),
+				new ReentrantReadWriteLock());
+	}
+
+	@Override
+	public boolean insert(T data) {
+		if(writeLock == null)
+			return set.add(data);
+		writeLock.lock();
+		try {
+			return set.add(data);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public T remove(T data) {
+		boolean removed;
+		if(writeLock == null) {
+			removed = set.remove(data);
+		} else {
+			writeLock.lock();
+			try {
+				removed = set.remove(data);
+			} finally {
+				writeLock.unlock();
+			}
+		}
+		return removed ? data : null;
+	}
+
+	@Override
+	public boolean contains(T data) {
+		if(readLock == null)
+			return set.contains(data);
+		readLock.lock();
+		try {
+			return set.contains(data);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts the whole batch with one call to addAll, under a single lock
+	 * acquisition where there is a lock.
+	 */
+	@Override
+	public int insertAll(Collection<? extends T> batch) {
+		if(writeLock == null)
+			return addAll(batch);
+		writeLock.lock();
+		try {
+			return addAll(batch);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private int addAll(Collection<? extends T> batch) {
+		int before = set.size();
+		set.addAll(batch);
+		return set.size() - before;
+	}
+
+	@Override
+	public T first() {
+		if(readLock == null)
+			return smallest();
+		readLock.lock();
+		try {
+			return smallest();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	//first throws if the set is empty, which a concurrent set can become at
+	//any time, so check by catching rather than with isEmpty
+	private T smallest() {
+		try {
+			return set.first();
+		} catch(NoSuchElementException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public T ceiling(T data) {
+		if(readLock == null)
+			return set.ceiling(data);
+		readLock.lock();
+		try {
+			return set.ceiling(data);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public T higher(T data) {
+		if(readLock == null)
+			return set.higher(data);
+		readLock.lock();
+		try {
+			return set.higher(data);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public long size() {
+		if(readLock == null)
+			return set.size();
+		readLock.lock();
+		try {
+			return set.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package concurrent_tree;
+
+/**
+ * Spin Lock Class
+ *
+ * Common base for the spin locks a tree can use for its nodes.  They are
+ * NodeLocks, with only lock, tryLock and unlock, which is all the trees need.
+ * Spinning threads yield every YIELD_INTERVAL spins so that a lock holder
+ * that was descheduled gets to run when there are more threads than cores.
+ *
+ * The queue locks (MCSLock and CLHLock) need a queue node per lock a thread
+ * holds, and a thread holds up to three at once while going hand over hand.
+ * Rather than a ThreadLocal per lock, which would cost every tree node a map
+ * entry in every thread that ever locked it, each thread keeps one list of
+ * the queue nodes it holds, tagged with their locks, and a free list to
+ * reuse them from.
+ *
+ */
+abstract class SpinLock implements NodeLock {
+
+	static final int YIELD_INTERVAL = 1 << 7;
+
+	/**
+	 * Queue node of MCSLock and CLHLock.
+	 */
+	static final class QNode {
+		volatile boolean locked;
+		volatile QNode next;
+
+		//Only touched by the thread holding the node
+		QNode pred;
+		SpinLock owner;
+		QNode link;
+	}
+
+	private static final class Holdings {
+		QNode held;
+		QNode free;
+	}
+
+	private static final ThreadLocal<Holdings> holdings =
+			ThreadLocal.withInitial(Holdings::new);
+
+	/**
+	 * Spins once, yielding every YIELD_INTERVAL calls.
+	 *
+	 * @param spins How many times the caller has spun so far
+	 */
+	static void pause(int spins) {
+		if((spins & (YIELD_INTERVAL - 1)) == YIELD_INTERVAL - 1)
+			Thread.yield();
+		else
+			Thread.onSpinWait();
+	}
+
+	/**
+	 * Returns an unused queue node of the calling thread.
+	 */
+	static QNode take() {
+		Holdings h = holdings.get();
+		QNode node = h.free;
+		if(node == null)
+			return new QNode();
+		h.free = node.link;
+		node.link = null;
+		return node;
+	}
+
+	/**
+	 * Returns a queue node nobody else can still be looking at to the calling
+	 * thread's free list.
+	 */
+	static void recycle(QNode node) {
+		Holdings h = holdings.get();
+		node.next = null;
+		node.pred = null;
+		node.owner = null;
+		node.link = h.free;
+		h.free = node;
+	}
+
+	/**
+	 * Records that the calling thread holds this lock through node.
+	 */
+	void hold(QNode node) {
+		Holdings h = holdings.get();
+		node.owner = this;
+		node.link = h.held;
+		h.held = node;
+	}
+
+	/**
+	 * Forgets and returns the queue node through which the calling thread
+	 * holds this lock.
+	 */
+	QNode release() {
+		Holdings h = holdings.get();
+		QNode prev = null;
+		QNode node = h.held;
+		while(node.owner != this) {
+			prev = node;
+			node = node.link;
+		}
+		if(prev == null)
+			h.held = node.link;
+		else
+			prev.link = node.link;
+		node.link = null;
+		node.owner = null;
+		return node;
+	}
+}
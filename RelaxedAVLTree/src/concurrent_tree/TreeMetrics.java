@@ -0,0 +1,249 @@
+package concurrent_tree;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Tree Metrics Class
+ *
+ * Contention counters for a tree, kept in LongAdders so that threads
+ * recording at the same time update different cells rather than fighting
+ * over one counter.  Operations are counted by kind.  Lock acquisitions, the
+ * ones that found the lock held, the time spent waiting for it, optimistic
+ * retries and rotations are counted by the depth at which they happened:
+ * depth 0 is the tree's root slot (the head lock or root holder), depth 1
+ * the root node, and so on, with everything at MAX_DEPTH - 1 or deeper
+ * counted together.
+ *
+ * Trees only record metrics if they were created with a TreeMetrics; without
+ * one the cost is a null check on each lock.  Several trees can share one
+ * TreeMetrics, such as the shards of a ShardedConcurrentTree.  Uncontended
+ * acquisitions are not timed, so enabling metrics costs one extra tryLock
+ * and a LongAdder increment per lock rather than two calls to nanoTime.
+ *
+ */
+public class TreeMetrics implements TreeMetricsMBean {
+
+	static final int MAX_DEPTH = 64;
+
+	/**
+	 * Kinds of operation counted by operation().
+	 */
+	public enum Operation {
+		INSERT, REMOVE, CONTAINS, SCAN
+	}
+
+	private final LongAdder operations[] =
+			newAdders(Operation.values().length);
+	private final LongAdder acquisitions[] = newAdders(MAX_DEPTH);
+	private final LongAdder contended[] = newAdders(MAX_DEPTH);
+	private final LongAdder waitNanos[] = newAdders(MAX_DEPTH);
+	private final LongAdder retries[] = newAdders(MAX_DEPTH);
+	private final LongAdder rotations[] = newAdders(MAX_DEPTH);
+
+	private static LongAdder[] newAdders(int count) {
+		LongAdder adders[] = new LongAdder[count];
+		for(int i = 0; i < count; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	private static int bucket(int depth) {
+		return Math.min(depth, MAX_DEPTH - 1);
+	}
+
+	/**
+	 * Counts count operations of the given kind.
+	 */
+	public void operation(Operation kind, int count) {
+		operations[kind.ordinal()].add(count);
+	}
+
+	/**
+	 * Takes lock, counting the acquisition at depth and, if the lock was
+	 * held, how long it took.
+	 */
+	void lock(NodeLock lock, int depth) {
+		if(lock.tryLock()) {
+			acquisitions[bucket(depth)].increment();
+			return;
+		}
+		long start = System.nanoTime();
+		lock.lock();
+		acquired(depth, System.nanoTime() - start);
+	}
+
+	/**
+	 * Takes the lock of node, counting it like lock(NodeLock, int).
+	 */
+	public void lock(LockableNode<?> node, int depth) {
+		if(node.tryLock()) {
+			acquisitions[bucket(depth)].increment();
+			return;
+		}
+		long start = System.nanoTime();
+		node.lock();
+		acquired(depth, System.nanoTime() - start);
+	}
+
+	private void acquired(int depth, long nanos) {
+		int b = bucket(depth);
+		acquisitions[b].increment();
+		contended[b].increment();
+		waitNanos[b].add(nanos);
+	}
+
+	/**
+	 * Counts an optimistic traversal that had to go back up from depth.
+	 */
+	public void retry(int depth) {
+		retries[bucket(depth)].increment();
+	}
+
+	/**
+	 * Counts a rotation of the node at depth.
+	 */
+	public void rotation(int depth) {
+		rotations[bucket(depth)].increment();
+	}
+
+	/**
+	 * Returns the number of operations of the given kind so far.
+	 */
+	public long operations(Operation kind) {
+		return operations[kind.ordinal()].sum();
+	}
+
+	private static long sum(LongAdder adders[]) {
+		long total = 0;
+		for(LongAdder adder : adders)
+			total += adder.sum();
+		return total;
+	}
+
+	private static long[] sums(LongAdder adders[]) {
+		long result[] = new long[adders.length];
+		for(int i = 0; i < adders.length; i++)
+			result[i] = adders[i].sum();
+		return result;
+	}
+
+	@Override
+	public long getInserts() {
+		return operations(Operation.INSERT);
+	}
+
+	@Override
+	public long getRemoves() {
+		return operations(Operation.REMOVE);
+	}
+
+	@Override
+	public long getContains() {
+		return operations(Operation.CONTAINS);
+	}
+
+	@Override
+	public long getScans() {
+		return operations(Operation.SCAN);
+	}
+
+	@Override
+	public long getOperations() {
+		return sum(operations);
+	}
+
+	@Override
+	public long getLockAcquisitions() {
+		return sum(acquisitions);
+	}
+
+	@Override
+	public long getContendedAcquisitions() {
+		return sum(contended);
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return sum(waitNanos);
+	}
+
+	@Override
+	public long getRetries() {
+		return sum(retries);
+	}
+
+	@Override
+	public long getRotations() {
+		return sum(rotations);
+	}
+
+	@Override
+	public long[] getLockAcquisitionsByDepth() {
+		return sums(acquisitions);
+	}
+
+	@Override
+	public long[] getContendedAcquisitionsByDepth() {
+		return sums(contended);
+	}
+
+	@Override
+	public long[] getLockWaitNanosByDepth() {
+		return sums(waitNanos);
+	}
+
+	@Override
+	public long[] getRetriesByDepth() {
+		return sums(retries);
+	}
+
+	@Override
+	public long[] getRotationsByDepth() {
+		return sums(rotations);
+	}
+
+	/**
+	 * Zeroes every counter.  Counts recorded while this runs may or may not
+	 * survive it.
+	 */
+	@Override
+	public void reset() {
+		for(LongAdder adders[] : new LongAdder[][] { operations,
+				acquisitions, contended, waitNanos, retries, rotations }) {
+			for(LongAdder adder : adders)
+				adder.reset();
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 *
+	 * @param name Tells this tree's metrics apart from other trees'
+	 * @return The name registered, for unregistering later
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"concurrent_tree:type=TreeMetrics,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		return objectName;
+	}
+
+	/**
+	 * Returns a one-line summary of the totals.
+	 */
+	@Override
+	public String toString() {
+		return getOperations() + " operations (" + getInserts()
+				+ " inserts, " + getRemoves() + " removes, " + getContains()
+				+ " contains, " + getScans() + " scans), "
+				+ getLockAcquisitions() + " lock acquisitions ("
+				+ getContendedAcquisitions() + " contended, "
+				+ getLockWaitNanos() + " ns waiting), " + getRetries()
+				+ " retries, " + getRotations() + " rotations";
+	}
+}
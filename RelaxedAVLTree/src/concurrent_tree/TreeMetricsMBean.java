@@ -0,0 +1,42 @@
+package concurrent_tree;
+
+/**
+ * Management interface of TreeMetrics, so that a tree's counters can be
+ * watched from JConsole or any other JMX client while a benchmark runs.
+ * Every getter returns a sum over the depths; the ByDepth ones return one
+ * entry per depth, the last of which includes everything deeper.
+ */
+public interface TreeMetricsMBean {
+
+	long getInserts();
+
+	long getRemoves();
+
+	long getContains();
+
+	long getScans();
+
+	long getOperations();
+
+	long getLockAcquisitions();
+
+	long getContendedAcquisitions();
+
+	long getLockWaitNanos();
+
+	long getRetries();
+
+	long getRotations();
+
+	long[] getLockAcquisitionsByDepth();
+
+	long[] getContendedAcquisitionsByDepth();
+
+	long[] getLockWaitNanosByDepth();
+
+	long[] getRetriesByDepth();
+
+	long[] getRotationsByDepth();
+
+	void reset();
+}
@@ -0,0 +1,69 @@
+package concurrent_tree;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual Threads
+ *
+ * Creates virtual threads when the JVM has them (Java 21 and later) and
+ * platform threads when it doesn't.  The project is compiled for Java 17,
+ * so the virtual thread API is looked up reflectively, once, when this class
+ * is loaded; after that, creating a thread is a plain ThreadFactory call.
+ *
+ */
+public final class VirtualThreads {
+
+	private static final ThreadFactory FACTORY = lookupFactory();
+
+	private VirtualThreads() {
+	}
+
+	private static ThreadFactory lookupFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+		} catch(ReflectiveOperationException | RuntimeException e) {
+			//Older JVM, or virtual threads are a disabled preview feature
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if threads created here are virtual.
+	 */
+	public static boolean isSupported() {
+		return FACTORY != null;
+	}
+
+	/**
+	 * Creates an unstarted thread running task, virtual if supported.
+	 */
+	public static Thread newThread(Runnable task) {
+		if(FACTORY == null)
+			return new Thread(task);
+		return FACTORY.newThread(task);
+	}
+
+	/**
+	 * Returns an executor that runs every task in a new thread, if threads
+	 * are virtual.  Otherwise one thread per task would be far too expensive,
+	 * so tasks run on a shared cached pool of daemon platform threads.
+	 */
+	public static Executor threadPerTaskExecutor() {
+		if(FACTORY == null)
+			return FallbackPool.POOL;
+		return task -> FACTORY.newThread(task).start();
+	}
+
+	//Only created if it is needed
+	private static final class FallbackPool {
+		static final Executor POOL = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
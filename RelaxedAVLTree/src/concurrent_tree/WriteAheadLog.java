@@ -0,0 +1,250 @@
+package concurrent_tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-Ahead Log Class
+ *
+ * An append-only log of int-keyed tree mutations with group commit.  Writers
+ * append records to an in-memory buffer and then wait for them to become
+ * durable.  The first waiter to find no flush in progress becomes the
+ * flusher: it takes the whole buffer, writes it as one batch and forces the
+ * file once, while records appended in the meantime collect in a second
+ * buffer for the next flush.  Every writer whose records were in the batch
+ * shares that single fsync, so the more threads are writing, the more
+ * records each fsync covers.
+ *
+ * Each batch is written with its length and a CRC32 of its records.  Replay
+ * stops at the first batch that is incomplete or fails its checksum, which
+ * is what a crash in the middle of a write leaves behind, and cuts it off
+ * the end of the file so that later batches are appended after the last
+ * good one.
+ *
+ */
+public class WriteAheadLog implements Closeable {
+
+	static final byte INSERT = 1;
+	static final byte REMOVE = 2;
+
+	static final int RECORD_BYTES = 5;
+	static final int BATCH_HEADER_BYTES = 8;
+
+	/**
+	 * Called for each record, in log order, while the log is replayed.
+	 */
+	public interface Replayer {
+		void replay(boolean insert, int key);
+	}
+
+	private final FileChannel channel;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushed = lock.newCondition();
+
+	//Guarded by lock
+	private ByteBuffer pending = newBuffer(1 << 16);
+	private ByteBuffer spare = newBuffer(1 << 16);
+	private long appended = 0;
+	private long durable = 0;
+	private boolean flushing = false;
+	private IOException failure = null;
+	private long batches = 0;
+
+	/**
+	 * Opens the log, creating it if it doesn't exist, and replays every
+	 * complete record already in it before returning.
+	 *
+	 * @param file The log file
+	 * @param replayer Receives the records found in the log
+	 */
+	public WriteAheadLog(Path file, Replayer replayer) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long end = replay(replayer);
+		channel.truncate(end);
+		channel.position(end);
+	}
+
+	private static ByteBuffer newBuffer(int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Reads batches from the start of the file until the end or the first
+	 * damaged batch.
+	 *
+	 * @return The offset just past the last good batch
+	 */
+	private long replay(Replayer replayer) throws IOException {
+		long size = channel.size();
+		long position = 0;
+		ByteBuffer header = newBuffer(BATCH_HEADER_BYTES);
+		CRC32 crc = new CRC32();
+
+		while(position + BATCH_HEADER_BYTES <= size) {
+			header.clear();
+			readFully(header, position);
+			int length = header.getInt(0);
+			int checksum = header.getInt(4);
+			if(length <= 0 || length % RECORD_BYTES != 0
+					|| position + BATCH_HEADER_BYTES + length > size)
+				break;
+
+			ByteBuffer records = newBuffer(length);
+			readFully(records, position + BATCH_HEADER_BYTES);
+			crc.reset();
+			crc.update(records.array(), 0, length);
+			if((int) crc.getValue() != checksum)
+				break;
+
+			for(int i = 0; i < length; i += RECORD_BYTES) {
+				replayer.replay(records.get(i) == INSERT,
+						records.getInt(i + 1));
+			}
+			position += BATCH_HEADER_BYTES + length;
+		}
+		return position;
+	}
+
+	private void readFully(ByteBuffer buffer, long position)
+			throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if(read < 0)
+				throw new IOException("Log ended early");
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Appends a record to the log without waiting for it to become durable.
+	 *
+	 * @param insert True for an insert, false for a remove
+	 * @param key The key that was inserted or removed
+	 * @return The sequence number to pass to sync
+	 */
+	public long append(boolean insert, int key) {
+		lock.lock();
+		try {
+			if(pending.remaining() < RECORD_BYTES) {
+				ByteBuffer bigger = newBuffer(pending.capacity() * 2);
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+			pending.put(insert ? INSERT : REMOVE);
+			pending.putInt(key);
+			return ++appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until every record up to and including sequence is on disk,
+	 * flushing the buffered records if no other thread is already doing so.
+	 *
+	 * @param sequence A sequence number returned by append
+	 */
+	public void sync(long sequence) throws IOException {
+		lock.lock();
+		try {
+			while(durable < sequence) {
+				if(failure != null)
+					throw new IOException("Log write failed", failure);
+				if(flushing) {
+					flushed.awaitUninterruptibly();
+					continue;
+				}
+
+				//Become the flusher for everything appended so far
+				flushing = true;
+				ByteBuffer batch = pending;
+				long batchEnd = appended;
+				pending = spare;
+				spare = null;
+				lock.unlock();
+				IOException error = null;
+				try {
+					write(batch);
+				} catch(IOException e) {
+					error = e;
+				} finally {
+					lock.lock();
+				}
+
+				batch.clear();
+				spare = batch;
+				flushing = false;
+				if(error != null)
+					failure = error;
+				else
+					durable = batchEnd;
+				batches++;
+				flushed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the records in batch (which is in write mode) as one batch and
+	 * forces them to disk.  Called without the lock held.
+	 */
+	private void write(ByteBuffer batch) throws IOException {
+		batch.flip();
+		int length = batch.remaining();
+		if(length == 0)
+			return;
+		CRC32 crc = new CRC32();
+		crc.update(batch.array(), 0, length);
+		ByteBuffer header = newBuffer(BATCH_HEADER_BYTES);
+		header.putInt(length);
+		header.putInt((int) crc.getValue());
+		header.flip();
+
+		ByteBuffer buffers[] = { header, batch };
+		while(batch.hasRemaining())
+			channel.write(buffers);
+		channel.force(false);
+	}
+
+	/**
+	 * Returns the number of flushes so far.  Each one cost a single fsync, so
+	 * the number of records logged divided by this is the group size.
+	 */
+	public long batches() {
+		lock.lock();
+		try {
+			return batches;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes any buffered records and closes the log.
+	 */
+	@Override
+	public void close() throws IOException {
+		long last;
+		lock.lock();
+		try {
+			last = appended;
+		} finally {
+			lock.unlock();
+		}
+		sync(last);
+		channel.close();
+	}
+}
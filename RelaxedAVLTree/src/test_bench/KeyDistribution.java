@@ -0,0 +1,253 @@
+package test_bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * KeyDistribution Class
+ *
+ * Chooses the keys a workload operates on.  Every key is in [0, keyRange).
+ * One instance is shared by all of a run's threads, and each thread passes in
+ * its own random number generator, so the only shared state is the insert
+ * counter of the sequential and latest distributions.
+ *
+ * The supported distributions are:
+ *
+ * uniform - every key is equally likely.
+ * zipfian - key popularity follows a Zipf law with exponent zipfTheta.  The
+ * ranks are scrambled with a hash so the popular keys are spread across the
+ * key range instead of packed into one subtree.
+ * hotspot - hotOpFraction of the operations go to a hot set made up of the
+ * first hotSetFraction of the key range, the rest are uniform over the
+ * remaining keys.
+ * sequential - inserts walk the key range in order; other operations pick
+ * uniformly among the keys inserted so far.
+ * latest - inserts walk the key range in order; other operations favour the
+ * most recently inserted keys, with a Zipf law over their age.
+ *
+ */
+public abstract class KeyDistribution {
+
+	protected final int keyRange;
+
+	protected KeyDistribution(int keyRange) {
+		this.keyRange = keyRange;
+	}
+
+	/**
+	 * Returns the key for a contains or remove.
+	 */
+	public abstract int nextKey(SplittableRandom random);
+
+	/**
+	 * Returns the key for an insert.  Only differs from nextKey for the
+	 * distributions that grow the key set in order.
+	 */
+	public int nextInsertKey(SplittableRandom random) {
+		return nextKey(random);
+	}
+
+	/**
+	 * Returns true if the preloaded keys should be the start of the key range
+	 * rather than a random subset of it.
+	 */
+	public boolean preloadsInOrder() {
+		return false;
+	}
+
+	/**
+	 * Tells the distribution that the first count keys of the range were
+	 * preloaded.  Only meaningful if preloadsInOrder returns true.
+	 */
+	public void preloaded(int count) {
+	}
+
+	/**
+	 * Creates the distribution described by the workload.
+	 */
+	public static KeyDistribution create(Workload workload) {
+		switch(workload.distribution) {
+		case "uniform":
+			return new Uniform(workload.keyRange);
+		case "zipfian":
+			return new Zipfian(workload.keyRange, workload.zipfTheta);
+		case "hotspot":
+			return new Hotspot(workload.keyRange, workload.hotSetFraction,
+					workload.hotOpFraction);
+		case "sequential":
+			return new Sequential(workload.keyRange);
+		case "latest":
+			return new Latest(workload.keyRange, workload.zipfTheta);
+		default:
+			throw new IllegalArgumentException("Unknown distribution: "
+					+ workload.distribution);
+		}
+	}
+
+	static final class Uniform extends KeyDistribution {
+
+		Uniform(int keyRange) {
+			super(keyRange);
+		}
+
+		@Override
+		public int nextKey(SplittableRandom random) {
+			return random.nextInt(keyRange);
+		}
+	}
+
+	/**
+	 * Draws ranks in [0, items) with a Zipf law, using the method of Gray et
+	 * al., "Quickly Generating Billion-Record Synthetic Databases".  The
+	 * setup is O(items), every draw is O(1).
+	 */
+	static final class ZipfGenerator {
+		final int items;
+		final double theta;
+		final double zetaN;
+		final double alpha;
+		final double eta;
+		final double halfPowTheta;
+
+		ZipfGenerator(int items, double theta) {
+			if(theta <= 0 || theta >= 1)
+				throw new IllegalArgumentException(
+						"zipfTheta must be in (0, 1): " + theta);
+			this.items = items;
+			this.theta = theta;
+			zetaN = zeta(items, theta);
+			alpha = 1.0 / (1.0 - theta);
+			eta = (1 - Math.pow(2.0 / items, 1 - theta))
+					/ (1 - zeta(2, theta) / zetaN);
+			halfPowTheta = 1 + Math.pow(0.5, theta);
+		}
+
+		private static double zeta(int n, double theta) {
+			double sum = 0;
+			for(int i = 1; i <= n; i++)
+				sum += 1 / Math.pow(i, theta);
+			return sum;
+		}
+
+		int next(SplittableRandom random) {
+			double u = random.nextDouble();
+			double uz = u * zetaN;
+			if(uz < 1)
+				return 0;
+			if(uz < halfPowTheta)
+				return 1;
+			int rank = (int) (items * Math.pow(eta * u - eta + 1, alpha));
+			return Math.min(rank, items - 1);
+		}
+	}
+
+	static final class Zipfian extends KeyDistribution {
+		final ZipfGenerator zipf;
+
+		Zipfian(int keyRange, double theta) {
+			super(keyRange);
+			zipf = new ZipfGenerator(keyRange, theta);
+		}
+
+		@Override
+		public int nextKey(SplittableRandom random) {
+			return scramble(zipf.next(random), keyRange);
+		}
+
+		/**
+		 * Maps a rank to a key with a 64-bit FNV-1a hash, so neighbouring
+		 * ranks land far apart in the tree.
+		 */
+		static int scramble(int rank, int keyRange) {
+			long hash = 0xCBF29CE484222325L;
+			for(int i = 0; i < 4; i++) {
+				hash ^= (rank >>> (i * 8)) & 0xFF;
+				hash *= 0x100000001B3L;
+			}
+			return (int) Math.floorMod(hash, (long) keyRange);
+		}
+	}
+
+	static final class Hotspot extends KeyDistribution {
+		final int hotKeys;
+		final double hotOpFraction;
+
+		Hotspot(int keyRange, double hotSetFraction, double hotOpFraction) {
+			super(keyRange);
+			if(hotSetFraction <= 0 || hotSetFraction > 1)
+				throw new IllegalArgumentException(
+						"hotSetFraction must be in (0, 1]: " + hotSetFraction);
+			this.hotKeys = Math.max(1, (int) (keyRange * hotSetFraction));
+			this.hotOpFraction = hotOpFraction;
+		}
+
+		@Override
+		public int nextKey(SplittableRandom random) {
+			if(hotKeys == keyRange || random.nextDouble() < hotOpFraction)
+				return random.nextInt(hotKeys);
+			return hotKeys + random.nextInt(keyRange - hotKeys);
+		}
+	}
+
+	/**
+	 * Base for the distributions whose inserts walk the key range in order.
+	 * Wraps around to the start once the whole range has been inserted.
+	 */
+	static abstract class Ordered extends KeyDistribution {
+		final AtomicInteger inserted = new AtomicInteger();
+
+		Ordered(int keyRange) {
+			super(keyRange);
+		}
+
+		@Override
+		public int nextInsertKey(SplittableRandom random) {
+			return Math.floorMod(inserted.getAndIncrement(), keyRange);
+		}
+
+		@Override
+		public boolean preloadsInOrder() {
+			return true;
+		}
+
+		@Override
+		public void preloaded(int count) {
+			inserted.set(count);
+		}
+
+		/**
+		 * Number of distinct keys inserted so far, at least one.
+		 */
+		int insertedKeys() {
+			return Math.max(1, Math.min(inserted.get(), keyRange));
+		}
+	}
+
+	static final class Sequential extends Ordered {
+
+		Sequential(int keyRange) {
+			super(keyRange);
+		}
+
+		@Override
+		public int nextKey(SplittableRandom random) {
+			return random.nextInt(insertedKeys());
+		}
+	}
+
+	static final class Latest extends Ordered {
+		final ZipfGenerator zipf;
+
+		Latest(int keyRange, double theta) {
+			super(keyRange);
+			zipf = new ZipfGenerator(keyRange, theta);
+		}
+
+		@Override
+		public int nextKey(SplittableRandom random) {
+			int newest = inserted.get() - 1;
+			int age = zipf.next(random) % insertedKeys();
+			return Math.floorMod(newest - age, keyRange);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package test_bench;
+
+/**
+ * LatencyHistogram Class
+ *
+ * Log-linear histogram of latencies in nanoseconds, laid out like an
+ * HdrHistogram with SUB_BUCKET_BITS bits of precision: values below
+ * SUB_BUCKETS are counted exactly, and above that every power of two is split
+ * into SUB_BUCKETS / 2 equal buckets, so any recorded value is reported to
+ * within 1 part in 64 while the whole range of a long fits in a few thousand
+ * counters.  Recording is an index computation and an increment.
+ *
+ * A histogram is not thread-safe.  Each thread records into its own and the
+ * results are merged with add once the threads have finished.
+ *
+ */
+public class LatencyHistogram {
+
+	static final int SUB_BUCKET_BITS = 7;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int HALF = SUB_BUCKETS / 2;
+	static final int BUCKETS = SUB_BUCKETS
+			+ (64 - SUB_BUCKET_BITS) * HALF;
+
+	private final long counts[] = new long[BUCKETS];
+	private long count = 0;
+	private long max = 0;
+
+	private static int index(long value) {
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value)
+				- (SUB_BUCKET_BITS - 1);
+		int sub = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + (sub - HALF);
+	}
+
+	/**
+	 * Returns the largest value that is counted in bucket index.
+	 */
+	private static long highestIn(int index) {
+		if(index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long sub = (index - SUB_BUCKETS) % HALF + HALF;
+		return (sub << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Records one latency.  Negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+		counts[index(nanos)]++;
+		count++;
+		if(nanos > max)
+			max = nanos;
+	}
+
+	/**
+	 * Adds everything recorded in other to this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKETS; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * Returns the largest value recorded, exactly.
+	 */
+	public long max() {
+		return max;
+	}
+
+	/**
+	 * Returns the value that percentile percent of the recorded values are at
+	 * or below, rounded up to the top of its bucket.
+	 *
+	 * @param percentile Between 0 and 100
+	 */
+	public long percentile(double percentile) {
+		if(count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank)
+				return Math.min(highestIn(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the median, 90th, 99th and 99.9th percentiles and the maximum
+	 * in nanoseconds.
+	 */
+	@Override
+	public String toString() {
+		return "p50 " + percentile(50) + " ns, p90 " + percentile(90)
+				+ " ns, p99 " + percentile(99) + " ns, p99.9 "
+				+ percentile(99.9) + " ns, max " + max + " ns";
+	}
+}
@@ -2,16 +2,88 @@ package test_bench;
 
 import concurrent_tree.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
 
 public class TestBench {
 	
 	public static final int maxThreads = 8;
 	private static final int numOps = 10000;
 
-	private static class TreeTestRunnable implements Runnable {
+	/**
+	 * Operations per millisecond each thread is scheduled to issue in the
+	 * fixed rate test.
+	 */
+	private static final int FIXED_RATE = 50;
+
+	/**
+	 * Operations issued through the async API per tree in the async test.
+	 */
+	private static final int ASYNC_OPS = 100000;
+
+	/**
+	 * Base of the test runnables, which time every tree operation into a
+	 * histogram for its kind.  By default each operation is timed from when
+	 * it starts.  At a fixed rate, operations are scheduled interval
+	 * nanoseconds apart and each one is timed from when it was scheduled to
+	 * start, so an operation stuck behind a stalled one is charged for the
+	 * time it spent waiting to be issued.  Without that, a stall is recorded
+	 * once, however many operations it held up, which is the coordinated
+	 * omission that makes closed-loop percentiles look better than they are.
+	 */
+	private static abstract class TimedRunnable implements Runnable {
+
+		final LatencyHistogram inserts = new LatencyHistogram();
+		final LatencyHistogram removes = new LatencyHistogram();
+		final LatencyHistogram contains = new LatencyHistogram();
+		long interval = 0;
+		long next = 0;
+
+		/**
+		 * Waits until the next operation is due and returns the time to
+		 * measure it from.
+		 */
+		long begin() {
+			if(interval == 0)
+				return System.nanoTime();
+			if(next == 0)
+				next = System.nanoTime();
+			long wait;
+			while((wait = next - System.nanoTime()) > 0) {
+				if(wait > 100000)
+					LockSupport.parkNanos(wait - 50000);
+				else
+					Thread.onSpinWait();
+			}
+			long scheduled = next;
+			next += interval;
+			return scheduled;
+		}
+
+		/**
+		 * Records the latency of an operation that began at start.
+		 */
+		static void end(LatencyHistogram histogram, long start) {
+			histogram.record(System.nanoTime() - start);
+		}
+	}
+
+	private static class TreeTestRunnable extends TimedRunnable {
 
 		ConcurrentBinaryTree<Integer> tree = null;
 		LinkedList<Integer> list = null;
@@ -35,13 +107,18 @@ public class TestBench {
 			for(int i = 0; i < numOps; i++) {
 				int random = rand.nextInt(20);
 				if((random % 2) == 0) {
-					if(tree.insert(random)) {
+					long start = begin();
+					boolean inserted = tree.insert(random);
+					end(inserts, start);
+					if(inserted) {
 						list.addLast(random);
 					}
 				} else {
 					try{
 						Integer data = list.removeFirst();
+						long start = begin();
 						data = tree.remove(data);
+						end(removes, start);
 						if(data == null) {
 							//Couldn't remove the data from the tree
 						}
@@ -49,7 +126,9 @@ public class TestBench {
 						//Empty list, no problem
 					}
 				}
+				long start = begin();
 				Boolean b=tree.contains(random);
+				end(contains, start);
                // b=tree.contains(random);
 			}
 		}
@@ -57,6 +136,94 @@ public class TestBench {
 	}
 	
 
+	/**
+	 * Same workload as TreeTestRunnable, driven through the primitive int
+	 * methods of a ConcurrentIntBinaryTree.  Keys waiting to be removed are
+	 * kept in an int ring buffer so that nothing in the loop is boxed.
+	 */
+	private static class IntTreeTestRunnable extends TimedRunnable {
+
+		ConcurrentIntBinaryTree tree = null;
+		int pending[] = null;
+		int head = 0;
+		int count = 0;
+		Random rand = null;
+
+		public IntTreeTestRunnable(ConcurrentIntBinaryTree tree) {
+			this.tree = tree;
+			pending = new int[numOps];
+			rand = new Random();
+		}
+
+		@Override
+		public void run() {
+			for(int i = 0; i < numOps; i++) {
+				int random = rand.nextInt(20);
+				if((random % 2) == 0) {
+					long start = begin();
+					boolean inserted = tree.insert(random);
+					end(inserts, start);
+					if(inserted) {
+						pending[(head + count) % numOps] = random;
+						count++;
+					}
+				} else if(count > 0) {
+					long start = begin();
+					tree.remove(pending[head]);
+					end(removes, start);
+					head = (head + 1) % numOps;
+					count--;
+				}
+				long start = begin();
+				tree.contains(random);
+				end(contains, start);
+			}
+		}
+	}
+
+	/**
+	 * Long-keyed version of IntTreeTestRunnable.
+	 */
+	private static class LongTreeTestRunnable extends TimedRunnable {
+
+		LongConcurrentAVLTree tree = null;
+		long pending[] = null;
+		int head = 0;
+		int count = 0;
+		Random rand = null;
+
+		public LongTreeTestRunnable(LongConcurrentAVLTree tree) {
+			this.tree = tree;
+			pending = new long[numOps];
+			rand = new Random();
+		}
+
+		@Override
+		public void run() {
+			for(int i = 0; i < numOps; i++) {
+				long random = rand.nextInt(20);
+				if((random % 2) == 0) {
+					long start = begin();
+					boolean inserted = tree.insert(random);
+					end(inserts, start);
+					if(inserted) {
+						pending[(head + count) % numOps] = random;
+						count++;
+					}
+				} else if(count > 0) {
+					long start = begin();
+					tree.remove(pending[head]);
+					end(removes, start);
+					head = (head + 1) % numOps;
+					count--;
+				}
+				long start = begin();
+				tree.contains(random);
+				end(contains, start);
+			}
+		}
+	}
+
 	public static void main(String[] args) {
 		ConcurrentBinaryTree<Integer> tree;
 		Thread thread[];
@@ -88,11 +255,479 @@ public class TestBench {
 		//Test the fine-grained locking tree
 	    System.out.println("Testing the fine-grained AVL tree");
 
-		tree = new FineGrainedLockingBinaryTree<Integer>();
+		//Closed-loop sweeps of the trees, compared with the JDK sets at the end
+		ThroughputReport report = new ThroughputReport(Trees.BASELINES[0]);
+		TreeMetrics metrics = new TreeMetrics();
+		registerMetrics(metrics, "FineGrainedLockingBinaryTree");
+		tree = new FineGrainedLockingBinaryTree<Integer>(LockStrategy.INLINE,
+				metrics);
+		report.add("FineGrainedLockingBinaryTree", runThreadSweep(tree));
+	   System.out.println("Print tree:");
+		((FineGrainedLockingBinaryTree<Integer>) tree).printTree();
+		printMetrics(metrics);
+
+		System.out.println("Testing the fine-grained tree with each lock"
+				+ " strategy");
+		runLockStrategySweep();
+
+		//Open loop, so a stall delays every operation scheduled behind it
+		System.out.println("Testing the fine-grained tree at a fixed rate of "
+				+ FIXED_RATE + " ops/ms per thread");
+		ConcurrentBinaryTree<Integer> fixedRateTree =
+				new FineGrainedLockingBinaryTree<Integer>();
+		runThreadSweep(() -> new TreeTestRunnable(fixedRateTree),
+				1000000L / FIXED_RATE);
+
+		//Same trees, each owning a quarter of the keys TreeTestRunnable uses
+		System.out.println("Testing four fine-grained trees sharded by key");
+		report.add("ShardedConcurrentTree", runThreadSweep(
+				new ShardedConcurrentTree<Integer>(new Integer[] { 5, 10, 15 },
+						FineGrainedLockingBinaryTree<Integer>::new)));
+
+		//Compare hand-over-hand locking against optimistic validation
+		System.out.println("Testing the hand-over-hand relaxed AVL tree");
+		report.add("RelaxedAVLTree",
+				runThreadSweep(new RelaxedAVLTree<Integer>()));
+
+		System.out.println("Testing the optimistic relaxed AVL tree");
+		TreeMetrics optimisticMetrics = new TreeMetrics();
+		report.add("OptimisticAVLTree", runThreadSweep(
+				new OptimisticAVLTree<Integer>(optimisticMetrics)));
+		printMetrics(optimisticMetrics);
+
+		System.out.println("Testing the lock-free binary tree");
+		report.add("LockFreeBinaryTree",
+				runThreadSweep(new LockFreeBinaryTree<Integer>()));
+
+		//Same algorithm as the optimistic tree, without boxed keys
+		System.out.println("Testing the int-keyed optimistic AVL tree");
+		IntConcurrentAVLTree intTree = new IntConcurrentAVLTree();
+		report.add("IntConcurrentAVLTree",
+				runThreadSweep(() -> new IntTreeTestRunnable(intTree)));
+
+		System.out.println("Testing the long-keyed optimistic AVL tree");
+		LongConcurrentAVLTree longTree = new LongConcurrentAVLTree();
+		report.add("LongConcurrentAVLTree",
+				runThreadSweep(() -> new LongTreeTestRunnable(longTree)));
+
+		System.out.println("Testing the off-heap binary tree");
+		OffHeapBinaryTree offHeapTree = new OffHeapBinaryTree();
+		report.add("OffHeapBinaryTree",
+				runThreadSweep(() -> new IntTreeTestRunnable(offHeapTree)));
+		System.out.println("Off-heap arena: " + offHeapTree.offHeapBytes()
+				+ " bytes");
+
+		//TreeTestRunnable's inserts and removes all hit the same 20 keys
+		System.out.println("Testing the fine-grained tree behind an"
+				+ " elimination array");
+		EliminationBinaryTree<Integer> elimination =
+				new EliminationBinaryTree<Integer>(
+						new FineGrainedLockingBinaryTree<Integer>());
+		report.add("EliminationBinaryTree", runThreadSweep(elimination));
+		System.out.println("Insert and remove pairs eliminated: "
+				+ elimination.eliminated());
+
+		//What the JDK already offers, for comparison
+		for(String name : Trees.BASELINES) {
+			System.out.println("Testing the JDK baseline " + name);
+			report.add(name, runThreadSweep(Trees.create(name)));
+		}
+		report.print();
+
+		System.out.println("Testing the async API with "
+				+ (VirtualThreads.isSupported() ? "a virtual" : "a platform")
+				+ " thread per operation");
+		runAsyncComparison();
+
+		System.out.println("Testing batched inserts and removes");
+		runBatchComparison();
+
+		System.out.println("Testing checkpoint and reload");
+		runCheckpointComparison();
+
+		//Same tree as the optimistic sweep above, with every update logged
+		System.out.println("Testing the optimistic AVL tree with a write-ahead"
+				+ " log");
+		runDurableSweep();
+	}
+
+	/**
+	 * Registers metrics as a JMX MBean so that the counters can be watched
+	 * from JConsole while the tests run.
+	 */
+	private static void registerMetrics(TreeMetrics metrics, String name) {
+		try {
+			metrics.register(name);
+		} catch(JMException e) {
+			//Not fatal, the totals are still printed at the end
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Prints the totals in metrics, and the per-depth counts down to the
+	 * deepest depth that saw any locking, retries or rotations.
+	 */
+	private static void printMetrics(TreeMetrics metrics) {
+		long acquisitions[] = metrics.getLockAcquisitionsByDepth();
+		long contended[] = metrics.getContendedAcquisitionsByDepth();
+		long retries[] = metrics.getRetriesByDepth();
+		long rotations[] = metrics.getRotationsByDepth();
+		int depths = acquisitions.length;
+		while(depths > 0 && acquisitions[depths - 1] == 0
+				&& retries[depths - 1] == 0 && rotations[depths - 1] == 0)
+			depths--;
+
+		System.out.println("Metrics: " + metrics);
+		for(int depth = 0; depth < depths; depth++) {
+			System.out.println("depth " + depth + ": " + acquisitions[depth]
+					+ " locks, " + contended[depth] + " contended, "
+					+ retries[depth] + " retries, " + rotations[depth]
+					+ " rotations");
+		}
+	}
+
+	/**
+	 * Runs a mix of 50% contains, 25% inserts and 25% removes on a
+	 * fine-grained tree using each LockStrategy, with 1, 2, 4 and so on up to
+	 * maxThreads threads, and prints the throughput along with the latency
+	 * percentiles of a single operation.
+	 */
+	private static void runLockStrategySweep() {
+		final int keys = 1000;
+		final int opsPerThread = 50000;
+
+		for(LockStrategy strategy : LockStrategy.values()) {
+			//Let the JIT compile this strategy's lock before timing it
+			FineGrainedLockingBinaryTree<Integer> warmup =
+					new FineGrainedLockingBinaryTree<Integer>(strategy);
+			Random warmupRand = new Random(0);
+			for(int i = 0; i < 4 * opsPerThread; i++) {
+				int key = warmupRand.nextInt(keys);
+				if(!warmup.insert(key))
+					warmup.remove(key);
+			}
+
+			for(int threads = 1; threads <= maxThreads; threads *= 2) {
+				FineGrainedLockingBinaryTree<Integer> tree =
+						new FineGrainedLockingBinaryTree<Integer>(strategy);
+				Random rand = new Random(1);
+				for(int i = 0; i < keys / 2; i++)
+					tree.insert(rand.nextInt(keys));
+
+				LatencyHistogram latencies[] = new LatencyHistogram[threads];
+				Thread thread[] = new Thread[threads];
+				for(int j = 0; j < threads; j++) {
+					LatencyHistogram mine = latencies[j] = new LatencyHistogram();
+					Random threadRand = new Random(j);
+					thread[j] = new Thread(() -> {
+						for(int i = 0; i < opsPerThread; i++) {
+							int key = threadRand.nextInt(keys);
+							int op = threadRand.nextInt(4);
+							long start = System.nanoTime();
+							if(op == 0)
+								tree.insert(key);
+							else if(op == 1)
+								tree.remove(key);
+							else
+								tree.contains(key);
+							mine.record(System.nanoTime() - start);
+						}
+					});
+				}
+
+				long before = System.nanoTime();
+				for(int j = 0; j < threads; j++)
+					thread[j].start();
+				try {
+					for(int j = 0; j < threads; j++)
+						thread[j].join();
+				} catch(InterruptedException e) {
+					//Interrupted, stop testing
+					e.printStackTrace();
+					System.exit(1);
+				}
+				long elapsed = System.nanoTime() - before;
+
+				LatencyHistogram all = new LatencyHistogram();
+				for(int j = 0; j < threads; j++)
+					all.add(latencies[j]);
+				System.out.println(strategy + ", " + threads + " threads, "
+						+ (all.count() * 1000000L / elapsed) + " ops/ms, "
+						+ all);
+			}
+		}
+	}
+
+	/**
+	 * Drives trees through AsyncBinaryTree, with each lock strategy for the
+	 * fine-grained tree.  Every operation is submitted before any is waited
+	 * for, so thousands can be in the tree at once and most of the threads
+	 * running them are waiting for a lock or a CPU.
+	 */
+	private static void runAsyncComparison() {
+		ExecutorService pool = Executors.newFixedThreadPool(maxThreads);
+		for(LockStrategy strategy : LockStrategy.values()) {
+			//A queue lock hands over to the next waiter even if it isn't
+			//running, so with far more threads than CPUs nearly every
+			//handover waits for that one thread to be scheduled
+			if(strategy == LockStrategy.MCS || strategy == LockStrategy.CLH) {
+				System.out.println(strategy + " fine-grained tree: skipped,"
+						+ " queue locks stall when oversubscribed");
+				continue;
+			}
+			runAsync(strategy + " fine-grained tree",
+					new FineGrainedLockingBinaryTree<Integer>(strategy), pool);
+		}
+		runAsync("optimistic AVL tree", new OptimisticAVLTree<Integer>(),
+				pool);
+		runAsync("lock-free tree", new LockFreeBinaryTree<Integer>(), pool);
+		runAsync("ConcurrentSkipListSet",
+				SortedSetTree.concurrentSkipListSet(), pool);
+		pool.shutdown();
+	}
+
+	/**
+	 * Issues ASYNC_OPS random operations on tree without waiting for any of
+	 * them, once with every operation on its own thread and once on pool,
+	 * and prints the throughput of each.
+	 */
+	private static void runAsync(String name,
+			ConcurrentBinaryTree<Integer> tree, ExecutorService pool) {
+		long perTask = runAsync(new AsyncBinaryTree<Integer>(tree));
+		long pooled = runAsync(new AsyncBinaryTree<Integer>(tree, pool));
+		System.out.println(name + ": " + perTask + " ops/ms per operation, "
+				+ pooled + " ops/ms on " + maxThreads + " pool threads");
+	}
+
+	/**
+	 * Returns the ops/ms of ASYNC_OPS operations issued on tree, split evenly
+	 * between insert, remove and contains over a range of 1000 keys.
+	 */
+	private static long runAsync(AsyncBinaryTree<Integer> tree) {
+		Random rand = new Random(1);
+		CompletableFuture<?> futures[] = new CompletableFuture<?>[ASYNC_OPS];
+		long before = System.nanoTime();
+		for(int i = 0; i < ASYNC_OPS; i++) {
+			int key = rand.nextInt(1000);
+			switch(i % 3) {
+			case 0:
+				futures[i] = tree.insert(key);
+				break;
+			case 1:
+				futures[i] = tree.remove(key);
+				break;
+			default:
+				futures[i] = tree.contains(key);
+				break;
+			}
+		}
+		CompletableFuture.allOf(futures).join();
+		return ASYNC_OPS * 1000000L / (System.nanoTime() - before);
+	}
+
+	/**
+	 * Loads the same random keys into two fine-grained trees, one key at a
+	 * time and in batches through insertAll, then empties them again the same
+	 * way, and prints the time taken by each and how often the root was
+	 * locked while loading.
+	 */
+	private static void runBatchComparison() {
+		final int keys = 200000;
+		final int batchSize = 1000;
+		Random rand = new Random(1);
+		List<Integer> data = new ArrayList<Integer>(keys);
+		for(int i = 0; i < keys; i++)
+			data.add(rand.nextInt());
+
+		TreeMetrics singleMetrics = new TreeMetrics();
+		FineGrainedLockingBinaryTree<Integer> single =
+				new FineGrainedLockingBinaryTree<Integer>(LockStrategy.INLINE,
+						singleMetrics);
+		long before = System.nanoTime();
+		for(Integer key : data)
+			single.insert(key);
+		long insertSingle = System.nanoTime() - before;
+		long rootLocksSingle = singleMetrics.getLockAcquisitionsByDepth()[0];
+		before = System.nanoTime();
+		for(Integer key : data)
+			single.remove(key);
+		long removeSingle = System.nanoTime() - before;
+
+		TreeMetrics batchedMetrics = new TreeMetrics();
+		FineGrainedLockingBinaryTree<Integer> batched =
+				new FineGrainedLockingBinaryTree<Integer>(LockStrategy.INLINE,
+						batchedMetrics);
+		before = System.nanoTime();
+		for(int i = 0; i < keys; i += batchSize)
+			batched.insertAll(data.subList(i, Math.min(keys, i + batchSize)));
+		long insertBatched = System.nanoTime() - before;
+		long rootLocksBatched = batchedMetrics.getLockAcquisitionsByDepth()[0];
+		before = System.nanoTime();
+		for(int i = 0; i < keys; i += batchSize)
+			batched.removeAll(data.subList(i, Math.min(keys, i + batchSize)));
+		long removeBatched = System.nanoTime() - before;
+
+		System.out.println("insert: " + insertSingle + " ns one at a time, "
+				+ insertBatched + " ns in batches of " + batchSize);
+		System.out.println("root locked " + rootLocksSingle
+				+ " times one at a time, " + rootLocksBatched
+				+ " times in batches");
+		System.out.println("remove: " + removeSingle + " ns one at a time, "
+				+ removeBatched + " ns in batches of " + batchSize);
+	}
+
+	/**
+	 * Checkpoints a relaxed AVL tree while two threads keep updating it, then
+	 * prints how long the checkpoint took and how long it takes to get the
+	 * same keys back into a new tree by reloading the checkpoint versus
+	 * replaying one insert per key.
+	 */
+	private static void runCheckpointComparison() {
+		final int keys = 1000000;
+		Random rand = new Random(1);
+		RelaxedAVLTree<Integer> tree = new RelaxedAVLTree<Integer>();
+		for(int i = 0; i < keys; i++)
+			tree.insert(rand.nextInt());
+
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread writer[] = new Thread[2];
+		for(int j = 0; j < writer.length; j++) {
+			Random writerRand = new Random(j);
+			writer[j] = new Thread(() -> {
+				while(!stop.get()) {
+					int key = writerRand.nextInt();
+					if(writerRand.nextBoolean())
+						tree.insert(key);
+					else
+						tree.remove(key);
+				}
+			});
+			writer[j].start();
+		}
+
+		Path file = null;
+		try {
+			file = Files.createTempFile("tree", ".ckpt");
+			long before = System.nanoTime();
+			long written = Checkpoint.write(tree, file);
+			long checkpoint = System.nanoTime() - before;
+			stop.set(true);
+			for(int j = 0; j < writer.length; j++)
+				writer[j].join();
+			tree.shutdown();
+			System.out.println("checkpoint: " + written + " keys, "
+					+ Files.size(file) + " bytes, " + checkpoint
+					+ " ns while serving updates");
+
+			before = System.nanoTime();
+			RelaxedAVLTree<Integer> loaded = RelaxedAVLTree.load(file);
+			long reload = System.nanoTime() - before;
+			List<Integer> log = new ArrayList<Integer>();
+			for(Integer key : loaded)
+				log.add(key);
+			Collections.shuffle(log, rand);
+			RelaxedAVLTree<Integer> replayed = new RelaxedAVLTree<Integer>();
+			before = System.nanoTime();
+			for(Integer key : log)
+				replayed.insert(key);
+			long replay = System.nanoTime() - before;
+			loaded.shutdown();
+			replayed.shutdown();
+			System.out.println("reload: " + reload + " ns from the checkpoint, "
+					+ replay + " ns replaying " + log.size() + " inserts");
+		} catch(IOException | InterruptedException e) {
+			//Couldn't checkpoint, stop testing
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			stop.set(true);
+			if(file != null)
+				file.toFile().delete();
+		}
+	}
+
+	/**
+	 * Runs the throughput test on an optimistic AVL tree made durable by a
+	 * write-ahead log in a temporary file, prints how many fsyncs the log
+	 * needed, and then replays the log into a new tree.
+	 */
+	private static void runDurableSweep() {
+		Path file = null;
+		try {
+			file = Files.createTempFile("tree", ".wal");
+			DurableBinaryTree tree = new DurableBinaryTree(
+					new OptimisticAVLTree<Integer>(), file);
+			runThreadSweep(tree);
+			System.out.println("fsyncs: " + tree.syncs() + ", log: "
+					+ Files.size(file) + " bytes");
+			tree.close();
+
+			OptimisticAVLTree<Integer> replayed =
+					new OptimisticAVLTree<Integer>();
+			long before = System.nanoTime();
+			new DurableBinaryTree(replayed, file).close();
+			long replay = System.nanoTime() - before;
+			System.out.println("replay: " + replay + " ns, tree matches log: "
+					+ replayed.range(0, 20).equals(tree.range(0, 20)));
+		} catch(IOException e) {
+			//Couldn't use the log, stop testing
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			if(file != null)
+				file.toFile().delete();
+		}
+	}
+
+	/**
+	 * Runs the throughput test on the passed tree with 1 to maxThreads
+	 * threads, printing the elapsed time and operations per millisecond for
+	 * each thread count followed by the latency percentiles of each kind of
+	 * operation.  Every iteration of a TreeTestRunnable performs two tree
+	 * operations (an insert or remove followed by a contains).
+	 *
+	 * @return The operations per millisecond with i + 1 threads at index i
+	 */
+	private static long[] runThreadSweep(ConcurrentBinaryTree<Integer> tree) {
+		return runThreadSweep(() -> new TreeTestRunnable(tree));
+	}
+
+	/**
+	 * Runs the throughput test with 1 to maxThreads threads, each running a
+	 * runnable created by the passed factory as fast as it can.
+	 */
+	private static long[] runThreadSweep(
+			Supplier<? extends TimedRunnable> workload) {
+		return runThreadSweep(workload, 0);
+	}
+
+	/**
+	 * Runs the throughput test with 1 to maxThreads threads, each running a
+	 * runnable created by the passed factory.
+	 *
+	 * @param interval Nanoseconds between the scheduled starts of each
+	 * thread's operations, or 0 to run them back to back
+	 * @return The operations per millisecond with i + 1 threads at index i
+	 */
+	private static long[] runThreadSweep(
+			Supplier<? extends TimedRunnable> workload, long interval) {
+		long throughput[] = new long[maxThreads];
+		TimedRunnable runnable[];
+		Thread thread[];
+		int i = 0;
+		int j = 0;
+		long before = 0;
+		long after = 0;
+
 		for(i = 1; i <= maxThreads; i++) {
+			runnable = new TimedRunnable[i];
 			thread = new Thread[i];
-			for(j = 0; j < i; j++)
-				thread[j] = new Thread(new TreeTestRunnable(tree));
+			for(j = 0; j < i; j++) {
+				runnable[j] = workload.get();
+				runnable[j].interval = interval;
+				thread[j] = new Thread(runnable[j]);
+			}
 			before = System.nanoTime();
 			for(j = 0; j < i; j++)
 				thread[j].start();
@@ -105,11 +740,23 @@ public class TestBench {
 				e.printStackTrace();
 				System.exit(1);
 			}
-			System.out.println(i + " threads, " + (after - before) + " ns");
-		}
-	   System.out.println("Print tree:");
-		((FineGrainedLockingBinaryTree<Integer>) tree).printTree();
-		System.out.println("Throughput: "+((FineGrainedLockingBinaryTree<Integer>) tree).printThroughput());
 
+			LatencyHistogram inserts = new LatencyHistogram();
+			LatencyHistogram removes = new LatencyHistogram();
+			LatencyHistogram contains = new LatencyHistogram();
+			for(j = 0; j < i; j++) {
+				inserts.add(runnable[j].inserts);
+				removes.add(runnable[j].removes);
+				contains.add(runnable[j].contains);
+			}
+			long ops = inserts.count() + removes.count() + contains.count();
+			throughput[i - 1] = ops * 1000000L / (after - before);
+			System.out.println(i + " threads, " + (after - before) + " ns, "
+					+ throughput[i - 1] + " ops/ms");
+			System.out.println("  insert   " + inserts);
+			System.out.println("  remove   " + removes);
+			System.out.println("  contains " + contains);
+		}
+		return throughput;
 	}
-}
\ No newline at end of file
+}
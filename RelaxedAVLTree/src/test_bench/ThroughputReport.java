@@ -0,0 +1,84 @@
+package test_bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ThroughputReport Class
+ *
+ * Collects the ops/ms each tree reached at each thread count and prints them
+ * as a table relative to a baseline tree, one row per tree and one column per
+ * thread count.  1.00 means as fast as the baseline at that thread count, and
+ * a dash means the tree wasn't run with that many threads.
+ *
+ */
+public class ThroughputReport {
+
+	private final String baseline;
+
+	//Tree name to thread count to ops/ms, trees in the order they were run
+	private final Map<String, Map<Integer, Long>> results =
+			new LinkedHashMap<String, Map<Integer, Long>>();
+
+	/**
+	 * @param baseline Name of the tree every other one is divided by
+	 */
+	public ThroughputReport(String baseline) {
+		this.baseline = baseline;
+	}
+
+	/**
+	 * Records the throughput of name with threads threads.
+	 */
+	public void add(String name, int threads, long opsPerMs) {
+		results.computeIfAbsent(name, n -> new TreeMap<Integer, Long>())
+				.put(threads, opsPerMs);
+	}
+
+	/**
+	 * Records a sweep where opsPerMs[i] is the throughput with i + 1 threads.
+	 */
+	public void add(String name, long opsPerMs[]) {
+		for(int i = 0; i < opsPerMs.length; i++)
+			add(name, i + 1, opsPerMs[i]);
+	}
+
+	/**
+	 * Prints the table, or nothing if the baseline wasn't run.
+	 */
+	public void print() {
+		Map<Integer, Long> base = results.get(baseline);
+		if(base == null || base.isEmpty())
+			return;
+		List<Integer> threads = new ArrayList<Integer>(base.keySet());
+		int width = baseline.length();
+		for(String name : results.keySet())
+			width = Math.max(width, name.length());
+
+		System.out.println("Throughput relative to " + baseline);
+		StringBuilder line = new StringBuilder(pad("threads", width));
+		for(int count : threads)
+			line.append(String.format("%8d", count));
+		System.out.println(line);
+		for(Map.Entry<String, Map<Integer, Long>> tree : results.entrySet()) {
+			line = new StringBuilder(pad(tree.getKey(), width));
+			for(int count : threads) {
+				Long ops = tree.getValue().get(count);
+				long reference = base.get(count);
+				if(ops == null || reference == 0)
+					line.append(String.format("%8s", "-"));
+				else
+					line.append(String.format("%8.2f",
+							(double) ops / reference));
+			}
+			System.out.println(line);
+		}
+	}
+
+	private static String pad(String s, int width) {
+		return String.format("%-" + width + "s", s);
+	}
+}
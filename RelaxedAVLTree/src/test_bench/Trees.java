@@ -0,0 +1,150 @@
+package test_bench;
+
+import concurrent_tree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trees Class
+ *
+ * Creates the trees the test benches can run against, by class name.
+ *
+ */
+public class Trees {
+
+	/**
+	 * Number of shards in a ShardedConcurrentTree.
+	 */
+	static final int SHARDS = 8;
+
+	/**
+	 * Names of the JDK sorted sets adapted by SortedSetTree, which every
+	 * comparison runs alongside the project's trees.
+	 */
+	public static final String BASELINES[] = { "ConcurrentSkipListSet",
+			"SynchronizedTreeSet", "ReadWriteLockedTreeSet" };
+
+	/**
+	 * Creates an empty tree.
+	 *
+	 * @param name Simple class name of the tree, or one of BASELINES
+	 * @return The new tree
+	 */
+	public static ConcurrentBinaryTree<Integer> create(String name) {
+		switch(name) {
+		case "SequentialBinaryTree":
+			return new SequentialBinaryTree<Integer>();
+		case "FineGrainedLockingBinaryTree":
+			return new FineGrainedLockingBinaryTree<Integer>();
+		case "RelaxedAVLTree":
+			return new RelaxedAVLTree<Integer>();
+		case "OptimisticAVLTree":
+			return new OptimisticAVLTree<Integer>();
+		case "IntConcurrentAVLTree":
+			return new IntConcurrentAVLTree();
+		case "LockFreeBinaryTree":
+			return new LockFreeBinaryTree<Integer>();
+		case "OffHeapBinaryTree":
+			return new OffHeapBinaryTree();
+		case "ShardedConcurrentTree":
+			return sharded(new int[0], new ArrayList<Integer>());
+		case "ConcurrentSkipListSet":
+			return SortedSetTree.concurrentSkipListSet();
+		case "SynchronizedTreeSet":
+			return SortedSetTree.synchronizedTreeSet();
+		case "ReadWriteLockedTreeSet":
+			return SortedSetTree.readWriteLockedTreeSet();
+		default:
+			throw new IllegalArgumentException("Unknown tree: " + name);
+		}
+	}
+
+	/**
+	 * Creates a balanced tree holding keys.
+	 *
+	 * @param name Simple class name of the tree
+	 * @param keys Keys to load, in any order
+	 * @return The new tree
+	 */
+	public static ConcurrentBinaryTree<Integer> bulkLoad(String name,
+			int keys[]) {
+		switch(name) {
+		case "IntConcurrentAVLTree":
+			return IntConcurrentAVLTree.bulkLoad(keys);
+		case "OffHeapBinaryTree":
+			return OffHeapBinaryTree.bulkLoad(keys);
+		default:
+			break;
+		}
+
+		List<Integer> data = new ArrayList<Integer>(keys.length);
+		for(int key : keys)
+			data.add(key);
+		switch(name) {
+		case "SequentialBinaryTree":
+			return SequentialBinaryTree.bulkLoad(data);
+		case "FineGrainedLockingBinaryTree":
+			return FineGrainedLockingBinaryTree.bulkLoad(data);
+		case "RelaxedAVLTree":
+			return RelaxedAVLTree.bulkLoad(data);
+		case "OptimisticAVLTree":
+			return OptimisticAVLTree.bulkLoad(data);
+		case "LockFreeBinaryTree":
+			return LockFreeBinaryTree.bulkLoad(data);
+		case "ShardedConcurrentTree":
+			return sharded(keys, data);
+		case "ConcurrentSkipListSet":
+		case "SynchronizedTreeSet":
+		case "ReadWriteLockedTreeSet":
+			//The JDK sets have no bulk load, addAll is the closest
+			ConcurrentBinaryTree<Integer> tree = create(name);
+			tree.insertAll(data);
+			return tree;
+		default:
+			throw new IllegalArgumentException("Unknown tree: " + name);
+		}
+	}
+
+	/**
+	 * Splits keys into SHARDS fine-grained trees of about the same size,
+	 * re-partitioned automatically if one grows to twice the average.  With
+	 * no keys to go by the boundaries start out at 1 to SHARDS - 1.
+	 */
+	private static ConcurrentBinaryTree<Integer> sharded(int keys[],
+			List<Integer> data) {
+		int sorted[] = keys.clone();
+		Arrays.sort(sorted);
+		List<Integer> boundaries = new ArrayList<Integer>();
+		for(int i = 1; i < SHARDS; i++) {
+			int boundary = sorted.length == 0 ? i
+					: sorted[(int) ((long) sorted.length * i / SHARDS)];
+			if(boundaries.isEmpty()
+					|| boundaries.get(boundaries.size() - 1) < boundary)
+				boundaries.add(boundary);
+		}
+		ShardedConcurrentTree<Integer> tree =
+				new ShardedConcurrentTree<Integer>(
+						boundaries.toArray(new Integer[0]),
+						FineGrainedLockingBinaryTree<Integer>::new, 2.0);
+		tree.insertAll(data);
+		return tree;
+	}
+
+	/**
+	 * Stops any background threads the tree started.
+	 */
+	public static void dispose(ConcurrentBinaryTree<Integer> tree)
+			throws InterruptedException {
+		if(tree instanceof RelaxedAVLTree)
+			((RelaxedAVLTree<Integer>) tree).shutdown();
+	}
+
+	/**
+	 * Returns true if the tree may be used by more than one thread.
+	 */
+	public static boolean isConcurrent(ConcurrentBinaryTree<Integer> tree) {
+		return !(tree instanceof SequentialBinaryTree);
+	}
+}
@@ -0,0 +1,197 @@
+package test_bench;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Workload Class
+ *
+ * Describes a benchmark run: which trees to test, with how many threads, how
+ * keys are chosen and what mix of operations is performed.  Settings are read
+ * from a properties file and/or key=value command line arguments, with the
+ * command line taking precedence.  "config=file" names the properties file.
+ *
+ */
+public class Workload {
+
+	/**
+	 * Comma separated tree names, see Trees.create.
+	 */
+	public String[] trees = { "FineGrainedLockingBinaryTree",
+			"RelaxedAVLTree", "OptimisticAVLTree", "LockFreeBinaryTree",
+			"ConcurrentSkipListSet", "SynchronizedTreeSet",
+			"ReadWriteLockedTreeSet" };
+
+	/**
+	 * Tree every throughput is reported relative to, run first even if trees
+	 * doesn't name it.  Empty for no relative report.
+	 */
+	public String baseline = "ConcurrentSkipListSet";
+
+	/**
+	 * Comma separated thread counts to sweep.
+	 */
+	public int[] threads = { 1, 2, 4, 8 };
+
+	/**
+	 * Run the threads as virtual threads, to oversubscribe the CPUs with
+	 * thread counts in the thousands.  Needs Java 21; older JVMs fall back to
+	 * platform threads.
+	 */
+	public boolean virtualThreads = false;
+
+	public int opsPerThread = 100000;
+
+	/**
+	 * One of uniform, zipfian, hotspot, sequential or latest.
+	 */
+	public String distribution = "uniform";
+
+	public int keyRange = 100000;
+
+	/**
+	 * Number of keys inserted before the timed run.  Negative means half the
+	 * key range.
+	 */
+	public int preload = -1;
+
+	/**
+	 * Operation mix in percent.  Must add up to 100.
+	 */
+	public int readPercent = 90;
+	public int insertPercent = 5;
+	public int removePercent = 5;
+
+	public double zipfTheta = 0.99;
+	public double hotSetFraction = 0.2;
+	public double hotOpFraction = 0.8;
+
+	public long seed = 42;
+
+	/**
+	 * Builds a workload from command line arguments of the form key=value.
+	 *
+	 * @param args Command line arguments
+	 * @return The workload, with defaults for anything not specified
+	 * @throws IOException If the config file can't be read
+	 */
+	public static Workload fromArgs(String[] args) throws IOException {
+		Properties props = new Properties();
+		Properties cmdLine = new Properties();
+		for(String arg : args) {
+			int eq = arg.indexOf('=');
+			if(eq <= 0)
+				throw new IllegalArgumentException(
+						"Expected key=value, got: " + arg);
+			cmdLine.setProperty(arg.substring(0, eq).trim(),
+					arg.substring(eq + 1).trim());
+		}
+
+		String config = cmdLine.getProperty("config");
+		if(config != null) {
+			try(InputStream in = new FileInputStream(config)) {
+				props.load(in);
+			}
+		}
+		props.putAll(cmdLine);
+		return fromProperties(props);
+	}
+
+	/**
+	 * Builds a workload from properties named after the fields of this class.
+	 */
+	public static Workload fromProperties(Properties props) {
+		Workload w = new Workload();
+		for(String name : props.stringPropertyNames()) {
+			String value = props.getProperty(name).trim();
+			switch(name) {
+			case "config":
+				break;
+			case "trees":
+				w.trees = value.split("\\s*,\\s*");
+				break;
+			case "baseline":
+				w.baseline = value;
+				break;
+			case "threads":
+				String[] counts = value.split("\\s*,\\s*");
+				w.threads = new int[counts.length];
+				for(int i = 0; i < counts.length; i++)
+					w.threads[i] = Integer.parseInt(counts[i]);
+				break;
+			case "virtualThreads":
+				w.virtualThreads = Boolean.parseBoolean(value);
+				break;
+			case "opsPerThread":
+				w.opsPerThread = Integer.parseInt(value);
+				break;
+			case "distribution":
+				w.distribution = value;
+				break;
+			case "keyRange":
+				w.keyRange = Integer.parseInt(value);
+				break;
+			case "preload":
+				w.preload = Integer.parseInt(value);
+				break;
+			case "readPercent":
+				w.readPercent = Integer.parseInt(value);
+				break;
+			case "insertPercent":
+				w.insertPercent = Integer.parseInt(value);
+				break;
+			case "removePercent":
+				w.removePercent = Integer.parseInt(value);
+				break;
+			case "zipfTheta":
+				w.zipfTheta = Double.parseDouble(value);
+				break;
+			case "hotSetFraction":
+				w.hotSetFraction = Double.parseDouble(value);
+				break;
+			case "hotOpFraction":
+				w.hotOpFraction = Double.parseDouble(value);
+				break;
+			case "seed":
+				w.seed = Long.parseLong(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown setting: " + name);
+			}
+		}
+		w.validate();
+		return w;
+	}
+
+	private void validate() {
+		if(readPercent < 0 || insertPercent < 0 || removePercent < 0
+				|| readPercent + insertPercent + removePercent != 100)
+			throw new IllegalArgumentException(
+					"readPercent, insertPercent and removePercent must be "
+					+ "non-negative and add up to 100");
+		if(keyRange <= 0)
+			throw new IllegalArgumentException("keyRange must be positive");
+	}
+
+	/**
+	 * Returns the number of keys to preload.
+	 */
+	public int preloadCount() {
+		return preload < 0 ? keyRange / 2 : Math.min(preload, keyRange);
+	}
+
+	@Override
+	public String toString() {
+		return "trees=" + String.join(",", trees)
+				+ " baseline=" + baseline
+				+ " distribution=" + distribution
+				+ " keyRange=" + keyRange
+				+ " preload=" + preloadCount()
+				+ " mix=" + readPercent + "/" + insertPercent + "/"
+				+ removePercent
+				+ " opsPerThread=" + opsPerThread
+				+ (virtualThreads ? " virtualThreads=true" : "");
+	}
+}
@@ -0,0 +1,161 @@
+package test_bench;
+
+import concurrent_tree.ConcurrentBinaryTree;
+import concurrent_tree.VirtualThreads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * WorkloadRunner Class
+ *
+ * Runs a configurable workload against each tree for each thread count and
+ * prints the throughput, then a table of every tree's throughput relative
+ * to the baseline tree.  See Workload for the settings, for example:
+ *
+ * java test_bench.WorkloadRunner config=workload.properties threads=1,8
+ * java test_bench.WorkloadRunner distribution=zipfian readPercent=90
+ * insertPercent=5 removePercent=5 keyRange=1000000
+ * java test_bench.WorkloadRunner virtualThreads=true threads=8,1000,10000
+ * opsPerThread=1000
+ *
+ */
+public class WorkloadRunner {
+
+	private static class WorkloadRunnable implements Runnable {
+
+		final ConcurrentBinaryTree<Integer> tree;
+		final KeyDistribution keys;
+		final Workload workload;
+		final SplittableRandom rand;
+
+		// Completed operations that changed the tree, to keep the JIT honest
+		long hits = 0;
+
+		WorkloadRunnable(ConcurrentBinaryTree<Integer> tree,
+				KeyDistribution keys, Workload workload,
+				SplittableRandom rand) {
+			this.tree = tree;
+			this.keys = keys;
+			this.workload = workload;
+			this.rand = rand;
+		}
+
+		@Override
+		public void run() {
+			int readLimit = workload.readPercent;
+			int insertLimit = readLimit + workload.insertPercent;
+			for(int i = 0; i < workload.opsPerThread; i++) {
+				int op = rand.nextInt(100);
+				boolean hit;
+				if(op < readLimit)
+					hit = tree.contains(keys.nextKey(rand));
+				else if(op < insertLimit)
+					hit = tree.insert(keys.nextInsertKey(rand));
+				else
+					hit = tree.remove(keys.nextKey(rand)) != null;
+				if(hit)
+					hits++;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Workload workload = Workload.fromArgs(args);
+		System.out.println("Workload: " + workload);
+		if(workload.virtualThreads && !VirtualThreads.isSupported())
+			System.out.println("Virtual threads need Java 21, running"
+					+ " platform threads instead");
+
+		List<String> names = new ArrayList<String>(Arrays.asList(
+				workload.trees));
+		if(!workload.baseline.isEmpty()
+				&& !names.contains(workload.baseline))
+			names.add(0, workload.baseline);
+		ThroughputReport report = new ThroughputReport(workload.baseline);
+		for(String name : names) {
+			System.out.println("Testing " + name);
+			for(int threads : workload.threads) {
+				KeyDistribution keys = KeyDistribution.create(workload);
+				SplittableRandom seed = new SplittableRandom(workload.seed);
+				ConcurrentBinaryTree<Integer> tree = Trees.bulkLoad(name,
+						preload(keys, workload.keyRange,
+								workload.preloadCount(), seed.split()));
+				if(threads > 1 && !Trees.isConcurrent(tree)) {
+					System.out.println(threads + " threads, skipped ("
+							+ name + " is not thread-safe)");
+					continue;
+				}
+				report.add(name, threads,
+						run(tree, keys, workload, threads, seed));
+				Trees.dispose(tree);
+			}
+		}
+		report.print();
+	}
+
+	/**
+	 * Times one run of the workload against the preloaded tree.
+	 *
+	 * @return Operations per millisecond
+	 */
+	private static long run(ConcurrentBinaryTree<Integer> tree,
+			KeyDistribution keys, Workload workload, int threads,
+			SplittableRandom seed) {
+		Thread thread[] = new Thread[threads];
+		WorkloadRunnable runnable[] = new WorkloadRunnable[threads];
+		for(int j = 0; j < threads; j++) {
+			runnable[j] = new WorkloadRunnable(tree, keys, workload,
+					seed.split());
+			thread[j] = workload.virtualThreads
+					? VirtualThreads.newThread(runnable[j])
+					: new Thread(runnable[j]);
+		}
+
+		long before = System.nanoTime();
+		for(int j = 0; j < threads; j++)
+			thread[j].start();
+		try {
+			for(int j = 0; j < threads; j++)
+				thread[j].join();
+		} catch(InterruptedException e) {
+			//Interrupted, stop testing
+			e.printStackTrace();
+			System.exit(1);
+		}
+		long after = System.nanoTime();
+
+		long hits = 0;
+		for(int j = 0; j < threads; j++)
+			hits += runnable[j].hits;
+		long ops = (long) threads * workload.opsPerThread;
+		long opsPerMs = ops * 1000000L / (after - before);
+		System.out.println(threads + " threads, " + (after - before)
+				+ " ns, " + opsPerMs + " ops/ms, " + (hits * 100 / ops)
+				+ "% hits");
+		return opsPerMs;
+	}
+
+	/**
+	 * Picks count distinct keys to preload the tree with: the start of the
+	 * key range for the ordered distributions and a random subset otherwise.
+	 * The tree is bulk loaded with them, so it starts out balanced.
+	 */
+	private static int[] preload(KeyDistribution keys, int keyRange,
+			int count, SplittableRandom rand) {
+		int pool = keys.preloadsInOrder() ? count : keyRange;
+		int candidates[] = new int[pool];
+		for(int i = 0; i < pool; i++)
+			candidates[i] = i;
+		for(int i = 0; i < count; i++) {
+			int j = i + rand.nextInt(pool - i);
+			int swap = candidates[i];
+			candidates[i] = candidates[j];
+			candidates[j] = swap;
+		}
+		keys.preloaded(count);
+		return Arrays.copyOf(candidates, count);
+	}
+}
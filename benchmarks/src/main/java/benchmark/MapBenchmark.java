@@ -0,0 +1,115 @@
+package benchmark;
+
+import concurrent_tree.RelaxedAVLTreeMap;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Map Benchmark
+ *
+ * Throughput of RelaxedAVLTreeMap against ConcurrentSkipListMap under a
+ * random mix of get, floorKey, put and remove.  readPercent percent of the
+ * operations are reads, half of them get and half floorKey, and the rest
+ * are split evenly between put and remove, so the map stays near half the
+ * key range as in TreeBenchmark.  Each trial fills a fresh map with a random
+ * half of the key range through put, since neither map has a bulk load.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MapBenchmark {
+
+	@Param({"RelaxedAVLTreeMap", "ConcurrentSkipListMap"})
+	public String impl;
+
+	/**
+	 * Keys are drawn uniformly from [0, keyRange).
+	 */
+	@Param({"1000", "1000000"})
+	public int keyRange;
+
+	/**
+	 * Percentage of operations that are get or floorKey.
+	 */
+	@Param({"90", "50"})
+	public int readPercent;
+
+	ConcurrentNavigableMap<Integer, Integer> map;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		SplittableRandom random;
+
+		@Setup(Level.Trial)
+		public void setup(ThreadParams params) {
+			random = new SplittableRandom(0x5EEDL + params.getThreadIndex());
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		switch(impl) {
+		case "RelaxedAVLTreeMap":
+			map = new RelaxedAVLTreeMap<Integer, Integer>();
+			break;
+		case "ConcurrentSkipListMap":
+			map = new ConcurrentSkipListMap<Integer, Integer>();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown map: " + impl);
+		}
+
+		//Put a random permutation prefix of the key range
+		int keys[] = new int[keyRange];
+		for(int i = 0; i < keyRange; i++)
+			keys[i] = i;
+		SplittableRandom random = new SplittableRandom(42);
+		for(int i = 0; i < keyRange / 2; i++) {
+			int j = i + random.nextInt(keyRange - i);
+			int swap = keys[i];
+			keys[i] = keys[j];
+			keys[j] = swap;
+			map.put(keys[i], keys[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		if(map instanceof RelaxedAVLTreeMap)
+			((RelaxedAVLTreeMap<Integer, Integer>) map).shutdown();
+		map = null;
+	}
+
+	@Benchmark
+	public Object operation(ThreadState state) {
+		int key = state.random.nextInt(keyRange);
+		int op = state.random.nextInt(100);
+		if(op < readPercent)
+			return (op & 1) == 0 ? map.get(key) : map.floorKey(key);
+		if((op & 1) == 0)
+			return map.put(key, key);
+		return map.remove(key);
+	}
+}
@@ -0,0 +1,249 @@
+package benchmark;
+
+import concurrent_tree.*;
+import rp.FlatCombiningAVLTree;
+import rp.LockedAVLTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Tree Benchmark
+ *
+ * Throughput of a random mix of insert, remove and contains on every tree in
+ * the project.  Each trial bulk loads a fresh, balanced tree with a random
+ * subset of the key range, and then lets the benchmark threads run the mix:
+ * readPercent percent of the operations are contains, and the rest are split
+ * evenly between insert and remove so that the size of the tree stays near
+ * half the key range.  Every operation's result is returned to JMH so that
+ * none of them can be optimized away.
+ *
+ * The thread count is set with JMH's -t option, or swept by
+ * TreeBenchmarkRunner.  SequentialBinaryTree is not thread-safe and refuses to
+ * run with more than one thread.  The last three impls are the JDK's sorted
+ * sets behind SortedSetTree, as baselines for the rest.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class TreeBenchmark {
+
+	@Param({"SequentialBinaryTree", "FineGrainedLockingBinaryTree",
+			"RelaxedAVLTree", "OptimisticAVLTree", "IntConcurrentAVLTree",
+			"LockFreeBinaryTree", "OffHeapBinaryTree", "ShardedConcurrentTree",
+			"AVL_Tree", "FlatCombiningAVLTree", "EliminationBinaryTree",
+			"ConcurrentSkipListSet", "SynchronizedTreeSet",
+			"ReadWriteLockedTreeSet"})
+	public String impl;
+
+	/**
+	 * Keys are drawn uniformly from [0, keyRange).
+	 */
+	@Param({"1000", "1000000"})
+	public int keyRange;
+
+	/**
+	 * Number of distinct keys inserted before measuring.  Negative means half
+	 * the key range, which is the size the mix settles at anyway.
+	 */
+	@Param({"-1"})
+	public int preload;
+
+	/**
+	 * Percentage of operations that are contains.
+	 */
+	@Param({"90", "50", "0"})
+	public int readPercent;
+
+	/**
+	 * Number of shards in ShardedConcurrentTree.
+	 */
+	static final int SHARDS = 8;
+
+	ConcurrentIntBinaryTree tree;
+	RelaxedAVLTree<Integer> rebalanced;
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		SplittableRandom random;
+
+		@Setup(Level.Trial)
+		public void setup(ThreadParams params) {
+			random = new SplittableRandom(0x5EEDL + params.getThreadIndex());
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup(BenchmarkParams params) {
+		int threads = params.getThreads();
+		if(impl.equals("SequentialBinaryTree") && threads > 1)
+			throw new IllegalStateException(
+					"SequentialBinaryTree only supports one thread");
+
+		//Load a random permutation prefix of the key range
+		int count = preload < 0 ? keyRange / 2 : Math.min(preload, keyRange);
+		int keys[] = new int[keyRange];
+		for(int i = 0; i < keyRange; i++)
+			keys[i] = i;
+		SplittableRandom random = new SplittableRandom(42);
+		for(int i = 0; i < count; i++) {
+			int j = i + random.nextInt(keyRange - i);
+			int swap = keys[i];
+			keys[i] = keys[j];
+			keys[j] = swap;
+		}
+		tree = create(impl, threads, Arrays.copyOf(keys, count));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		if(rebalanced != null)
+			rebalanced.shutdown();
+		rebalanced = null;
+		tree = null;
+	}
+
+	@Benchmark
+	public boolean operation(ThreadState state) {
+		int key = state.random.nextInt(keyRange);
+		int op = state.random.nextInt(100);
+		if(op < readPercent)
+			return tree.contains(key);
+		if((op & 1) == 0)
+			return tree.insert(key);
+		return tree.remove(key);
+	}
+
+	/**
+	 * Bulk loads the named tree with keys and returns it behind the primitive
+	 * tree interface.
+	 */
+	private ConcurrentIntBinaryTree create(String name, int threads,
+			int keys[]) {
+		List<Integer> data = new ArrayList<Integer>(keys.length);
+		for(int key : keys)
+			data.add(key);
+		switch(name) {
+		case "SequentialBinaryTree":
+			return boxed(SequentialBinaryTree.bulkLoad(data));
+		case "FineGrainedLockingBinaryTree":
+			return boxed(FineGrainedLockingBinaryTree.bulkLoad(data));
+		case "RelaxedAVLTree":
+			rebalanced = RelaxedAVLTree.bulkLoad(data);
+			return boxed(rebalanced);
+		case "OptimisticAVLTree":
+			return boxed(OptimisticAVLTree.bulkLoad(data));
+		case "IntConcurrentAVLTree":
+			return IntConcurrentAVLTree.bulkLoad(keys);
+		case "LockFreeBinaryTree":
+			return boxed(LockFreeBinaryTree.bulkLoad(data));
+		case "OffHeapBinaryTree":
+			return OffHeapBinaryTree.bulkLoad(keys);
+		case "ShardedConcurrentTree":
+			//SHARDS fine-grained trees over equal slices of the key range
+			Integer boundaries[] = new Integer[SHARDS - 1];
+			for(int i = 1; i < SHARDS; i++)
+				boundaries[i - 1] = (int) ((long) keyRange * i / SHARDS);
+			ShardedConcurrentTree<Integer> sharded =
+					new ShardedConcurrentTree<Integer>(boundaries,
+							FineGrainedLockingBinaryTree<Integer>::new);
+			sharded.insertAll(data);
+			return boxed(sharded);
+		case "AVL_Tree":
+			LockedAVLTree locked = new LockedAVLTree(keys);
+			return new ConcurrentIntBinaryTree() {
+				public boolean insert(int key) {
+					return locked.insert(key);
+				}
+
+				public boolean remove(int key) {
+					return locked.deleteNode(key);
+				}
+
+				public boolean contains(int key) {
+					return locked.searchNode(key);
+				}
+			};
+		case "FlatCombiningAVLTree":
+			FlatCombiningAVLTree combining =
+					FlatCombiningAVLTree.bulkLoad(threads, keys);
+			return new ConcurrentIntBinaryTree() {
+				public boolean insert(int key) {
+					return combining.insert(key);
+				}
+
+				public boolean remove(int key) {
+					return combining.deleteNode(key);
+				}
+
+				public boolean contains(int key) {
+					return combining.searchNode(key);
+				}
+			};
+		case "EliminationBinaryTree":
+			//Only pays off with few keys, e.g. -p keyRange=20
+			return boxed(new EliminationBinaryTree<Integer>(
+					FineGrainedLockingBinaryTree.bulkLoad(data)));
+		case "ConcurrentSkipListSet":
+			return boxed(loaded(SortedSetTree.concurrentSkipListSet(), data));
+		case "SynchronizedTreeSet":
+			return boxed(loaded(SortedSetTree.synchronizedTreeSet(), data));
+		case "ReadWriteLockedTreeSet":
+			return boxed(loaded(SortedSetTree.readWriteLockedTreeSet(), data));
+		default:
+			throw new IllegalArgumentException("Unknown tree: " + name);
+		}
+	}
+
+	/**
+	 * Inserts data into tree, for the trees without a bulk load.
+	 */
+	private static ConcurrentBinaryTree<Integer> loaded(
+			ConcurrentBinaryTree<Integer> tree, List<Integer> data) {
+		tree.insertAll(data);
+		return tree;
+	}
+
+	/**
+	 * Adapts a generic tree, boxing every key on the way in.
+	 */
+	private static ConcurrentIntBinaryTree boxed(
+			ConcurrentBinaryTree<Integer> tree) {
+		return new ConcurrentIntBinaryTree() {
+			public boolean insert(int key) {
+				return tree.insert(key);
+			}
+
+			public boolean remove(int key) {
+				return tree.remove(key) != null;
+			}
+
+			public boolean contains(int key) {
+				return tree.contains(key);
+			}
+		};
+	}
+}
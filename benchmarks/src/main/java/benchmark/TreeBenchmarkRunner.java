@@ -0,0 +1,107 @@
+package benchmark;
+
+import test_bench.ThroughputReport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Tree Benchmark Runner
+ *
+ * Entry point of the benchmarks jar.  Accepts the usual JMH command line; if
+ * no thread count is given with -t, the benchmarks are run once for every
+ * thread count in the "threads" system property (1,2,4,8 by default).
+ *
+ * After a sweep, each benchmark's scores are printed again relative to the
+ * JDK baseline (ConcurrentSkipListSet or ConcurrentSkipListMap), one table
+ * for every combination of the other parameters.
+ *
+ */
+public class TreeBenchmarkRunner {
+
+	private static final String DEFAULT_THREADS = "1,2,4,8";
+
+	private static final String BASELINES[] = { "ConcurrentSkipListSet",
+			"ConcurrentSkipListMap" };
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if(cmd.shouldHelp() || cmd.shouldList() || cmd.getThreads().hasValue()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		List<RunResult> results = new ArrayList<RunResult>();
+		for(String count : System.getProperty("threads", DEFAULT_THREADS)
+				.split(",")) {
+			int threads = Integer.parseInt(count.trim());
+			System.out.println("# Thread sweep: " + threads + " threads");
+			results.addAll(new Runner(new OptionsBuilder()
+					.parent(cmd)
+					.threads(threads)
+					.build()).run());
+		}
+		printRelative(results);
+	}
+
+	/**
+	 * Prints the sweep's scores relative to the baseline impl of each
+	 * benchmark, grouped by benchmark and every parameter except impl.
+	 */
+	private static void printRelative(List<RunResult> results) {
+		Map<String, ThroughputReport> reports =
+				new LinkedHashMap<String, ThroughputReport>();
+		for(RunResult result : results) {
+			BenchmarkParams params = result.getParams();
+			String impl = params.getParam("impl");
+			if(impl == null)
+				continue;
+			String baseline = baseline(results, params.getBenchmark());
+			if(baseline == null)
+				continue;
+
+			StringBuilder group = new StringBuilder(params.getBenchmark());
+			for(String key : params.getParamsKeys()) {
+				if(!key.equals("impl"))
+					group.append(' ').append(key).append('=')
+							.append(params.getParam(key));
+			}
+			String title = group.toString();
+			reports.computeIfAbsent(title, t -> new ThroughputReport(baseline))
+					.add(impl, params.getThreads(),
+							Math.round(result.getPrimaryResult().getScore()));
+		}
+
+		for(Map.Entry<String, ThroughputReport> report : reports.entrySet()) {
+			System.out.println();
+			System.out.println("# " + report.getKey());
+			report.getValue().print();
+		}
+	}
+
+	/**
+	 * Returns the baseline impl benchmark was run with, or null if it wasn't
+	 * run with any.
+	 */
+	private static String baseline(List<RunResult> results, String benchmark) {
+		for(RunResult result : results) {
+			BenchmarkParams params = result.getParams();
+			String impl = params.getParam("impl");
+			if(params.getBenchmark().equals(benchmark)) {
+				for(String name : BASELINES) {
+					if(name.equals(impl))
+						return name;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,70 @@
+package rp;
+
+/**
+ * Coarse-grained front end for the sequential AVL_Tree, for use from outside
+ * the rp package.  Every operation holds the tree's own lock (AVL_Tree is a
+ * ReentrantLock) for its whole duration, which is what the monitor-based
+ * threads in Test_AVL do, minus the per-node locking on the root.
+ */
+public class LockedAVLTree {
+
+    private final AVL_Tree tree;
+
+    /**
+     * Creates an empty tree.
+     */
+    public LockedAVLTree() {
+        tree = new AVL_Tree();
+    }
+
+    /**
+     * Creates a tree preloaded with keys, built balanced in one pass.
+     */
+    public LockedAVLTree(int[] keys) {
+        tree = AVL_Tree.bulkLoad(keys);
+    }
+
+    /**
+     * Inserts key into the tree.
+     *
+     * @return True if key was not already in the tree
+     */
+    public boolean insert(int key) {
+        tree.lock();
+        try {
+            tree.root = tree.insert(tree.root, key);
+            return tree.changed;
+        } finally {
+            tree.unlock();
+        }
+    }
+
+    /**
+     * Removes key from the tree.
+     *
+     * @return True if key was in the tree
+     */
+    public boolean deleteNode(int key) {
+        tree.lock();
+        try {
+            tree.root = tree.deleteNode(tree.root, key);
+            return tree.changed;
+        } finally {
+            tree.unlock();
+        }
+    }
+
+    /**
+     * Searches the tree for key.
+     *
+     * @return True if key is in the tree
+     */
+    public boolean searchNode(int key) {
+        tree.lock();
+        try {
+            return tree.searchNode(tree.root, key) != null;
+        } finally {
+            tree.unlock();
+        }
+    }
+}